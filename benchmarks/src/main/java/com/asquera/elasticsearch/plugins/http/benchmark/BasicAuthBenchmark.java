@@ -0,0 +1,81 @@
+package com.asquera.elasticsearch.plugins.http.benchmark;
+
+import com.asquera.elasticsearch.plugins.http.auth.BasicAuthParser;
+import com.asquera.elasticsearch.plugins.http.auth.CredentialStore;
+import com.asquera.elasticsearch.plugins.http.auth.PasswordHash;
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+/**
+ * Basic authentication of a request with valid, invalid or missing
+ * credentials, against users with plain text or hashed passwords.
+ * <p>
+ * Invalid credentials of a hashed password pay the full PBKDF2 cost on
+ * every request, valid ones only the first time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BasicAuthBenchmark {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Param({"valid", "invalid", "missing"})
+    public String credentials;
+
+    @Param({"plain", "hashed"})
+    public String password;
+
+    @Param({"1", "100"})
+    public int users;
+
+    private CredentialStore store;
+    private String header;
+
+    @Setup
+    public void setUp() {
+        ImmutableSettings.Builder settings = ImmutableSettings.settingsBuilder();
+        for (int i = 0; i < users; i++) {
+            String key = "http.basic.users.user" + i;
+            if (password.equals("hashed")) {
+                settings.put(key + ".password_hash", PasswordHash.create("password" + i).toString());
+            } else {
+                settings.put(key + ".password", "password" + i);
+            }
+        }
+        Settings built = settings.build();
+        store = CredentialStore.fromSettings(built, new File("."));
+        int user = users - 1;
+        if (credentials.equals("valid")) {
+            header = basic("user" + user + ":password" + user);
+        } else if (credentials.equals("invalid")) {
+            header = basic("user" + user + ":wrong");
+        } else {
+            header = null;
+        }
+    }
+
+    private static String basic(String credentials) {
+        return "Basic " + Base64.encodeBytes(credentials.getBytes(UTF8));
+    }
+
+    @Benchmark
+    public Object authenticate() {
+        return BasicAuthParser.authenticate(header, store);
+    }
+}
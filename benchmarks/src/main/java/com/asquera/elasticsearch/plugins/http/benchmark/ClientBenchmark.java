@@ -0,0 +1,104 @@
+package com.asquera.elasticsearch.plugins.http.benchmark;
+
+import com.asquera.elasticsearch.plugins.http.auth.Client;
+import com.asquera.elasticsearch.plugins.http.auth.InetAddressWhitelist;
+import com.asquera.elasticsearch.plugins.http.auth.ProxyChains;
+import com.asquera.elasticsearch.plugins.http.auth.XForwardedFor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * The ip authorization of a request as done by the server for every
+ * request: parsing the X-Forwarded-For header, finding the trusted proxy
+ * chain and looking up the client ip in the whitelist.
+ * <p>
+ * The request comes through a chain of proxyChainLength proxies, the
+ * trusted one among trustedChainCount configured chains. A length of 0
+ * means a direct connection without X-Forwarded-For header. In the
+ * partially trusted case only the request ip is a trusted proxy.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientBenchmark {
+
+    @Param({"0", "1", "5", "20"})
+    public int proxyChainLength;
+
+    @Param({"1", "10", "1000"})
+    public int trustedChainCount;
+
+    @Param({"100"})
+    public int whitelistSize;
+
+    private InetAddressWhitelist whitelist;
+    private ProxyChains proxyChains;
+    private InetAddress requestIp;
+    private String trustedHeader;
+    private String untrustedHeader;
+
+    @Setup
+    public void setUp() throws UnknownHostException {
+        String[] ips = new String[whitelistSize];
+        for (int i = 0; i < whitelistSize; i++) {
+            ips[i] = Ips.ipv4(i);
+        }
+        whitelist = new InetAddressWhitelist(ips);
+
+        // the last proxy is the request ip, the others are in the header
+        String[] chains = new String[trustedChainCount];
+        for (int c = 0; c < trustedChainCount; c++) {
+            chains[c] = chain(c * 32, proxyChainLength);
+        }
+        proxyChains = new ProxyChains(chains);
+        requestIp = InetAddress.getByName(proxyChainLength > 0
+            ? Ips.proxy((trustedChainCount - 1) * 32 + proxyChainLength - 1)
+            : ips[0]);
+
+        String client = ips[whitelistSize - 1];
+        trustedHeader = header(client, (trustedChainCount - 1) * 32);
+        untrustedHeader = header(client, trustedChainCount * 32);
+    }
+
+    private static String chain(int first, int length) {
+        StringBuilder chain = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                chain.append(',');
+            }
+            chain.append(Ips.proxy(first + i));
+        }
+        return chain.toString();
+    }
+
+    private String header(String client, int firstProxy) {
+        if (proxyChainLength == 0) {
+            return null;
+        }
+        String proxies = chain(firstProxy, proxyChainLength - 1);
+        return proxies.isEmpty() ? client : client + ", " + proxies;
+    }
+
+    @Benchmark
+    public boolean trustedChain() {
+        return new Client(requestIp, whitelist, new XForwardedFor(trustedHeader), proxyChains).isAuthorized();
+    }
+
+    @Benchmark
+    public boolean partiallyTrustedChain() {
+        return new Client(requestIp, whitelist, new XForwardedFor(untrustedHeader), proxyChains).isAuthorized();
+    }
+}
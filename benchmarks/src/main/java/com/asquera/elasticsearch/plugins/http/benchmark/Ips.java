@@ -0,0 +1,26 @@
+package com.asquera.elasticsearch.plugins.http.benchmark;
+
+/**
+ * Generates distinct ips for the benchmarks
+ */
+final class Ips {
+
+    private Ips() {
+    }
+
+    /**
+     * @param i
+     * @return the i-th ip of 10.0.0.0/8
+     */
+    static String ipv4(int i) {
+        return "10." + ((i >>> 16) & 0xff) + "." + ((i >>> 8) & 0xff) + "." + (i & 0xff);
+    }
+
+    /**
+     * @param i
+     * @return the i-th ip of 172.16.0.0/12
+     */
+    static String proxy(int i) {
+        return "172." + (16 + ((i >>> 16) & 0x0f)) + "." + ((i >>> 8) & 0xff) + "." + (i & 0xff);
+    }
+}
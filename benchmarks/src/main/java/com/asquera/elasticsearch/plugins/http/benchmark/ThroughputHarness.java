@@ -0,0 +1,260 @@
+package com.asquera.elasticsearch.plugins.http.benchmark;
+
+import com.asquera.elasticsearch.plugins.http.HttpBasicServerPlugin;
+import com.asquera.elasticsearch.plugins.http.LatencyHistogram;
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput and latency of an in process node, first without
+ * and then with the plugin, under concurrent keep alive HTTP traffic.
+ * <p>
+ * With the plugin, every scenario is run on its own: requests with valid
+ * basic auth credentials, requests from a whitelisted ip, requests through
+ * a trusted proxy for a whitelisted client, rejected requests and a mix of
+ * all of them. Without the plugin, the same requests are all served.
+ * <p>
+ * Settings are given as system properties:
+ * <ul>
+ *  <li>harness.threads: number of concurrent connections, 16
+ *  <li>harness.warmup: seconds of warm up per scenario, 5
+ *  <li>harness.duration: seconds measured per scenario, 15
+ *  <li>harness.path: requested path, /_cluster/health
+ *  <li>harness.port: http port of the node, 9250
+ *  <li>harness.credentials: user:password configured on the node and sent
+ *  by the basic auth requests, harness:harness_pw
+ * </ul>
+ */
+public class ThroughputHarness {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String CREDENTIALS = System.getProperty("harness.credentials", "harness:harness_pw");
+    private static final String USER = CREDENTIALS.substring(0, CREDENTIALS.indexOf(':'));
+    private static final String PASSWORD = CREDENTIALS.substring(CREDENTIALS.indexOf(':') + 1);
+    private static final String AUTHORIZATION = "Basic "
+        + Base64.encodeBytes(CREDENTIALS.getBytes(UTF8));
+    private static final String WRONG_AUTHORIZATION = "Basic "
+        + Base64.encodeBytes((USER + ":wrong" + PASSWORD).getBytes(UTF8));
+
+    private final int threads = Integer.getInteger("harness.threads", 16);
+    private final int warmup = Integer.getInteger("harness.warmup", 5);
+    private final int duration = Integer.getInteger("harness.duration", 15);
+    private final String path = System.getProperty("harness.path", "/_cluster/health");
+    private final int port = Integer.getInteger("harness.port", 9250);
+
+    /**
+     * The headers of a request, and its expected status
+     */
+    enum Scenario {
+        BASIC(200, "Authorization", AUTHORIZATION),
+        WHITELISTED(200),
+        PROXIED(200, "X-Forwarded-For", "10.0.0.1"),
+        UNAUTHORIZED(401, "Authorization", WRONG_AUTHORIZATION, "X-Forwarded-For", "192.168.0.1");
+
+        final int status;
+        final String[] headers;
+
+        Scenario(int status, String... headers) {
+            this.status = status;
+            this.headers = headers;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // one keep alive connection per thread
+        System.setProperty("http.maxConnections", Integer.toString(Integer.getInteger("harness.threads", 16)));
+        new ThroughputHarness().run();
+    }
+
+    void run() throws Exception {
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        Node node = startNode(false);
+        try {
+            // the jvm is cold, the first scenario would pay for the jit of the whole http stack
+            run(Scenario.values(), false, warmup + duration, null);
+            results.put("no plugin", measure(Scenario.values(), false));
+        } finally {
+            node.close();
+        }
+        node = startNode(true);
+        try {
+            for (Scenario scenario : Scenario.values()) {
+                results.put(scenario.name().toLowerCase(Locale.ROOT), measure(new Scenario[]{scenario}, true));
+            }
+            results.put("mixed", measure(Scenario.values(), true));
+        } finally {
+            node.close();
+        }
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-14s %12s %10s %10s %10s %10s %8s",
+            "scenario", "requests/s", "p50 us", "p99 us", "p999 us", "max us", "errors"));
+        for (Map.Entry<String, Result> entry : results.entrySet()) {
+            System.out.println(String.format(Locale.ROOT, "%-14s %s", entry.getKey(), entry.getValue()));
+        }
+        double baseline = results.get("no plugin").throughput;
+        double mixed = results.get("mixed").throughput;
+        System.out.println(String.format(Locale.ROOT, "plugin overhead on the mixed scenario: %.1f%% of the throughput",
+            100 * (baseline - mixed) / baseline));
+    }
+
+    private Node startNode(boolean plugin) {
+        ImmutableSettings.Builder settings = ImmutableSettings.settingsBuilder()
+            .put("cluster.name", "http-basic-harness")
+            .put("node.name", plugin ? "with-plugin" : "without-plugin")
+            .put("network.host", "127.0.0.1")
+            .put("http.port", port)
+            .put("path.data", new File(System.getProperty("java.io.tmpdir"), "http-basic-harness").getPath())
+            .put("index.number_of_shards", 1)
+            .put("index.number_of_replicas", 0)
+            .put("discovery.zen.ping.multicast.enabled", false)
+            // the plugin is on the classpath, it is only loaded through plugin.types
+            .put("plugins.load_classpath_plugins", false)
+            .put("http.basic.log", false)
+            .put("http.basic.user", USER)
+            .put("http.basic.password", PASSWORD)
+            .putArray("http.basic.ipwhitelist", "127.0.0.1", "10.0.0.0/24")
+            .putArray("http.basic.trusted_proxy_chains", "127.0.0.1")
+            .put("http.basic.xforward", "X-Forwarded-For")
+            .put("http.basic.unauthorized_log.mode", "sampled");
+        if (plugin) {
+            settings.put("plugin.types", HttpBasicServerPlugin.class.getName());
+        }
+        Node node = NodeBuilder.nodeBuilder().local(true).settings(settings).node();
+        node.client().admin().cluster().prepareHealth().setWaitForYellowStatus().get();
+        return node;
+    }
+
+    /**
+     * Runs the scenarios in turns, on every connection, during the warm up
+     * and then the measure.
+     *
+     * @param scenarios
+     * @param plugin false if every request is expected to be served
+     */
+    private Result measure(final Scenario[] scenarios, final boolean plugin) throws Exception {
+        run(scenarios, plugin, warmup, null);
+        LatencyHistogram latencies = new LatencyHistogram(threads);
+        long start = System.nanoTime();
+        long errors = run(scenarios, plugin, duration, latencies);
+        long elapsed = System.nanoTime() - start;
+        return new Result(latencies.snapshot(), elapsed, errors);
+    }
+
+    private long run(final Scenario[] scenarios, final boolean plugin, int seconds,
+            final LatencyHistogram latencies) throws Exception {
+        final URL url = new URL("http", "127.0.0.1", port, path);
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[8192];
+                    try {
+                        for (int i = offset; System.nanoTime() < end; i++) {
+                            Scenario scenario = scenarios[i % scenarios.length];
+                            long start = System.nanoTime();
+                            int status = request(url, scenario, buffer);
+                            if (latencies != null) {
+                                latencies.record(System.nanoTime() - start);
+                            }
+                            if (status != (plugin ? scenario.status : 200)) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "harness-" + t);
+            worker.start();
+        }
+        done.await();
+        return errors.get();
+    }
+
+    /**
+     * @return the status of the response, -1 on an I/O error
+     */
+    private static int request(URL url, Scenario scenario, byte[] buffer) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            for (int i = 0; i < scenario.headers.length; i += 2) {
+                connection.setRequestProperty(scenario.headers[i], scenario.headers[i + 1]);
+            }
+            int status = connection.getResponseCode();
+            // the connection is only kept alive once the body is read
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream(), buffer);
+            return status;
+        } catch (IOException e) {
+            if (connection != null) {
+                try {
+                    drain(connection.getErrorStream(), buffer);
+                } catch (IOException ignored) {
+                    // the connection is dropped anyway
+                }
+                connection.disconnect();
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Reads and closes the body of a response.
+     *
+     * @param body the input or error stream of the connection, may be null
+     * @param buffer
+     */
+    private static void drain(InputStream body, byte[] buffer) throws IOException {
+        if (body == null) {
+            return;
+        }
+        try {
+            while (body.read(buffer) >= 0) {
+                // discard
+            }
+        } finally {
+            body.close();
+        }
+    }
+
+    private static class Result {
+        final LatencyHistogram.Snapshot latencies;
+        final double throughput;
+        final long errors;
+
+        Result(LatencyHistogram.Snapshot latencies, long elapsedNanos, long errors) {
+            this.latencies = latencies;
+            this.throughput = latencies.count() * 1e9 / elapsedNanos;
+            this.errors = errors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%12.0f %10.1f %10.1f %10.1f %10.1f %8d",
+                throughput,
+                latencies.percentile(0.5) / 1000.0,
+                latencies.percentile(0.99) / 1000.0,
+                latencies.percentile(0.999) / 1000.0,
+                latencies.max() / 1000.0,
+                errors);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.asquera.elasticsearch.plugins.http.benchmark;
+
+import com.asquera.elasticsearch.plugins.http.auth.InetAddressWhitelist;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Lookups of client ips in whitelists of growing size, for a whitelisted
+ * and a not whitelisted client, given as the request ip or as the ip of
+ * the X-Forwarded-For header.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WhitelistBenchmark {
+
+    @Param({"1", "100", "10000", "100000"})
+    public int whitelistSize;
+
+    private InetAddressWhitelist whitelist;
+    private String whitelistedIp;
+    private String notWhitelistedIp;
+    private InetAddress whitelistedAddress;
+    private InetAddress notWhitelistedAddress;
+
+    @Setup
+    public void setUp() throws UnknownHostException {
+        String[] ips = new String[whitelistSize];
+        for (int i = 0; i < whitelistSize; i++) {
+            ips[i] = Ips.ipv4(i);
+        }
+        whitelist = new InetAddressWhitelist(ips);
+        whitelistedIp = ips[whitelistSize / 2];
+        notWhitelistedIp = "192.168.1.1";
+        whitelistedAddress = InetAddress.getByName(whitelistedIp);
+        notWhitelistedAddress = InetAddress.getByName(notWhitelistedIp);
+    }
+
+    @Benchmark
+    public boolean whitelistedString() {
+        return whitelist.contains(whitelistedIp);
+    }
+
+    @Benchmark
+    public boolean notWhitelistedString() {
+        return whitelist.contains(notWhitelistedIp);
+    }
+
+    @Benchmark
+    public boolean whitelistedAddress() {
+        return whitelist.contains(whitelistedAddress);
+    }
+
+    @Benchmark
+    public boolean notWhitelistedAddress() {
+        return whitelist.contains(notWhitelistedAddress);
+    }
+}
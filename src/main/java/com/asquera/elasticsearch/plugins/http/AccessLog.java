@@ -0,0 +1,297 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.http.HttpRequest;
+import org.elasticsearch.rest.RestRequest;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous access log.
+ * <p>
+ * The I/O threads only copy the metadata of a request into a preallocated
+ * slot of a bounded ring buffer, claimed with a compare and set, and return.
+ * A single background thread drains the buffer in batches, formats the
+ * entries and writes them to the log.
+ * <p>
+ * When the buffer is full, an entry is either dropped or the I/O thread
+ * waits for a free slot, depending on the {@link Overflow} policy. Both
+ * cases are counted.
+ */
+public class AccessLog {
+
+    /**
+     * What to do with an entry when the buffer is full
+     */
+    public enum Overflow {
+        /** drop the entry, the request goes on */
+        DROP,
+        /** wait for the background thread to free a slot */
+        BLOCK
+    }
+
+    private static final long BLOCK_PARK_NANOS = 10000;
+    private static final long IDLE_PARK_NANOS = 100000000;
+
+    private final Entry[] entries;
+    /**
+     * per slot: the position it can be claimed at by a producer, or that
+     * position + 1 once the entry is published
+     */
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    /** next position to consume, only read and written by the consumer */
+    private long head;
+    private final Overflow overflow;
+    private final int batchSize;
+    private final ESLogger logger;
+
+    private final AtomicLong logged = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+
+    private volatile Thread consumer;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    /**
+     * @param size number of entries buffered, rounded up to a power of two
+     * @param batchSize maximum number of entries written per wake up
+     * @param overflow what to do when the buffer is full
+     */
+    public AccessLog(int size, int batchSize, Overflow overflow) {
+        int capacity = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        this.entries = new Entry[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+        this.batchSize = Math.max(1, batchSize);
+        this.overflow = overflow;
+        this.logger = Loggers.getLogger(HttpBasicServer.class);
+    }
+
+    /**
+     * starts the background thread
+     */
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "http-basic-access-log");
+        thread.setDaemon(true);
+        consumer = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the background thread once the buffered entries are written.
+     * Entries added afterwards are dropped.
+     */
+    public void close() {
+        closed = true;
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Copies the request metadata into the buffer, formatting is left to the
+     * background thread.
+     *
+     * @param request
+     * @param requestIp the ip of the direct client
+     * @param xForwardHeader name of the configured xforward header
+     * @param outcome
+     * @return true iff the entry was buffered, false if it was dropped
+     */
+    public boolean add(HttpRequest request, InetAddress requestIp, String xForwardHeader, AuthOutcome outcome) {
+        long position;
+        boolean waited = false;
+        while (true) {
+            position = tail.get();
+            long sequence = sequences.get((int) position & mask);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                // the slot still holds the entry of the previous lap: full
+                if (overflow == Overflow.DROP || closed) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                if (!waited) {
+                    blocked.incrementAndGet();
+                    waited = true;
+                }
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+            // otherwise another producer claimed the slot first, retry
+        }
+        int slot = (int) position & mask;
+        Entry entry = entries[slot];
+        entry.timestamp = System.currentTimeMillis();
+        entry.method = request.method();
+        entry.host = request.header("Host");
+        entry.path = request.path();
+        entry.authorization = request.header("Authorization");
+        entry.xForwardHeader = xForwardHeader;
+        entry.xForwardedFor = request.header(xForwardHeader);
+        entry.requestIp = requestIp;
+        entry.clientIp = request.header("Client-IP");
+        entry.xClientIp = request.header("X-Client-IP");
+        entry.outcome = outcome;
+        sequences.set(slot, position + 1);
+        if (waiting) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    private void consume() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            int written = drain(line);
+            if (written == 0) {
+                if (closed) {
+                    return;
+                }
+                waiting = true;
+                if (!hasNext()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    /**
+     * writes at most one batch of entries
+     *
+     * @return the number of entries written
+     */
+    int drain(StringBuilder line) {
+        int written = 0;
+        while (written < batchSize && hasNext()) {
+            int slot = (int) head & mask;
+            Entry entry = entries[slot];
+            line.setLength(0);
+            entry.format(line);
+            entry.clear();
+            sequences.set(slot, head + entries.length);
+            head++;
+            write(line.toString());
+            written++;
+        }
+        logged.addAndGet(written);
+        return written;
+    }
+
+    private boolean hasNext() {
+        return sequences.get((int) head & mask) == head + 1;
+    }
+
+    /**
+     * @param line a formatted entry
+     */
+    protected void write(String line) {
+        logger.info(line);
+    }
+
+    /**
+     * @return the number of entries written
+     */
+    public long getLogged() {
+        return logged.get();
+    }
+
+    /**
+     * @return the number of entries dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of entries that waited for a free slot
+     */
+    public long getBlocked() {
+        return blocked.get();
+    }
+
+    /**
+     * @return the number of slots of the buffer
+     */
+    public int capacity() {
+        return entries.length;
+    }
+
+    @Override
+    public String toString() {
+        return "access log: logged " + getLogged() + ", dropped " + getDropped()
+            + ", blocked " + getBlocked() + ", capacity " + capacity()
+            + ", overflow " + overflow;
+    }
+
+    /**
+     * A preallocated slot of the buffer
+     */
+    private static class Entry {
+        long timestamp;
+        RestRequest.Method method;
+        String host;
+        String path;
+        String authorization;
+        String xForwardHeader;
+        String xForwardedFor;
+        InetAddress requestIp;
+        String clientIp;
+        String xClientIp;
+        AuthOutcome outcome;
+
+        void format(StringBuilder line) {
+            line.append("Authorization:").append(authorization)
+                .append(", type: ").append(method)
+                .append(", Host:").append(host)
+                .append(", Path:").append(path)
+                .append(", ").append(xForwardHeader).append(':').append(xForwardedFor)
+                .append(", Request-IP:").append(requestIp == null ? null : requestIp.getHostAddress())
+                .append(", Client-IP:").append(clientIp)
+                .append(", X-Client-IP:").append(xClientIp)
+                .append(", outcome:").append(outcome)
+                .append(", at:").append(timestamp);
+        }
+
+        /**
+         * drops the references so the buffer does not keep requests alive
+         */
+        void clear() {
+            method = null;
+            host = null;
+            path = null;
+            authorization = null;
+            xForwardHeader = null;
+            xForwardedFor = null;
+            requestIp = null;
+            clientIp = null;
+            xClientIp = null;
+            outcome = null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import com.asquera.elasticsearch.plugins.http.auth.RateLimit;
+import com.asquera.elasticsearch.plugins.http.auth.TokenBucket;
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps the work spent on requests that fail authentication: how many are
+ * handled at once and how many per second. The requests over the limits
+ * are answered right away, without being logged.
+ * <p>
+ * The logging and the response write after the credentials check are
+ * covered, which run on the netty worker threads: the concurrency is
+ * already bounded by their number, a higher maximum has no effect. So is
+ * the verification of password hashes not verified before, whatever its
+ * result: a request failing it keeps its slot for the rest of the work.
+ * <p>
+ * Authorized requests only go through it for such a verification.
+ */
+public class AdmissionControl {
+    private final int maxConcurrent;
+    /**
+     * null when the rate is unlimited
+     */
+    private final TokenBucket rate;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shedConcurrent = new LongAdder();
+    private final LongAdder shedRate = new LongAdder();
+
+    /**
+     * @param maxConcurrent maximum number of requests handled at once, 0 for
+     * no limit
+     * @param rate maximum rate of the requests handled, null for no limit
+     */
+    public AdmissionControl(int maxConcurrent, RateLimit rate) {
+        this.maxConcurrent = maxConcurrent;
+        this.rate = rate == null ? null : new TokenBucket(rate, System.nanoTime());
+    }
+
+    /**
+     * @param now current time in nanoseconds
+     * @return true iff the request may be handled, {@link #release()} must
+     * then be called once it is
+     */
+    public boolean tryAcquire(long now) {
+        if (maxConcurrent > 0) {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= maxConcurrent) {
+                    shedConcurrent.increment();
+                    return false;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    break;
+                }
+            }
+        }
+        if (rate != null && !rate.tryTake(now)) {
+            release();
+            shedRate.increment();
+            return false;
+        }
+        admitted.increment();
+        return true;
+    }
+
+    public void release() {
+        if (maxConcurrent > 0) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of requests being handled
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return the number of requests shed because too many were handled at
+     * once
+     */
+    public long getShedConcurrent() {
+        return shedConcurrent.sum();
+    }
+
+    /**
+     * @return the number of requests shed because of their rate
+     */
+    public long getShedRate() {
+        return shedRate.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "unauthorized admission control: "
+            + (maxConcurrent > 0 ? maxConcurrent : "unlimited") + " at once, "
+            + (rate != null ? rate.getLimit().toString() : "unlimited rate") + ", "
+            + admitted.sum() + " admitted, "
+            + shedConcurrent.sum() + " shed by concurrency, "
+            + shedRate.sum() + " shed by rate";
+    }
+}
@@ -0,0 +1,51 @@
+package com.asquera.elasticsearch.plugins.http;
+
+/**
+ * How a request was let through, or not, by {@link HttpBasicServer}.
+ */
+public enum AuthOutcome {
+    /** CORS preflight request, always allowed */
+    CORS,
+    /** authenticated with valid basic auth credentials */
+    BASIC,
+    /** authenticated with a valid session cookie */
+    SESSION,
+    /** authenticated with a valid api key */
+    API_KEY,
+    /** authenticated with a valid bearer token */
+    BEARER,
+    /** authorized by the ip whitelist */
+    IP,
+    /** public route, passed on without credentials */
+    PUBLIC,
+    /** unauthorized request to the health check */
+    HEALTH_CHECK,
+    /** rejected with a 401 */
+    UNAUTHORIZED,
+    /** rejected with a 429, the client is over its failure budget */
+    THROTTLED,
+    /** rejected with a 403, the client is banned */
+    BANNED,
+    /** authenticated, but rejected with a 429, the user is over its quota */
+    OVER_QUOTA,
+    /** authenticated, but rejected with a 429, the user has too many requests in flight */
+    OVER_CONCURRENCY,
+    /** authenticated, but rejected with a 403, the route is not allowed */
+    FORBIDDEN;
+
+    /**
+     * @return true iff the request is passed on to elasticsearch
+     */
+    public boolean isAuthorized() {
+        return this == CORS || this == BASIC || this == SESSION || this == API_KEY || this == BEARER
+            || this == IP || this == PUBLIC;
+    }
+
+    /**
+     * @return true iff the request is passed on for a user or a whitelisted
+     * ip, so the access control applies to it
+     */
+    public boolean isAuthenticated() {
+        return this == BASIC || this == SESSION || this == API_KEY || this == BEARER || this == IP;
+    }
+}
@@ -0,0 +1,58 @@
+package com.asquera.elasticsearch.plugins.http;
+
+/**
+ * The {@link AuthOutcome} of a request and the user it authenticated, if
+ * any.
+ */
+public final class AuthResult {
+    private static final AuthResult[] ANONYMOUS;
+
+    static {
+        AuthOutcome[] outcomes = AuthOutcome.values();
+        ANONYMOUS = new AuthResult[outcomes.length];
+        for (AuthOutcome outcome : outcomes) {
+            ANONYMOUS[outcome.ordinal()] = new AuthResult(outcome, null);
+        }
+    }
+
+    private final AuthOutcome outcome;
+    private final String principal;
+
+    private AuthResult(AuthOutcome outcome, String principal) {
+        this.outcome = outcome;
+        this.principal = principal;
+    }
+
+    /**
+     * @param outcome
+     * @return the result of a request that authenticated no user, shared
+     */
+    public static AuthResult of(AuthOutcome outcome) {
+        return ANONYMOUS[outcome.ordinal()];
+    }
+
+    /**
+     * @param outcome
+     * @param principal name of the authenticated user
+     * @return the result of a request that authenticated the user
+     */
+    public static AuthResult authenticated(AuthOutcome outcome, String principal) {
+        return new AuthResult(outcome, principal);
+    }
+
+    public AuthOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return the name of the authenticated user, null if none
+     */
+    public String getPrincipal() {
+        return principal;
+    }
+
+    @Override
+    public String toString() {
+        return principal == null ? outcome.toString() : outcome + "(" + principal + ")";
+    }
+}
@@ -0,0 +1,111 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Counts the requests of each {@link AuthOutcome} and records how long the
+ * auth decision took.
+ * <p>
+ * Counters are striped and the histogram is lock free, so recording can be
+ * left on in production.
+ */
+public class AuthStats {
+    private static final AuthOutcome[] OUTCOMES = AuthOutcome.values();
+
+    private final LongAdder[] outcomes = new LongAdder[OUTCOMES.length];
+    private final LatencyHistogram decisionLatency = new LatencyHistogram();
+
+    public AuthStats() {
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param outcome
+     * @param decisionNanos time taken to decide the outcome
+     */
+    public void record(AuthOutcome outcome, long decisionNanos) {
+        outcomes[outcome.ordinal()].increment();
+        decisionLatency.record(decisionNanos);
+    }
+
+    /**
+     * @param outcome
+     * @return the number of requests with the outcome
+     */
+    public long count(AuthOutcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of requests of each outcome, by ordinal
+     */
+    public long[] counts() {
+        long[] counts = new long[OUTCOMES.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = outcomes[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return the latencies of the auth decision
+     */
+    public LatencyHistogram getDecisionLatency() {
+        return decisionLatency;
+    }
+
+    /**
+     * @param builder
+     * @param buckets whether to add the histogram buckets, needed to merge
+     * the histograms of several nodes
+     */
+    public void toXContent(XContentBuilder builder, boolean buckets) throws IOException {
+        toXContent(builder, counts(), decisionLatency.snapshot(), buckets);
+    }
+
+    /**
+     * Writes stats taken on one or several nodes.
+     *
+     * @param builder
+     * @param counts the number of requests of each outcome, by ordinal
+     * @param snapshot the latencies of the auth decision
+     * @param buckets whether to add the histogram buckets
+     */
+    public static void toXContent(XContentBuilder builder, long[] counts, LatencyHistogram.Snapshot snapshot,
+            boolean buckets) throws IOException {
+        builder.startObject("requests");
+        long total = 0;
+        for (AuthOutcome outcome : OUTCOMES) {
+            long count = outcome.ordinal() < counts.length ? counts[outcome.ordinal()] : 0;
+            builder.field(outcome.name().toLowerCase(Locale.ROOT), count);
+            total += count;
+        }
+        builder.field("total", total);
+        builder.endObject();
+
+        builder.startObject("decision_latency");
+        builder.field("count", snapshot.count());
+        builder.field("p50_nanos", snapshot.percentile(0.5));
+        builder.field("p99_nanos", snapshot.percentile(0.99));
+        builder.field("p999_nanos", snapshot.percentile(0.999));
+        builder.field("max_nanos", snapshot.max());
+        if (buckets) {
+            builder.startArray("buckets");
+            long[] values = snapshot.buckets();
+            for (int i = 0; i < values.length; i += 2) {
+                builder.startObject();
+                builder.field("from_nanos", values[i]);
+                builder.field("count", values[i + 1]);
+                builder.endObject();
+            }
+            builder.endArray();
+        }
+        builder.endObject();
+    }
+}
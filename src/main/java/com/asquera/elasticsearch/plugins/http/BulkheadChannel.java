@@ -0,0 +1,44 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import org.elasticsearch.http.HttpChannel;
+import org.elasticsearch.rest.RestResponse;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Releases a slot of a {@link UserBulkhead} once the response of the
+ * request is sent through the channel it wraps.
+ */
+class BulkheadChannel extends HttpChannel {
+    private final HttpChannel channel;
+    private final UserBulkhead.Slots slots;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * @param channel the channel of the request
+     * @param slots holding a slot taken for the request
+     */
+    BulkheadChannel(HttpChannel channel, UserBulkhead.Slots slots) {
+        super(channel.request(), channel.detailedErrorsEnabled());
+        this.channel = channel;
+        this.slots = slots;
+    }
+
+    @Override
+    public void sendResponse(RestResponse response) {
+        try {
+            channel.sendResponse(response);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Releases the slot, only the first call has an effect.
+     */
+    void release() {
+        if (released.compareAndSet(false, true)) {
+            slots.release();
+        }
+    }
+}
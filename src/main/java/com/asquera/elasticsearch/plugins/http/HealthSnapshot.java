@@ -0,0 +1,185 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthStatus;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.http.HttpRequest;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestRequest.Method;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The health endpoint for load balancer probes: every caller gets the
+ * last snapshot of the cluster health, serialized once per refresh, so a
+ * probe costs a volatile read and never reaches the cluster state or the
+ * rest controller.
+ * <p>
+ * The snapshot is answered with a 200 while the cluster is green or
+ * yellow, with a 503 while it is red, before the first refresh or when the
+ * last one failed.
+ */
+public class HealthSnapshot {
+    private final String path;
+    private final TimeValue interval;
+    private final String nodeName;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile BytesRestResponse response;
+
+    /**
+     * @param path the path of the endpoint
+     * @param interval time between two refreshes
+     * @param nodeName the name of this node, reported in the snapshot
+     */
+    public HealthSnapshot(String path, TimeValue interval, String nodeName) {
+        this.path = path;
+        this.interval = interval;
+        this.nodeName = nodeName;
+        this.response = unavailable("no health snapshot yet");
+    }
+
+    /**
+     * Reads http.basic.health.path and http.basic.health.interval.
+     *
+     * @param settings
+     * @return the health endpoint, null if no path is configured
+     */
+    public static HealthSnapshot fromSettings(Settings settings) {
+        String path = settings.get("http.basic.health.path", "");
+        if (path.isEmpty()) {
+            return null;
+        }
+        if (!path.startsWith("/")) {
+            throw new IllegalArgumentException("http.basic.health.path must start with /: " + path);
+        }
+        return new HealthSnapshot(path,
+            settings.getAsTime("http.basic.health.interval", TimeValue.timeValueSeconds(1)),
+            settings.get("name", ""));
+    }
+
+    /**
+     * @param request
+     * @return true iff the request is a GET or HEAD of the endpoint
+     */
+    public boolean matches(HttpRequest request) {
+        Method method = request.method();
+        return (method == Method.GET || method == Method.HEAD) && path.equals(request.path());
+    }
+
+    /**
+     * @return the response to every probe, until the next refresh
+     */
+    public BytesRestResponse getResponse() {
+        return response;
+    }
+
+    public TimeValue getInterval() {
+        return interval;
+    }
+
+    /**
+     * Asks the local node for the cluster health and replaces the snapshot
+     * once it answers. Does nothing while a previous refresh is running.
+     *
+     * @param client
+     */
+    public void refresh(Client client) {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            client.admin().cluster().prepareHealth().setLocal(true).execute(new ActionListener<ClusterHealthResponse>() {
+                @Override
+                public void onResponse(ClusterHealthResponse health) {
+                    try {
+                        update(health);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    try {
+                        fail(e);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.set(false);
+            fail(e);
+        }
+    }
+
+    /**
+     * Replaces the snapshot by the given health.
+     *
+     * @param health
+     */
+    public void update(ClusterHealthResponse health) {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder();
+            builder.startObject();
+            builder.field("cluster_name", health.getClusterName());
+            builder.field("node", nodeName);
+            builder.field("status", health.getStatus().name().toLowerCase(Locale.ROOT));
+            builder.field("timed_out", health.isTimedOut());
+            builder.field("number_of_nodes", health.getNumberOfNodes());
+            builder.field("number_of_data_nodes", health.getNumberOfDataNodes());
+            builder.field("active_primary_shards", health.getActivePrimaryShards());
+            builder.field("active_shards", health.getActiveShards());
+            builder.field("relocating_shards", health.getRelocatingShards());
+            builder.field("initializing_shards", health.getInitializingShards());
+            builder.field("unassigned_shards", health.getUnassignedShards());
+            builder.field("timestamp", System.currentTimeMillis());
+            builder.endObject();
+            RestStatus status = health.getStatus() == ClusterHealthStatus.RED
+                ? RestStatus.SERVICE_UNAVAILABLE
+                : RestStatus.OK;
+            response = new BytesRestResponse(status, builder);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Replaces the snapshot by a 503, the health could not be read.
+     *
+     * @param e the reason
+     */
+    public void fail(Throwable e) {
+        Loggers.getLogger(getClass()).warn("could not refresh the health snapshot: {}", e.getMessage());
+        response = unavailable(e.getMessage());
+    }
+
+    private BytesRestResponse unavailable(String reason) {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder();
+            builder.startObject();
+            builder.field("node", nodeName);
+            builder.field("status", "unavailable");
+            builder.field("reason", reason);
+            builder.field("timestamp", System.currentTimeMillis());
+            builder.endObject();
+            return new BytesRestResponse(RestStatus.SERVICE_UNAVAILABLE, builder);
+        } catch (IOException e) {
+            return new BytesRestResponse(RestStatus.SERVICE_UNAVAILABLE, "unavailable");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "health endpoint: " + path + ", refreshed every " + interval;
+    }
+}
@@ -1,37 +1,87 @@
 package com.asquera.elasticsearch.plugins.http;
 
+import com.asquera.elasticsearch.plugins.http.action.NodesAuthStatsAction;
+import com.asquera.elasticsearch.plugins.http.action.NodesAuthStatsRequest;
+import com.asquera.elasticsearch.plugins.http.action.NodesAuthStatsResponse;
+import com.asquera.elasticsearch.plugins.http.auth.ApiKeys;
+import com.asquera.elasticsearch.plugins.http.auth.AuthDecisionCache;
+import com.asquera.elasticsearch.plugins.http.auth.AuthPolicy;
+import com.asquera.elasticsearch.plugins.http.auth.BanList;
+import com.asquera.elasticsearch.plugins.http.auth.BasicAuthParser;
 import com.asquera.elasticsearch.plugins.http.auth.Client;
-import com.asquera.elasticsearch.plugins.http.auth.InetAddressWhitelist;
-import com.asquera.elasticsearch.plugins.http.auth.ProxyChains;
-import com.asquera.elasticsearch.plugins.http.auth.XForwardedFor;
+import com.asquera.elasticsearch.plugins.http.auth.CredentialStore;
+import com.asquera.elasticsearch.plugins.http.auth.IpAddresses;
+import com.asquera.elasticsearch.plugins.http.auth.IpThrottle;
+import com.asquera.elasticsearch.plugins.http.auth.JwtVerifier;
+import com.asquera.elasticsearch.plugins.http.auth.RateLimit;
+import com.asquera.elasticsearch.plugins.http.auth.RouteTrie;
+import com.asquera.elasticsearch.plugins.http.auth.SessionCookies;
+import com.asquera.elasticsearch.plugins.http.auth.User;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.cache.CacheStats;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.http.HttpChannel;
 import org.elasticsearch.http.HttpRequest;
 import org.elasticsearch.http.HttpServer;
 import org.elasticsearch.http.HttpServerTransport;
 import org.elasticsearch.node.service.NodeService;
+import org.elasticsearch.node.settings.NodeSettingsService;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestController;
-import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.RestRequest.Method;
+import org.elasticsearch.threadpool.ThreadPool;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
 import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledFuture;
 
+import static org.elasticsearch.rest.RestStatus.BAD_REQUEST;
+import static org.elasticsearch.rest.RestStatus.FORBIDDEN;
+import static org.elasticsearch.rest.RestStatus.INTERNAL_SERVER_ERROR;
 import static org.elasticsearch.rest.RestStatus.OK;
+import static org.elasticsearch.rest.RestStatus.TOO_MANY_REQUESTS;
 import static org.elasticsearch.rest.RestStatus.UNAUTHORIZED;
 
 // # possible http config
 // http.basic.user: admin
 // http.basic.password: password
+// http.basic.users.someone.password_hash: "pbkdf2$10000$salt$hash"
+// http.basic.users_file: users
 // http.basic.ipwhitelist: ["localhost", "somemoreip"]
+// http.basic.dns.ttl: 5m
 // http.basic.xforward: "X-Forwarded-For"
+// http.basic.cache.size: 1000
+// http.basic.cache.ttl: 1m
+// http.basic.access_log.async: true
+// http.basic.unauthorized_log.mode: sampled
+// http.basic.throttle.failures: 10
+// http.basic.throttle.period: 1m
+// http.basic.ban.duration: 10m
+// http.basic.unauthorized.max_concurrent: 4
+// http.basic.unauthorized.rate: 100
+// http.basic.quota.rate: 50
+// http.basic.quota.users.admin.rate: 0
+// http.basic.bulkhead.max_concurrent: 20
+// http.basic.acl.users.reader: ["GET|HEAD /logs-*/_search", "GET /_cluster/health"]
+// http.basic.health.path: /_http_basic/health
+// http.basic.public_routes: ["HEAD /", "GET /_cluster/health"]
+// http.basic.session.keys_file: session_keys
+// http.basic.api_keys.ingest1.hash: "pbkdf2$10000$salt$hash"
+// http.basic.jwt.jwks_file: jwks.json
+// http.basic.jwt.audience: elasticsearch
+// # the settings compiled into the AuthPolicy (users, whitelist, proxies, acl, keys...)
+// # can be updated with the cluster update settings api, see AuthPolicy.DYNAMIC_SETTINGS,
+// # the others are read at startup only
 // # if you use javascript
 // # EITHER $.ajaxSetup({ headers: { 'Authorization': "Basic " + credentials }});
 // # OR use beforeSend in  $.ajax({
@@ -43,107 +93,942 @@ import static org.elasticsearch.rest.RestStatus.UNAUTHORIZED;
  */
 public class HttpBasicServer extends HttpServer {
 
-    private final String user;
-    private final String password;
-    private final InetAddressWhitelist whitelist;
-    private final ProxyChains proxyChains;
-    private final String xForwardHeader;
-    private final boolean log;
+    /**
+     * path prefix of the endpoints served by the plugin itself
+     */
+    public static final String ENDPOINT_PREFIX = "/_http_basic";
+
+    private static final String BANS_PATH = ENDPOINT_PREFIX + "/bans";
+    private static final TimeValue BAN_TICK = TimeValue.timeValueSeconds(1);
+    private static final RouteTrie HEALTH_CHECK_ROUTES = RouteTrie.compile("GET|HEAD /");
+
+    /**
+     * the compiled auth settings, replaced as a whole when the dynamic
+     * settings change. Every request reads it once.
+     */
+    private volatile AuthPolicy policy;
+    /**
+     * the auth settings most recently requested by a settings update
+     */
+    private volatile Settings requestedSettings;
+    private final File configDir;
+    private final ThreadPool threadPool;
+    private final NodeSettingsService nodeSettingsService;
+    private final NodeSettingsService.Listener settingsListener = new NodeSettingsService.Listener() {
+        @Override
+        public void onRefreshSettings(Settings clusterSettings) {
+            Settings requested = AuthPolicy.overlay(settings, clusterSettings);
+            Settings previous = requestedSettings;
+            requestedSettings = requested;
+            boolean unchanged = previous == null
+                ? policy.isCompiledFrom(requested)
+                : previous.getAsMap().equals(requested.getAsMap());
+            if (unchanged) {
+                return;
+            }
+            // compiling resolves host names, keep it off the cluster state thread
+            threadPool.generic().execute(new Runnable() {
+                @Override
+                public void run() {
+                    applyRequestedSettings();
+                }
+            });
+        }
+    };
+    /**
+     * null when requests are logged synchronously
+     */
+    private final AccessLog accessLog;
+    /**
+     * shared with the transport action collecting the stats of all nodes
+     */
+    private final AuthStats stats;
+    /**
+     * null when every unauthorized request is logged in full
+     */
+    private final UnauthorizedLog unauthorizedLog;
+    /**
+     * null when clients are not throttled
+     */
+    private final IpThrottle throttle;
+    private final BanList banList;
+    /**
+     * whether clients over their failure budget are banned
+     */
+    private final boolean autoBan;
+    private final TimeValue banDuration;
+    private final BytesRestResponse unauthorizedResponse;
+    private final BytesRestResponse throttledResponse;
+    private final BytesRestResponse forbiddenResponse;
+    private final BytesRestResponse healthCheckResponse;
+    private final BytesRestResponse shedResponse;
+    /**
+     * null when the work on unauthorized requests is unlimited
+     */
+    private final AdmissionControl admission;
+    /**
+     * null when users have no quota
+     */
+    private final UserQuotas quotas;
+    /**
+     * null when users have no cap on their requests in flight
+     */
+    private final UserBulkhead bulkhead;
+    private final BytesRestResponse tooManyRequestsResponse;
+    /**
+     * null when there is no health endpoint
+     */
+    private final HealthSnapshot health;
+    private final TimeValue jwksReloadInterval;
+    private final TimeValue sessionKeysReloadInterval;
+    private final org.elasticsearch.client.Client nodeClient;
+    private boolean started;
+    private ScheduledFuture<?> whitelistRefresh;
+    private ScheduledFuture<?> unauthorizedLogFlush;
+    private ScheduledFuture<?> banExpiry;
+    private ScheduledFuture<?> healthRefresh;
+    private ScheduledFuture<?> jwksReload;
+    private ScheduledFuture<?> sessionKeysReload;
 
     @Inject public HttpBasicServer(Settings settings, Environment environment, HttpServerTransport transport,
             RestController restController,
-            NodeService nodeService) {
+            NodeService nodeService, ThreadPool threadPool, NodeSettingsService nodeSettingsService,
+            org.elasticsearch.client.Client nodeClient, AuthStats stats) {
         super(settings, environment, transport, restController, nodeService);
+        this.stats = stats;
+        this.threadPool = threadPool;
+        this.nodeClient = nodeClient;
+        this.nodeSettingsService = nodeSettingsService;
+        this.configDir = environment.configFile();
+        this.policy = AuthPolicy.compile(settings, configDir, threadPool.generic());
+        if (settings.getAsBoolean("http.basic.access_log.async", false)) {
+            this.accessLog = new AccessLog(
+                settings.getAsInt("http.basic.access_log.buffer_size", 8192),
+                settings.getAsInt("http.basic.access_log.batch_size", 256),
+                AccessLog.Overflow.valueOf(settings.get("http.basic.access_log.overflow", "drop").toUpperCase(Locale.ROOT)));
+        } else {
+            this.accessLog = null;
+        }
+        if ("sampled".equals(settings.get("http.basic.unauthorized_log.mode", "full"))) {
+            this.unauthorizedLog = new UnauthorizedLog(
+                settings.getAsInt("http.basic.unauthorized_log.sample", 1),
+                settings.getAsInt("http.basic.unauthorized_log.per_ip", 1),
+                settings.getAsInt("http.basic.unauthorized_log.max_body", 256),
+                settings.getAsInt("http.basic.unauthorized_log.max_ips", 10000),
+                settings.getAsTime("http.basic.unauthorized_log.interval", TimeValue.timeValueMinutes(1)));
+        } else {
+            this.unauthorizedLog = null;
+        }
+        int failures = settings.getAsInt("http.basic.throttle.failures", 0);
+        if (failures > 0) {
+            this.throttle = new IpThrottle(
+                new RateLimit(failures, settings.getAsTime("http.basic.throttle.period", TimeValue.timeValueMinutes(1))),
+                settings.getAsInt("http.basic.throttle.max_ips", 65536));
+        } else {
+            this.throttle = null;
+        }
+        TimeValue banDuration = settings.getAsTime("http.basic.ban.duration", TimeValue.timeValueMillis(0));
+        this.autoBan = throttle != null && banDuration.millis() > 0;
+        this.banDuration = banDuration.millis() > 0 ? banDuration : TimeValue.timeValueHours(1);
+        this.banList = new BanList(this.banDuration,
+            settings.getAsTime("http.basic.ban.max_duration", TimeValue.timeValueHours(24)),
+            settings.getAsInt("http.basic.ban.max_ips", 10000),
+            BAN_TICK);
+        // built once, throttled clients must cost as little as possible
+        this.unauthorizedResponse = new BytesRestResponse(UNAUTHORIZED, "Authentication Required");
+        this.unauthorizedResponse.addHeader("WWW-Authenticate", "Basic realm=\"Restricted\"");
+        this.throttledResponse = new BytesRestResponse(TOO_MANY_REQUESTS, "Too Many Requests");
+        this.forbiddenResponse = new BytesRestResponse(FORBIDDEN, "Forbidden");
+        this.healthCheckResponse = new BytesRestResponse(OK, "{\"OK\":{}}");
+        // the netty channel keeps or closes the connection as the request
+        // asked, a header here would not close it
+        this.shedResponse = new BytesRestResponse(UNAUTHORIZED, "");
+        int maxConcurrent = settings.getAsInt("http.basic.unauthorized.max_concurrent", 0);
+        double rate = settings.getAsDouble("http.basic.unauthorized.rate", 0.0);
+        if (maxConcurrent > 0 || rate > 0) {
+            this.admission = new AdmissionControl(maxConcurrent, rate > 0
+                ? RateLimit.perSecond(rate, settings.getAsInt("http.basic.unauthorized.burst", Math.max(1, (int) rate)))
+                : null);
+            Loggers.getLogger(getClass()).info("using {}", admission);
+        } else {
+            this.admission = null;
+        }
+        this.quotas = UserQuotas.fromSettings(settings);
+        this.bulkhead = UserBulkhead.fromSettings(settings);
+        this.tooManyRequestsResponse = new BytesRestResponse(TOO_MANY_REQUESTS, "Too Many Requests");
+        this.tooManyRequestsResponse.addHeader("Retry-After", "1");
+        if (quotas != null) {
+            Loggers.getLogger(getClass()).info("using {}", quotas);
+        }
+        if (bulkhead != null) {
+            Loggers.getLogger(getClass()).info("using {}", bulkhead);
+        }
+        this.jwksReloadInterval = settings.getAsTime("http.basic.jwt.reload_interval", TimeValue.timeValueMinutes(1));
+        this.sessionKeysReloadInterval = settings.getAsTime("http.basic.session.reload_interval", TimeValue.timeValueMinutes(1));
+        this.health = HealthSnapshot.fromSettings(settings);
+        if (health != null) {
+            Loggers.getLogger(getClass()).info("using {}", health);
+        }
+        if (throttle != null) {
+            long retryAfter = (throttle.getLimit().getIntervalNanos() + 999999999L) / 1000000000L;
+            this.throttledResponse.addHeader("Retry-After", Long.toString(retryAfter));
+            Loggers.getLogger(getClass()).info("using {}", throttle);
+        }
+        if (autoBan) {
+            Loggers.getLogger(getClass()).info("using {}", banList);
+        }
+        Loggers.getLogger(getClass()).info("using {}", policy);
+    }
+
+    /**
+     * Compiles the most recently requested settings and publishes the
+     * resulting policy. Invalid settings are logged and the current policy
+     * is kept.
+     */
+    private synchronized void applyRequestedSettings() {
+        Settings requested = requestedSettings;
+        if (requested == null || policy.isCompiledFrom(requested)) {
+            return;
+        }
+        try {
+            policy = AuthPolicy.compile(requested, configDir, threadPool.generic());
+            Loggers.getLogger(getClass()).info("updated to {}", policy);
+        } catch (IllegalArgumentException e) {
+            Loggers.getLogger(getClass()).error("invalid http.basic settings, keeping the current ones: {}", e.getMessage());
+            return;
+        }
+        scheduleWhitelistRefresh();
+    }
+
+    /**
+     * (Re-)schedules the resolution of the host names of the current
+     * whitelist, according to its dns ttl.
+     */
+    private synchronized void scheduleWhitelistRefresh() {
+        if (whitelistRefresh != null) {
+            whitelistRefresh.cancel(false);
+            whitelistRefresh = null;
+        }
+        final AuthPolicy current = policy;
+        if (started && current.getWhitelist().hasHostnames() && current.getDnsTtl().millis() > 0) {
+            // resolving may block, keep it off the scheduler thread
+            final Runnable resolve = new Runnable() {
+                @Override
+                public void run() {
+                    current.getWhitelist().resolve(threadPool.generic(), current.getDnsTimeout());
+                }
+            };
+            whitelistRefresh = threadPool.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    threadPool.generic().execute(resolve);
+                }
+            }, current.getDnsTtl());
+        }
+    }
+
+    @Override
+    protected void doStart() {
+        if (accessLog != null) {
+            accessLog.start();
+        }
+        super.doStart();
+        synchronized (this) {
+            started = true;
+            scheduleWhitelistRefresh();
+            if (unauthorizedLog != null) {
+                unauthorizedLogFlush = threadPool.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        unauthorizedLog.flush();
+                    }
+                }, unauthorizedLog.getInterval());
+            }
+            banExpiry = threadPool.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    banList.expire(System.nanoTime());
+                }
+            }, BAN_TICK);
+            if (health != null) {
+                // the health request is asynchronous, the scheduler thread never waits for it
+                final Runnable refresh = new Runnable() {
+                    @Override
+                    public void run() {
+                        health.refresh(nodeClient);
+                    }
+                };
+                threadPool.generic().execute(refresh);
+                healthRefresh = threadPool.scheduleWithFixedDelay(refresh, health.getInterval());
+            }
+            if (jwksReloadInterval.millis() > 0) {
+                // reading the file may block, keep it off the scheduler thread
+                final Runnable reload = new Runnable() {
+                    @Override
+                    public void run() {
+                        JwtVerifier jwt = policy.getJwt();
+                        if (jwt != null) {
+                            jwt.reloadIfModified();
+                        }
+                    }
+                };
+                jwksReload = threadPool.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        threadPool.generic().execute(reload);
+                    }
+                }, jwksReloadInterval);
+            }
+            if (sessionKeysReloadInterval.millis() > 0) {
+                final Runnable reload = new Runnable() {
+                    @Override
+                    public void run() {
+                        SessionCookies sessions = policy.getSessions();
+                        if (sessions != null) {
+                            sessions.reloadIfModified();
+                        }
+                    }
+                };
+                sessionKeysReload = threadPool.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        threadPool.generic().execute(reload);
+                    }
+                }, sessionKeysReloadInterval);
+            }
+        }
+        nodeSettingsService.addListener(settingsListener);
+    }
+
+    @Override
+    protected void doStop() {
+        nodeSettingsService.removeListener(settingsListener);
+        synchronized (this) {
+            started = false;
+            scheduleWhitelistRefresh();
+            if (unauthorizedLogFlush != null) {
+                unauthorizedLogFlush.cancel(false);
+                unauthorizedLogFlush = null;
+            }
+            if (banExpiry != null) {
+                banExpiry.cancel(false);
+                banExpiry = null;
+            }
+            if (healthRefresh != null) {
+                healthRefresh.cancel(false);
+                healthRefresh = null;
+            }
+            if (jwksReload != null) {
+                jwksReload.cancel(false);
+                jwksReload = null;
+            }
+            if (sessionKeysReload != null) {
+                sessionKeysReload.cancel(false);
+                sessionKeysReload = null;
+            }
+        }
+        super.doStop();
+    }
 
-        this.user = settings.get("http.basic.user", "admin");
-        this.password = settings.get("http.basic.password", "admin_pw");
-        final boolean whitelistEnabled = settings.getAsBoolean("http.basic.ipwhitelist", true);
-        String [] whitelisted = new String[0];
-        if (whitelistEnabled) {
-            whitelisted = settings.getAsArray("http.basic.ipwhitelist", new String[]{"localhost", "127.0.0.1"});
+    @Override
+    protected void doClose() {
+        super.doClose();
+        if (accessLog != null) {
+            accessLog.close();
+            Loggers.getLogger(getClass()).info("{}", accessLog);
         }
-        this.whitelist = new InetAddressWhitelist(whitelisted);
-        this.proxyChains = new ProxyChains(
-            settings.getAsArray(
-              "http.basic.trusted_proxy_chains", new String[]{""}));
+        if (unauthorizedLog != null) {
+            unauthorizedLog.flush();
+            Loggers.getLogger(getClass()).info("{}", unauthorizedLog);
+        }
+        if (admission != null) {
+            Loggers.getLogger(getClass()).info("{}", admission);
+        }
+        AuthDecisionCache authCache = policy.getAuthCache();
+        if (authCache != null) {
+            Loggers.getLogger(getClass()).info("authorization decision cache: {}", authCache);
+        }
+    }
+
+    /**
+     * @return the auth settings currently in effect
+     */
+    public AuthPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the asynchronous access log, null if requests are logged
+     * synchronously
+     */
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * @return the sampled log of unauthorized requests, null if they are all
+     * logged in full
+     */
+    public UnauthorizedLog getUnauthorizedLog() {
+        return unauthorizedLog;
+    }
+
+    /**
+     * @return the counters and latencies of the auth decisions
+     */
+    public AuthStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the failure budgets of the clients, null if they are not
+     * throttled
+     */
+    public IpThrottle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * @return the limits of the work on unauthorized requests, null if
+     * unlimited
+     */
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    /**
+     * @return the request rate quotas of the users, null if they have none
+     */
+    public UserQuotas getQuotas() {
+        return quotas;
+    }
 
-        // for AWS load balancers it is X-Forwarded-For -> hmmh does not work
-        this.xForwardHeader = settings.get("http.basic.xforward", "");
-        this.log = settings.getAsBoolean("http.basic.log", true);
-        Loggers.getLogger(getClass()).info("using {}:{} with whitelist: {}, xforward header field: {}, trusted proxy chain: {}",
-                user, password, whitelist, xForwardHeader, proxyChains);
+    /**
+     * @return the caps on the requests in flight of the users, null if they
+     * have none
+     */
+    public UserBulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * @return the banned ips
+     */
+    public BanList getBanList() {
+        return banList;
+    }
+
+    /**
+     * @return the decision cache of basic authentication, null if disabled
+     */
+    public AuthDecisionCache getAuthCache() {
+        return policy.getAuthCache();
+    }
+
+    /**
+     * @return the health endpoint, null if there is none
+     */
+    public HealthSnapshot getHealth() {
+        return health;
     }
 
     @Override
     public void internalDispatchRequest(final HttpRequest request, final HttpChannel channel) {
-        if (log) {
-            logRequest(request);
+        if (health != null && health.matches(request)) {
+            // load balancer probes, answered to anybody from the last snapshot
+            channel.sendResponse(health.getResponse());
+            return;
+        }
+        // requests in flight keep the policy they started with
+        final AuthPolicy policy = this.policy;
+        final long[] clientIp = new long[2];
+        long start = System.nanoTime();
+        Client client = null;
+        if (throttle != null || !banList.isEmpty()) {
+            client = clientAddress(request, policy, clientIp);
         }
+        final HashAdmission hashAdmission = admission == null ? null : new HashAdmission(admission);
+        AuthResult result = client != null && banList.isBanned(clientIp[0], clientIp[1], start)
+            ? AuthResult.of(AuthOutcome.BANNED)
+            : authorize(request, policy, client, clientIp, hashAdmission);
+        if (hashAdmission != null && hashAdmission.admitted && result.getOutcome().isAuthorized()) {
+            // the slot only covered verifying the password hash
+            admission.release();
+        }
+        final boolean failed = isFailure(result.getOutcome(), request);
+        if (result.getOutcome().isAuthenticated()
+                && !policy.getAccessControl().isAllowed(result.getPrincipal(), request.method(), request.path())) {
+            result = AuthResult.authenticated(AuthOutcome.FORBIDDEN, result.getPrincipal());
+        }
+        // the slot first, a request refused one does not spend a quota token
+        BulkheadChannel bulkheadChannel = null;
+        if (bulkhead != null && result.getOutcome().isAuthorized() && result.getPrincipal() != null) {
+            UserBulkhead.Slots slots = bulkhead.slots(result.getPrincipal());
+            if (slots != null) {
+                if (slots.tryAcquire()) {
+                    // held until the response is sent
+                    bulkheadChannel = new BulkheadChannel(channel, slots);
+                } else {
+                    result = AuthResult.of(AuthOutcome.OVER_CONCURRENCY);
+                }
+            }
+        }
+        if (quotas != null && result.getOutcome().isAuthorized() && result.getPrincipal() != null
+                && !quotas.tryAcquire(result.getPrincipal(), System.nanoTime())) {
+            result = AuthResult.of(AuthOutcome.OVER_QUOTA);
+            if (bulkheadChannel != null) {
+                bulkheadChannel.release();
+                bulkheadChannel = null;
+            }
+        }
+        final AuthOutcome outcome = result.getOutcome();
+        stats.record(outcome, System.nanoTime() - start);
+        if (outcome == AuthOutcome.BANNED || outcome == AuthOutcome.THROTTLED) {
+            // no logging, a client over its failure budget gets nothing more out of us
+            channel.sendResponse(outcome == AuthOutcome.BANNED ? forbiddenResponse : throttledResponse);
+            return;
+        }
+        if (outcome == AuthOutcome.OVER_QUOTA || outcome == AuthOutcome.OVER_CONCURRENCY) {
+            channel.sendResponse(tooManyRequestsResponse);
+            return;
+        }
+        if (failed && throttle != null) {
+            long now = System.nanoTime();
+            if (throttle.recordFailure(clientIp[0], clientIp[1], now) && autoBan) {
+                long banned = banList.ban(clientIp[0], clientIp[1], now);
+                if (banned > 0) {
+                    Loggers.getLogger(getClass()).warn("banned {} for {}",
+                        IpAddresses.format(clientIp[0], clientIp[1]), TimeValue.timeValueNanos(banned));
+                }
+            }
+        }
+        // a user refused a route is not anonymous work
+        final boolean limited = !outcome.isAuthorized() && result.getPrincipal() == null && admission != null;
+        // a failed verification keeps its slot for the rest of the work
+        if (limited && (hashAdmission.shed
+                || !hashAdmission.admitted && !admission.tryAcquire(System.nanoTime()))) {
+            // over the limits of unauthorized work, answer without logging anything
+            channel.sendResponse(outcome == AuthOutcome.HEALTH_CHECK ? healthCheckResponse : shedResponse);
+            return;
+        }
+
+        try {
+            final boolean log = policy.isLog();
+            if (log && accessLog == null) {
+                logRequest(request, policy);
+            }
+            if (log && accessLog != null) {
+                accessLog.add(request, getAddress(request), policy.getXForwardHeader(), outcome);
+            }
+            if (outcome == AuthOutcome.FORBIDDEN) {
+                Loggers.getLogger(getClass()).warn("FORBIDDEN user:{}, address:{}, type:{}, path:{}",
+                    result.getPrincipal(), getAddress(request).getHostAddress(), request.method(), request.path());
+                channel.sendResponse(forbiddenResponse);
+                return;
+            }
+            if (outcome.isAuthorized()) {
+                HttpChannel responseChannel = bulkheadChannel == null ? channel : bulkheadChannel;
+                try {
+                    if (!dispatchPluginRequest(request, responseChannel, policy, result.getPrincipal())) {
+                        SessionCookies sessions = policy.getSessions();
+                        if (outcome == AuthOutcome.BASIC && sessions != null) {
+                            // later requests of the browser skip the credentials check, the
+                            // responses of the plugin are shared and never carry the cookie
+                            responseChannel = new SessionChannel(responseChannel, sessions.issue(
+                                policy.getCredentials().get(result.getPrincipal()), System.currentTimeMillis()));
+                        }
+                        super.internalDispatchRequest(request, responseChannel);
+                    }
+                } catch (RuntimeException e) {
+                    if (bulkheadChannel != null) {
+                        bulkheadChannel.release();
+                    }
+                    throw e;
+                }
+                return;
+            }
+            if (client == null) {
+                client = client(request, policy);
+            }
+            if (unauthorizedLog == null) {
+                // the unauthorized log samples and rate limits this on its own
+                Loggers.getLogger(getClass()).error("Ip Unauthorized client: {}", client);
+            }
+            if (outcome == AuthOutcome.HEALTH_CHECK) { // display custom health check page when unauthorized (do not display too much server info)
+                channel.sendResponse(healthCheckResponse);
+            } else {
+                if (unauthorizedLog != null) {
+                    // clients behind the same proxy are limited separately
+                    unauthorizedLog.log(request, client.accountableIp());
+                } else {
+                    logUnAuthorizedRequest(request);
+                }
+                channel.sendResponse(unauthorizedResponse);
+            }
+        } finally {
+            if (limited) {
+                admission.release();
+            }
+        }
+    }
+
+    /**
+     * Serves the endpoints of the plugin, under /_http_basic, to authorized
+     * requests. The bans are only served to the admin users.
+     *
+     * @param request
+     * @param channel
+     * @param principal the authenticated user, null if none
+     * @return true iff the request was for an endpoint of the plugin
+     */
+    private boolean dispatchPluginRequest(final HttpRequest request, final HttpChannel channel,
+            final AuthPolicy policy, final String principal) {
+        if (!request.path().startsWith(ENDPOINT_PREFIX)) {
+            return false;
+        }
+        if (request.method() == Method.GET && request.path().equals(ENDPOINT_PREFIX + "/stats")) {
+            sendStats(request, channel);
+            return true;
+        }
+        if (request.method() == Method.GET && request.path().equals(ENDPOINT_PREFIX + "/nodes/stats")) {
+            sendNodesStats(request, channel);
+            return true;
+        }
+        if ((request.path().equals(BANS_PATH) || request.path().startsWith(BANS_PATH + "/"))
+                && !policy.isAdmin(principal)) {
+            Loggers.getLogger(getClass()).warn("FORBIDDEN user:{}, address:{}, type:{}, path:{}, not an admin",
+                principal, getAddress(request).getHostAddress(), request.method(), request.path());
+            channel.sendResponse(forbiddenResponse);
+            return true;
+        }
+        if (request.method() == Method.GET && request.path().equals(BANS_PATH)) {
+            sendBans(channel);
+            return true;
+        }
+        if (request.path().startsWith(BANS_PATH + "/")) {
+            updateBan(request, channel, request.path().substring(BANS_PATH.length() + 1));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends the ips currently banned by this node.
+     */
+    private void sendBans(final HttpChannel channel) {
+        try {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("node", settings.get("name", ""));
+            builder.startArray("bans");
+            for (BanList.Ban ban : banList.bans(System.nanoTime())) {
+                builder.startObject();
+                builder.field("ip", ban.ip());
+                builder.field("remaining_millis", ban.getRemainingNanos() / 1000000);
+                builder.field("strikes", ban.getStrikes());
+                builder.endObject();
+            }
+            builder.endArray();
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(OK, builder));
+        } catch (IOException e) {
+            channel.sendResponse(new BytesRestResponse(INTERNAL_SERVER_ERROR, e.getMessage()));
+        }
+    }
 
-        if (authorized(request)) {
-            super.internalDispatchRequest(request, channel);
-        } else if (healthCheck(request)) { // display custom health check page when unauthorized (do not display too much server info)
-            channel.sendResponse(new BytesRestResponse(OK, "{\"OK\":{}}"));
+    /**
+     * Bans an ip on this node with PUT or POST, for ?duration or
+     * http.basic.ban.duration, or lifts its ban with DELETE.
+     */
+    private void updateBan(final HttpRequest request, final HttpChannel channel, final String ip) {
+        long[] address = new long[2];
+        if (!IpAddresses.parse(ip, 0, ip.length(), address)) {
+            channel.sendResponse(new BytesRestResponse(BAD_REQUEST, "not an ip: " + ip));
+            return;
+        }
+        boolean done;
+        if (request.method() == Method.PUT || request.method() == Method.POST) {
+            TimeValue duration = request.paramAsTime("duration", banDuration);
+            done = banList.ban(address[0], address[1], System.nanoTime(), duration);
+            if (done) {
+                Loggers.getLogger(getClass()).warn("banned {} for {} on request", ip, duration);
+            }
+        } else if (request.method() == Method.DELETE) {
+            done = banList.lift(address[0], address[1], System.nanoTime());
+            if (done) {
+                Loggers.getLogger(getClass()).warn("lifted the ban of {} on request", ip);
+            }
         } else {
-            logUnAuthorizedRequest(request);
-            BytesRestResponse response = new BytesRestResponse(UNAUTHORIZED, "Authentication Required");
-            response.addHeader("WWW-Authenticate", "Basic realm=\"Restricted\"");
-            channel.sendResponse(response);
+            channel.sendResponse(new BytesRestResponse(BAD_REQUEST, "use PUT, POST or DELETE"));
+            return;
+        }
+        try {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("ip", IpAddresses.format(address[0], address[1]));
+            builder.field("acknowledged", done);
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(OK, builder));
+        } catch (IOException e) {
+            channel.sendResponse(new BytesRestResponse(INTERNAL_SERVER_ERROR, e.getMessage()));
         }
     }
 
-    // @param an http method
-    // @returns True iff the method is one of the methods used for health check
-    private boolean isHealthCheckMethod(final RestRequest.Method method){
-        final RestRequest.Method[] healthCheckMethods = { RestRequest.Method.GET, RestRequest.Method.HEAD };
-        return Arrays.asList(healthCheckMethods).contains(method);
+    /**
+     * Sends the auth statistics of all the nodes running the plugin, and
+     * their sum, with the latency histograms merged bucket by bucket.
+     */
+    private void sendNodesStats(final HttpRequest request, final HttpChannel channel) {
+        final boolean buckets = request.paramAsBoolean("buckets", false);
+        nodeClient.admin().cluster().execute(NodesAuthStatsAction.INSTANCE,
+                new NodesAuthStatsRequest(), new ActionListener<NodesAuthStatsResponse>() {
+            @Override
+            public void onResponse(NodesAuthStatsResponse response) {
+                try {
+                    XContentBuilder builder = channel.newBuilder();
+                    builder.startObject();
+                    response.toXContent(builder, buckets);
+                    builder.endObject();
+                    channel.sendResponse(new BytesRestResponse(OK, builder));
+                } catch (IOException e) {
+                    onFailure(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                channel.sendResponse(new BytesRestResponse(INTERNAL_SERVER_ERROR, String.valueOf(e.getMessage())));
+            }
+        });
+    }
+
+    /**
+     * Sends the auth statistics of this node. Each node only reports its
+     * own requests, the histogram buckets (with ?buckets=true) allow a
+     * monitoring system to merge the latencies of all nodes exactly, see
+     * {@link #sendNodesStats(HttpRequest, HttpChannel)} for all of them.
+     */
+    private void sendStats(final HttpRequest request, final HttpChannel channel) {
+        try {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("node", settings.get("name", ""));
+            stats.toXContent(builder, request.paramAsBoolean("buckets", false));
+            AuthDecisionCache authCache = policy.getAuthCache();
+            if (authCache != null) {
+                CacheStats cacheStats = authCache.stats();
+                builder.startObject("auth_cache");
+                builder.field("size", authCache.size());
+                builder.field("denied", authCache.deniedSize());
+                builder.field("hits", cacheStats.hitCount());
+                builder.field("misses", cacheStats.missCount());
+                builder.field("evictions", cacheStats.evictionCount());
+                CacheStats deniedStats = authCache.deniedStats();
+                builder.field("denied_hits", deniedStats.hitCount());
+                builder.field("denied_evictions", deniedStats.evictionCount());
+                builder.endObject();
+            }
+            if (accessLog != null) {
+                builder.startObject("access_log");
+                builder.field("logged", accessLog.getLogged());
+                builder.field("dropped", accessLog.getDropped());
+                builder.field("blocked", accessLog.getBlocked());
+                builder.endObject();
+            }
+            if (unauthorizedLog != null) {
+                builder.startObject("unauthorized_log");
+                builder.field("logged", unauthorizedLog.getLogged());
+                builder.field("suppressed", unauthorizedLog.getSuppressed());
+                builder.endObject();
+            }
+            if (throttle != null) {
+                builder.startObject("throttle");
+                builder.field("ips", throttle.size());
+                builder.endObject();
+            }
+            if (admission != null) {
+                builder.startObject("unauthorized_admission");
+                builder.field("in_flight", admission.getInFlight());
+                builder.field("admitted", admission.getAdmitted());
+                builder.field("shed_concurrent", admission.getShedConcurrent());
+                builder.field("shed_rate", admission.getShedRate());
+                builder.endObject();
+            }
+            if (quotas != null) {
+                builder.startObject("quotas");
+                for (Map.Entry<String, UserQuotas.Quota> entry : quotas.getQuotas().entrySet()) {
+                    builder.startObject(entry.getKey());
+                    builder.field("allowed", entry.getValue().getAllowed());
+                    builder.field("exceeded", entry.getValue().getExceeded());
+                    builder.endObject();
+                }
+                builder.endObject();
+            }
+            if (bulkhead != null) {
+                builder.startObject("in_flight");
+                for (Map.Entry<String, UserBulkhead.Slots> entry : bulkhead.getSlots().entrySet()) {
+                    builder.startObject(entry.getKey());
+                    builder.field("current", entry.getValue().getCurrent());
+                    builder.field("peak", entry.getValue().getPeak());
+                    builder.field("max", entry.getValue().getMax());
+                    builder.field("rejected", entry.getValue().getRejected());
+                    builder.endObject();
+                }
+                builder.endObject();
+            }
+            builder.startObject("bans");
+            builder.field("ips", banList.size());
+            builder.field("issued", banList.getIssued());
+            builder.field("rejected", banList.getRejected());
+            builder.endObject();
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(OK, builder));
+        } catch (IOException e) {
+            channel.sendResponse(new BytesRestResponse(INTERNAL_SERVER_ERROR, e.getMessage()));
+        }
+    }
+
+    /**
+     * A request counts against the failure budget of its client when it is
+     * rejected, or when it carried credentials that matched no user, even
+     * if the ip whitelist or the health check answered it: otherwise
+     * passwords could be guessed through them without limit.
+     *
+     * @param outcome the outcome of {@link #authorize}
+     * @param request
+     * @return true iff the request is an auth failure
+     */
+    private static boolean isFailure(final AuthOutcome outcome, final HttpRequest request) {
+        if (outcome == AuthOutcome.UNAUTHORIZED) {
+            return true;
+        }
+        return (outcome == AuthOutcome.IP || outcome == AuthOutcome.HEALTH_CHECK)
+            && request.header("Authorization") != null;
     }
 
     // @param an http Request
     // @returns True iff we check the root path and is a method allowed for healthCheck
     private boolean healthCheck(final HttpRequest request) {
-        return request.path().equals("/") && isHealthCheckMethod(request.method());
+        return HEALTH_CHECK_ROUTES.matches(request.method(), request.path());
     }
 
   /**
    *
    *
    * @param request
-   * @return true if the request is authorized
+   * @param client the client of the request, null if not known yet
+   * @param clientIp the ip of the client, when clients are throttled
+   * @param hashAdmission admits the verification of password hashes, null
+   * if there is no admission control
+   * @return how the request is authorized and for which user, or why it
+   * is not
    */
-    private boolean authorized(final HttpRequest request) {
-      return allowOptionsForCORS(request) ||
-        authBasic(request) || ipAuthorized(request);
+    private AuthResult authorize(final HttpRequest request, final AuthPolicy policy,
+        final Client client, final long[] clientIp, final HashAdmission hashAdmission) {
+      if (throttle != null && throttle.isThrottled(clientIp[0], clientIp[1], System.nanoTime())) {
+        return AuthResult.of(AuthOutcome.THROTTLED);
+      }
+      if (allowOptionsForCORS(request)) {
+        return AuthResult.of(AuthOutcome.CORS);
+      }
+      // before any credentials are decoded, monitoring skips the rest of the checks
+      RouteTrie publicRoutes = policy.getPublicRoutes();
+      if (publicRoutes != null && publicRoutes.matches(request.method(), request.path())) {
+        return AuthResult.of(AuthOutcome.PUBLIC);
+      }
+      SessionCookies sessions = policy.getSessions();
+      if (sessions != null) {
+        String sessionUser = sessions.verify(request.header("Cookie"), System.currentTimeMillis(),
+            policy.getCredentials());
+        if (sessionUser != null) {
+          return AuthResult.authenticated(AuthOutcome.SESSION, sessionUser);
+        }
+      }
+      ApiKeys apiKeys = policy.getApiKeys();
+      if (apiKeys != null) {
+        String principal = apiKeys.authenticate(request.header("Authorization"), hashAdmission);
+        if (principal != null) {
+          return AuthResult.authenticated(AuthOutcome.API_KEY, principal);
+        }
+      }
+      JwtVerifier jwt = policy.getJwt();
+      if (jwt != null) {
+        String principal = jwt.authenticate(request.header("Authorization"), System.currentTimeMillis());
+        if (principal != null) {
+          return AuthResult.authenticated(AuthOutcome.BEARER, principal);
+        }
+      }
+      User user = authBasic(request, policy, hashAdmission);
+      if (user != null) {
+        return AuthResult.authenticated(AuthOutcome.BASIC, user.getName());
+      } else if (ipAuthorized(request, policy, client == null ? client(request, policy) : client)) {
+        return AuthResult.of(AuthOutcome.IP);
+      } else if (healthCheck(request)) {
+        return AuthResult.of(AuthOutcome.HEALTH_CHECK);
+      }
+      return AuthResult.of(AuthOutcome.UNAUTHORIZED);
     }
 
   /**
    *
    *
    * @param request
+   * @param client the client of the request
    * @return true iff the client is authorized by ip
    */
-    private boolean ipAuthorized(final HttpRequest request) {
-      boolean ipAuthorized = false;
-      String xForwardedFor = request.header(xForwardHeader);
-      Client client = new Client(getAddress(request),
-                            whitelist,
-                            new XForwardedFor(xForwardedFor),
-                            proxyChains);
-      ipAuthorized = client.isAuthorized();
+    private boolean ipAuthorized(final HttpRequest request, final AuthPolicy policy, final Client client) {
+      boolean ipAuthorized = client.isAuthorized();
       if (ipAuthorized) {
-        if (log) {
+        // the access log already records ip authorized requests
+        if (policy.isLog() && accessLog == null) {
           String template = "Ip Authorized client: {}";
           Loggers.getLogger(getClass()).info(template, client);
         }
-      } else {
-        String template = "Ip Unauthorized client: {}";
-        Loggers.getLogger(getClass()).error(template, client);
       }
       return ipAuthorized;
     }
 
+  /**
+   *
+   *
+   * @param request
+   * @return the client of the request, behind the trusted proxies
+   */
+    private Client client(final HttpRequest request, final AuthPolicy policy) {
+      String xForwardedFor = request.header(policy.getXForwardHeader());
+      return new Client(getAddress(request),
+                        policy.getWhitelist(),
+                        policy.xForwardedFor(xForwardedFor),
+                        policy.getProxyChains());
+    }
+
+  /**
+   *
+   *
+   * @param request
+   * @param clientIp receives the ip the client is accountable for, behind
+   * the trusted proxies only
+   * @return the client of the request
+   */
+    private Client clientAddress(final HttpRequest request, final AuthPolicy policy, final long[] clientIp) {
+      Client client = client(request, policy);
+      if (!client.ipAddress(clientIp)) {
+        // not an ip literal in the header, hold the proxy responsible instead
+        IpAddresses.fromBytes(getAddress(request).getAddress(), clientIp);
+      }
+      return client;
+    }
+
     public String getDecoded(HttpRequest request) {
-        String authHeader = request.header("Authorization");
+        return decodeCredentials(request.header("Authorization"));
+    }
+
+    /**
+     * @param authHeader the Authorization header, may be null
+     * @return the decoded basic auth credentials, "" if there are none or
+     * they are not valid base64
+     */
+    static String decodeCredentials(String authHeader) {
         if (authHeader == null)
             return "";
 
@@ -153,25 +1038,75 @@ public class HttpBasicServer extends HttpServer {
         try {
             return new String(Base64.decode(split[1]));
         } catch (IOException ex) {
-            throw new RuntimeException(ex);
+            return "";
+        } catch (IllegalArgumentException ex) {
+            // shorter than a base64 quantum
+            return "";
         }
     }
 
-    private boolean authBasic(final HttpRequest request) {
-        String decoded = "";
-        try {
-            decoded = getDecoded(request);
-            if (!decoded.isEmpty()) {
-                String[] userAndPassword = decoded.split(":", 2);
-                String givenUser = userAndPassword[0];
-                String givenPass = userAndPassword[1];
-                if (this.user.equals(givenUser) && this.password.equals(givenPass))
-                    return true;
+    /**
+     * Looks up the decision for the raw Authorization header in the decision
+     * cache, if enabled, and only decodes and compares the credentials on a
+     * miss.
+     *
+     * @param request
+     * @param hashAdmission admits the verification of password hashes, null
+     * if there is no admission control
+     * @return the configured user whose credentials the request carries,
+     * null if none
+     */
+    private User authBasic(final HttpRequest request, final AuthPolicy policy, final HashAdmission hashAdmission) {
+        String authHeader = request.header("Authorization");
+        AuthDecisionCache authCache = policy.getAuthCache();
+        if (authCache == null || authHeader == null) {
+            return checkCredentials(request, policy, hashAdmission);
+        }
+        User user = authCache.get(authHeader);
+        if (user == null) {
+            user = checkCredentials(request, policy, hashAdmission);
+            if (hashAdmission == null || !hashAdmission.shed) {
+                // unverified credentials are not denied, only shed
+                authCache.put(authHeader, user);
             }
-        } catch (Exception e) {
-            logger.warn("Retrieving of user and password failed for " + decoded + " ," + e.getMessage());
         }
-        return false;
+        return user == AuthDecisionCache.DENIED ? null : user;
+    }
+
+    private User checkCredentials(final HttpRequest request, final AuthPolicy policy, final HashAdmission hashAdmission) {
+        return BasicAuthParser.authenticate(request.header("Authorization"), policy.getCredentials(), hashAdmission);
+    }
+
+    /**
+     * Takes a slot of the admission control before the first password hash
+     * of a request is verified: the verification is slow by design, and a
+     * client sending a new wrong password with every request would get it
+     * for free otherwise. Credentials already verified skip it.
+     */
+    private static final class HashAdmission implements CredentialStore.HashGate {
+        private final AdmissionControl admission;
+        /**
+         * true once a slot was taken, it is then held until the request is
+         * known to be authorized or answered
+         */
+        boolean admitted;
+        /**
+         * true if the admission control refused the slot
+         */
+        boolean shed;
+
+        HashAdmission(AdmissionControl admission) {
+            this.admission = admission;
+        }
+
+        @Override
+        public boolean tryVerify() {
+            if (!admitted && !shed) {
+                admitted = admission.tryAcquire(System.nanoTime());
+                shed = !admitted;
+            }
+            return admitted;
+        }
     }
 
 
@@ -202,7 +1137,8 @@ public class HttpBasicServer extends HttpServer {
         return false;
     }
 
-    public void logRequest(final HttpRequest request) {
+    public void logRequest(final HttpRequest request, final AuthPolicy policy) {
+      String xForwardHeader = policy.getXForwardHeader();
       String addr = getAddress(request).getHostAddress();
       String t = "Authorization:{}, type: {}, Host:{}, Path:{}, {}:{}, Request-IP:{}, " +
         "Client-IP:{}, X-Client-IP{}";
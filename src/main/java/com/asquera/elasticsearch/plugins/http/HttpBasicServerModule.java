@@ -14,6 +14,7 @@ public class HttpBasicServerModule extends HttpServerModule {
 
     @Override protected void configure() {
         super.configure();
+        bind(AuthStats.class).asEagerSingleton();
         bind(HttpBasicServer.class).asEagerSingleton();
     }
 }
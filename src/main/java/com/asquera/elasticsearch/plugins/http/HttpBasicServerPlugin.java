@@ -1,5 +1,10 @@
 package com.asquera.elasticsearch.plugins.http;
 
+import com.asquera.elasticsearch.plugins.http.action.NodesAuthStatsAction;
+import com.asquera.elasticsearch.plugins.http.action.TransportNodesAuthStatsAction;
+import com.asquera.elasticsearch.plugins.http.auth.AuthPolicy;
+import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.cluster.settings.ClusterDynamicSettingsModule;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.common.settings.Settings;
@@ -47,6 +52,27 @@ public class HttpBasicServerPlugin extends AbstractPlugin {
         return services;
     }
 
+    /**
+     * makes the http.basic settings compiled into the auth policy updatable
+     * with the cluster update settings api. The others are read at startup
+     * only, updates of them are rejected.
+     */
+    public void onModule(ClusterDynamicSettingsModule module) {
+        for (String setting : AuthPolicy.DYNAMIC_SETTINGS) {
+            module.addDynamicSettings(setting, setting + ".*");
+        }
+    }
+
+    /**
+     * registers the action collecting the auth stats of all the nodes, on
+     * the nodes serving http through the plugin, which hold the stats
+     */
+    public void onModule(ActionModule module) {
+        if (settings.getAsBoolean("http.basic.enabled", enabledByDefault)) {
+            module.registerAction(NodesAuthStatsAction.INSTANCE, TransportNodesAuthStatsAction.class);
+        }
+    }
+
     @Override public Settings additionalSettings() {
         if (settings.getAsBoolean("http.basic.enabled", enabledByDefault)) {
             return ImmutableSettings.settingsBuilder().
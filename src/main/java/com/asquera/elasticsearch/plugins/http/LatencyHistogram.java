@@ -0,0 +1,194 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in nanoseconds.
+ * <p>
+ * Values below 32 have a bucket each. Above, every power of two is split
+ * into 32 buckets, so a percentile is off by at most about 3%, from 1ns up
+ * to hours, with less than 2000 buckets.
+ * <p>
+ * Buckets are striped by thread, so the network threads recording
+ * concurrently rarely write the same cache lines. Recording is a few
+ * shifts and one atomic increment.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    public LatencyHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes number of stripes, rounded up to a power of two and
+     * capped at 16
+     */
+    public LatencyHistogram(int stripes) {
+        int count = Math.min(16, stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1);
+        this.stripes = new AtomicLongArray[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.mask = count - 1;
+    }
+
+    /**
+     * @param nanos a latency, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        int stripe = (int) Thread.currentThread().getId() & mask;
+        stripes[stripe].incrementAndGet(bucket(Math.max(0, nanos)));
+    }
+
+    /**
+     * @return the counts of all buckets summed over the stripes
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return new Snapshot(counts);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the smallest value of the bucket
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @return the largest value of the bucket
+     */
+    static long upperBound(int bucket) {
+        return bucket + 1 < BUCKETS ? lowerBound(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Counts of a histogram at some point in time
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        /**
+         * @param buckets lower bounds of buckets each followed by its count,
+         * as returned by {@link #buckets()}
+         * @return the snapshot holding the counts
+         */
+        public static Snapshot fromBuckets(long[] buckets) {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i + 1 < buckets.length; i += 2) {
+                counts[bucket(Math.max(0, buckets[i]))] += buckets[i + 1];
+            }
+            return new Snapshot(counts);
+        }
+
+        /**
+         * @param other
+         * @return the snapshot of the values recorded in both, as if
+         * recorded in a single histogram
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = counts.clone();
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] += other.counts[i];
+            }
+            return new Snapshot(merged);
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @param quantile between 0 and 1, such as 0.99
+         * @return the upper bound of the bucket holding the quantile, 0 if
+         * no value was recorded
+         */
+        public long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(counts.length - 1);
+        }
+
+        /**
+         * @return the upper bound of the bucket of the largest value, 0 if no
+         * value was recorded
+         */
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return upperBound(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return the lower bound of each non empty bucket, followed by its
+         * count, so histograms of several nodes can be merged exactly
+         */
+        public long[] buckets() {
+            int used = 0;
+            for (long c : counts) {
+                if (c > 0) {
+                    used++;
+                }
+            }
+            long[] buckets = new long[used * 2];
+            int j = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    buckets[j++] = lowerBound(i);
+                    buckets[j++] = counts[i];
+                }
+            }
+            return buckets;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import org.elasticsearch.http.HttpChannel;
+import org.elasticsearch.rest.RestResponse;
+
+/**
+ * Sets the session cookie of the user on the response of the request
+ * sent through the channel it wraps. The header is added to the response
+ * itself, so it only wraps the channel of requests dispatched to
+ * elasticsearch, which builds a new response for each of them, never the
+ * responses the plugin shares between requests.
+ */
+class SessionChannel extends HttpChannel {
+    private final HttpChannel channel;
+    private final String setCookie;
+
+    /**
+     * @param channel the channel of the request
+     * @param setCookie value of the Set-Cookie header
+     */
+    SessionChannel(HttpChannel channel, String setCookie) {
+        super(channel.request(), channel.detailedErrorsEnabled());
+        this.channel = channel;
+        this.setCookie = setCookie;
+    }
+
+    @Override
+    public void sendResponse(RestResponse response) {
+        response.addHeader("Set-Cookie", setCookie);
+        channel.sendResponse(response);
+    }
+}
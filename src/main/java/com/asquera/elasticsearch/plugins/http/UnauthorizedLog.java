@@ -0,0 +1,190 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.http.HttpRequest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sampled and rate limited log of unauthorized requests.
+ * <p>
+ * A rejected request is only a candidate with a probability of 1 /
+ * sample, and at most a few candidates per source ip are logged per
+ * interval. The others are counted, and {@link #flush()}, called once per
+ * interval, logs one "suppressed N similar" summary per source ip.
+ * <p>
+ * Only the first bytes of the body of a logged request are decoded, and
+ * only once it is known to be logged. The request of a flood is never
+ * copied.
+ */
+public class UnauthorizedLog {
+    private final int sample;
+    private final int perIp;
+    private final int maxBody;
+    private final int maxIps;
+    private final TimeValue interval;
+    private final ESLogger logger;
+
+    private volatile ConcurrentMap<String, Window> windows = new ConcurrentHashMap<String, Window>();
+    private final AtomicInteger tracked = new AtomicInteger();
+    private final Window untracked = new Window();
+
+    private final AtomicLong logged = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * @param sample 1 in sample rejected requests is a candidate for logging
+     * @param perIp maximum number of requests logged per source ip and interval
+     * @param maxBody maximum number of body bytes logged
+     * @param maxIps maximum number of source ips tracked per interval, the
+     * others share a single limit
+     * @param interval period of the limit, and of {@link #flush()}
+     */
+    public UnauthorizedLog(int sample, int perIp, int maxBody, int maxIps, TimeValue interval) {
+        this.sample = Math.max(1, sample);
+        this.perIp = perIp;
+        this.maxBody = maxBody;
+        this.maxIps = maxIps;
+        this.interval = interval;
+        this.logger = Loggers.getLogger(HttpBasicServer.class);
+    }
+
+    /**
+     * @param request a rejected request
+     * @param address its source ip, the client behind the trusted proxies
+     * @return true iff the request was logged
+     */
+    public boolean log(HttpRequest request, String address) {
+        Window window = window(address);
+        if (sample > 1 && ThreadLocalRandom.current().nextInt(sample) != 0) {
+            window.suppressed.incrementAndGet();
+            suppressed.incrementAndGet();
+            return false;
+        }
+        if (window.logged.incrementAndGet() > perIp) {
+            window.suppressed.incrementAndGet();
+            suppressed.incrementAndGet();
+            return false;
+        }
+        logged.incrementAndGet();
+        write(format(request, address, maxBody));
+        return true;
+    }
+
+    /**
+     * Logs the summary of the requests suppressed since the last flush and
+     * starts a new interval.
+     */
+    public void flush() {
+        Map<String, Window> previous = windows;
+        windows = new ConcurrentHashMap<String, Window>();
+        tracked.set(0);
+        for (Map.Entry<String, Window> entry : previous.entrySet()) {
+            int count = entry.getValue().suppressed.get();
+            if (count > 0) {
+                write("UNAUTHORIZED suppressed " + count + " similar requests from "
+                    + entry.getKey() + " in the last " + interval);
+            }
+        }
+        int others = untracked.suppressed.getAndSet(0);
+        untracked.logged.set(0);
+        if (others > 0) {
+            write("UNAUTHORIZED suppressed " + others + " similar requests from other ips in the last " + interval);
+        }
+    }
+
+    private Window window(String address) {
+        ConcurrentMap<String, Window> current = windows;
+        Window window = current.get(address);
+        if (window != null) {
+            return window;
+        }
+        if (tracked.get() >= maxIps) {
+            return untracked;
+        }
+        Window created = new Window();
+        window = current.putIfAbsent(address, created);
+        if (window == null) {
+            tracked.incrementAndGet();
+            window = created;
+        }
+        return window;
+    }
+
+    /**
+     * Formats the request without its password and with at most maxBody
+     * bytes of its body.
+     */
+    static String format(HttpRequest request, String address, int maxBody) {
+        StringBuilder line = new StringBuilder(128 + maxBody);
+        line.append("UNAUTHORIZED type:").append(request.method())
+            .append(", address:").append(address)
+            .append(", path:").append(request.path())
+            .append(", user:").append(user(request));
+        if (maxBody > 0 && request.hasContent()) {
+            BytesReference content = request.content();
+            int length = content.length();
+            line.append(", content:").append(content.slice(0, Math.min(length, maxBody)).toUtf8());
+            if (length > maxBody) {
+                line.append("... (").append(length).append(" bytes)");
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * @return the user name of the basic auth credentials, "" if none
+     */
+    private static String user(HttpRequest request) {
+        String decoded = HttpBasicServer.decodeCredentials(request.header("Authorization"));
+        int colon = decoded.indexOf(':');
+        return colon < 0 ? decoded : decoded.substring(0, colon);
+    }
+
+    /**
+     * @param line
+     */
+    protected void write(String line) {
+        logger.error(line);
+    }
+
+    /**
+     * @return the interval of the per ip limit, at which {@link #flush()}
+     * has to be called
+     */
+    public TimeValue getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the number of rejected requests logged
+     */
+    public long getLogged() {
+        return logged.get();
+    }
+
+    /**
+     * @return the number of rejected requests not logged
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "unauthorized log: logged " + getLogged() + ", suppressed " + getSuppressed();
+    }
+
+    private static class Window {
+        final AtomicInteger logged = new AtomicInteger();
+        final AtomicInteger suppressed = new AtomicInteger();
+    }
+}
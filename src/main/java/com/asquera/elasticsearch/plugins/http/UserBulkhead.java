@@ -0,0 +1,165 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps the number of requests of each authenticated user in flight, so the
+ * long running requests of one user cannot take all the threads of the
+ * cluster. Requests over the cap are rejected right away, never queued.
+ * <p>
+ * The cap of a user is the one configured under
+ * http.basic.bulkhead.users.&lt;name&gt;, or else the default one.
+ */
+public class UserBulkhead {
+    private static final String PREFIX = "http.basic.bulkhead.";
+
+    /**
+     * 0 when users without a cap of their own are unlimited
+     */
+    private final int defaultMax;
+    /**
+     * the caps of their own, 0 for unlimited users
+     */
+    private final Map<String, Integer> limits;
+    private final ConcurrentMap<String, Slots> slots = new ConcurrentHashMap<String, Slots>();
+
+    /**
+     * @param defaultMax the cap of the users without one of their own, 0 for
+     * unlimited
+     * @param limits the caps of their own, 0 for unlimited users
+     */
+    public UserBulkhead(int defaultMax, Map<String, Integer> limits) {
+        this.defaultMax = defaultMax;
+        this.limits = limits;
+    }
+
+    /**
+     * Reads http.basic.bulkhead.max_concurrent, and the same per user under
+     * http.basic.bulkhead.users.&lt;name&gt;. A cap of 0 is unlimited.
+     *
+     * @param settings
+     * @return the bulkhead, null if no user has a cap
+     */
+    public static UserBulkhead fromSettings(Settings settings) {
+        int defaultMax = settings.getAsInt(PREFIX + "max_concurrent", 0);
+        boolean limited = defaultMax > 0;
+        Map<String, Integer> limits = new HashMap<String, Integer>();
+        for (Map.Entry<String, Settings> entry : settings.getGroups(PREFIX + "users.").entrySet()) {
+            int max = entry.getValue().getAsInt("max_concurrent", 0);
+            limits.put(entry.getKey(), max);
+            limited |= max > 0;
+        }
+        if (!limited) {
+            return null;
+        }
+        return new UserBulkhead(defaultMax, limits);
+    }
+
+    /**
+     * @param user name of the authenticated user
+     * @return the slots of the user, null if the user is unlimited
+     */
+    public Slots slots(String user) {
+        Slots userSlots = slots.get(user);
+        if (userSlots == null) {
+            int max = limits.containsKey(user) ? limits.get(user) : defaultMax;
+            if (max <= 0) {
+                return null;
+            }
+            Slots created = new Slots(max);
+            userSlots = slots.putIfAbsent(user, created);
+            if (userSlots == null) {
+                userSlots = created;
+            }
+        }
+        return userSlots;
+    }
+
+    /**
+     * @return the slots of the capped users who sent requests, by user name
+     */
+    public Map<String, Slots> getSlots() {
+        return slots;
+    }
+
+    @Override
+    public String toString() {
+        return "user bulkhead: " + (defaultMax > 0 ? defaultMax : "unlimited")
+            + " concurrent requests by default, " + limits.size() + " users with their own";
+    }
+
+    /**
+     * The requests in flight of a user
+     */
+    public static class Slots {
+        private final int max;
+        private final AtomicInteger current = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+        private final LongAdder rejected = new LongAdder();
+
+        Slots(int max) {
+            this.max = max;
+        }
+
+        /**
+         * @return true iff a slot was taken, {@link #release()} must then be
+         * called once the response is sent
+         */
+        public boolean tryAcquire() {
+            while (true) {
+                int taken = current.get();
+                if (taken >= max) {
+                    rejected.increment();
+                    return false;
+                }
+                if (current.compareAndSet(taken, taken + 1)) {
+                    updatePeak(taken + 1);
+                    return true;
+                }
+            }
+        }
+
+        public void release() {
+            current.decrementAndGet();
+        }
+
+        private void updatePeak(int taken) {
+            int highest = peak.get();
+            while (taken > highest && !peak.compareAndSet(highest, taken)) {
+                highest = peak.get();
+            }
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        /**
+         * @return the number of requests in flight
+         */
+        public int getCurrent() {
+            return current.get();
+        }
+
+        /**
+         * @return the highest number of requests in flight seen
+         */
+        public int getPeak() {
+            return peak.get();
+        }
+
+        /**
+         * @return the number of requests rejected over the cap
+         */
+        public long getRejected() {
+            return rejected.sum();
+        }
+    }
+}
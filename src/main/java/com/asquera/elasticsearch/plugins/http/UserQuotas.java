@@ -0,0 +1,148 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import com.asquera.elasticsearch.plugins.http.auth.RateLimit;
+import com.asquera.elasticsearch.plugins.http.auth.TokenBucket;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.jsr166e.LongAdder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Request rate quotas of the authenticated users, so one user cannot take
+ * all the capacity of the cluster.
+ * <p>
+ * Every user gets its own token bucket, refilled at the rate of its quota
+ * and taken from without locking. The quota of a user is the one configured
+ * under http.basic.quota.users.&lt;name&gt;, or else the default one.
+ */
+public class UserQuotas {
+    private static final String PREFIX = "http.basic.quota.";
+
+    /**
+     * null when users without a quota of their own are unlimited
+     */
+    private final RateLimit defaultLimit;
+    /**
+     * the quotas of their own, null values for unlimited users
+     */
+    private final Map<String, RateLimit> limits;
+    private final ConcurrentMap<String, Quota> quotas = new ConcurrentHashMap<String, Quota>();
+
+    /**
+     * @param defaultLimit the quota of the users without one of their own,
+     * null for unlimited
+     * @param limits the quotas of their own, null values for unlimited users
+     */
+    public UserQuotas(RateLimit defaultLimit, Map<String, RateLimit> limits) {
+        this.defaultLimit = defaultLimit;
+        this.limits = limits;
+    }
+
+    /**
+     * Reads http.basic.quota.rate and http.basic.quota.burst, and the same
+     * per user under http.basic.quota.users.&lt;name&gt;. A rate of 0 is
+     * unlimited.
+     *
+     * @param settings
+     * @return the quotas, null if no user has any
+     */
+    public static UserQuotas fromSettings(Settings settings) {
+        RateLimit defaultLimit = limit(settings.getByPrefix(PREFIX));
+        boolean limited = defaultLimit != null;
+        Map<String, RateLimit> limits = new HashMap<String, RateLimit>();
+        for (Map.Entry<String, Settings> entry : settings.getGroups(PREFIX + "users.").entrySet()) {
+            RateLimit limit = limit(entry.getValue());
+            limits.put(entry.getKey(), limit);
+            limited |= limit != null;
+        }
+        if (!limited) {
+            return null;
+        }
+        return new UserQuotas(defaultLimit, limits);
+    }
+
+    /**
+     * @return the rate limit of the rate and burst settings, null if the rate
+     * is 0
+     */
+    private static RateLimit limit(Settings settings) {
+        double rate = settings.getAsDouble("rate", 0.0);
+        if (rate <= 0) {
+            return null;
+        }
+        return RateLimit.perSecond(rate, settings.getAsInt("burst", Math.max(1, (int) Math.ceil(rate))));
+    }
+
+    /**
+     * @param user name of the authenticated user
+     * @param now current time in nanoseconds
+     * @return true iff the request of the user is within its quota
+     */
+    public boolean tryAcquire(String user, long now) {
+        Quota quota = quotas.get(user);
+        if (quota == null) {
+            RateLimit limit = limits.containsKey(user) ? limits.get(user) : defaultLimit;
+            if (limit == null) {
+                return true;
+            }
+            Quota created = new Quota(new TokenBucket(limit, now));
+            quota = quotas.putIfAbsent(user, created);
+            if (quota == null) {
+                quota = created;
+            }
+        }
+        if (quota.bucket.tryTake(now)) {
+            quota.allowed.increment();
+            return true;
+        }
+        quota.exceeded.increment();
+        return false;
+    }
+
+    /**
+     * @return the quotas of the users who sent requests, by user name
+     */
+    public Map<String, Quota> getQuotas() {
+        return quotas;
+    }
+
+    @Override
+    public String toString() {
+        return "user quotas: " + (defaultLimit == null ? "unlimited" : defaultLimit.toString())
+            + " by default, " + limits.size() + " users with their own";
+    }
+
+    /**
+     * The quota of a user and its counters
+     */
+    public static class Quota {
+        private final TokenBucket bucket;
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder exceeded = new LongAdder();
+
+        Quota(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+
+        public RateLimit getLimit() {
+            return bucket.getLimit();
+        }
+
+        /**
+         * @return the number of requests within the quota
+         */
+        public long getAllowed() {
+            return allowed.sum();
+        }
+
+        /**
+         * @return the number of requests rejected over the quota
+         */
+        public long getExceeded() {
+            return exceeded.sum();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.asquera.elasticsearch.plugins.http.action;
+
+import com.asquera.elasticsearch.plugins.http.AuthOutcome;
+import com.asquera.elasticsearch.plugins.http.AuthStats;
+import com.asquera.elasticsearch.plugins.http.LatencyHistogram;
+import org.elasticsearch.action.support.nodes.NodeOperationResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+/**
+ * The auth stats of one node: its requests per outcome and the buckets of
+ * its decision latency histogram, so they can be added up exactly.
+ * <p>
+ * Outcomes are sent by name, a node of another version of the plugin
+ * leaves out the outcomes it doesn't know.
+ */
+public class NodeAuthStats extends NodeOperationResponse {
+    private static final AuthOutcome[] OUTCOMES = AuthOutcome.values();
+
+    private long[] counts;
+    private long[] buckets;
+
+    NodeAuthStats() {
+    }
+
+    /**
+     * @param node
+     * @param stats the stats of the node
+     */
+    public NodeAuthStats(DiscoveryNode node, AuthStats stats) {
+        super(node);
+        this.counts = stats.counts();
+        this.buckets = stats.getDecisionLatency().snapshot().buckets();
+    }
+
+    /**
+     * @return the number of requests of each outcome, by ordinal
+     */
+    public long[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * @return the decision latencies of the node
+     */
+    public LatencyHistogram.Snapshot getDecisionLatency() {
+        return LatencyHistogram.Snapshot.fromBuckets(buckets);
+    }
+
+    static NodeAuthStats readNodeAuthStats(StreamInput in) throws IOException {
+        NodeAuthStats stats = new NodeAuthStats();
+        stats.readFrom(in);
+        return stats;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        counts = new long[OUTCOMES.length];
+        int outcomes = in.readVInt();
+        for (int i = 0; i < outcomes; i++) {
+            String name = in.readString();
+            long count = in.readVLong();
+            for (AuthOutcome outcome : OUTCOMES) {
+                if (outcome.name().equals(name)) {
+                    counts[outcome.ordinal()] = count;
+                }
+            }
+        }
+        buckets = new long[in.readVInt()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = in.readVLong();
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(OUTCOMES.length);
+        for (AuthOutcome outcome : OUTCOMES) {
+            out.writeString(outcome.name());
+            out.writeVLong(counts[outcome.ordinal()]);
+        }
+        out.writeVInt(buckets.length);
+        for (long value : buckets) {
+            out.writeVLong(value);
+        }
+    }
+}
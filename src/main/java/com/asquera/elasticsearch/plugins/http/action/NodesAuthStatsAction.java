@@ -0,0 +1,27 @@
+package com.asquera.elasticsearch.plugins.http.action;
+
+import org.elasticsearch.action.admin.cluster.ClusterAction;
+import org.elasticsearch.client.ClusterAdminClient;
+
+/**
+ * Collects the auth stats of every node running the plugin.
+ */
+public class NodesAuthStatsAction extends ClusterAction<NodesAuthStatsRequest, NodesAuthStatsResponse, NodesAuthStatsRequestBuilder> {
+
+    public static final NodesAuthStatsAction INSTANCE = new NodesAuthStatsAction();
+    public static final String NAME = "cluster:monitor/http_basic/stats";
+
+    private NodesAuthStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    public NodesAuthStatsResponse newResponse() {
+        return new NodesAuthStatsResponse();
+    }
+
+    @Override
+    public NodesAuthStatsRequestBuilder newRequestBuilder(ClusterAdminClient client) {
+        return new NodesAuthStatsRequestBuilder(client);
+    }
+}
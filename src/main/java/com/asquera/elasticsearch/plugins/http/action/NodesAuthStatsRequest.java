@@ -0,0 +1,19 @@
+package com.asquera.elasticsearch.plugins.http.action;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequest;
+
+/**
+ * Asks the given nodes, all by default, for their auth stats.
+ */
+public class NodesAuthStatsRequest extends NodesOperationRequest<NodesAuthStatsRequest> {
+
+    public NodesAuthStatsRequest() {
+    }
+
+    /**
+     * @param nodesIds the ids of the nodes, none for all of them
+     */
+    public NodesAuthStatsRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+}
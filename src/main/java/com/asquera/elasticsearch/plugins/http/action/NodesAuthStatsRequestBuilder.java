@@ -0,0 +1,17 @@
+package com.asquera.elasticsearch.plugins.http.action;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ClusterAdminClient;
+
+public class NodesAuthStatsRequestBuilder extends NodesOperationRequestBuilder<NodesAuthStatsRequest, NodesAuthStatsResponse, NodesAuthStatsRequestBuilder> {
+
+    public NodesAuthStatsRequestBuilder(ClusterAdminClient client) {
+        super(client, new NodesAuthStatsRequest());
+    }
+
+    @Override
+    protected void doExecute(ActionListener<NodesAuthStatsResponse> listener) {
+        client.execute(NodesAuthStatsAction.INSTANCE, request, listener);
+    }
+}
@@ -0,0 +1,91 @@
+package com.asquera.elasticsearch.plugins.http.action;
+
+import com.asquera.elasticsearch.plugins.http.AuthStats;
+import com.asquera.elasticsearch.plugins.http.LatencyHistogram;
+import org.elasticsearch.action.support.nodes.NodesOperationResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * The auth stats of the nodes that answered, and their sum.
+ */
+public class NodesAuthStatsResponse extends NodesOperationResponse<NodeAuthStats> {
+
+    NodesAuthStatsResponse() {
+    }
+
+    public NodesAuthStatsResponse(ClusterName clusterName, NodeAuthStats[] nodes) {
+        super(clusterName, nodes);
+    }
+
+    /**
+     * @return the number of requests of each outcome summed over the nodes,
+     * by ordinal
+     */
+    public long[] totalCounts() {
+        long[] total = null;
+        for (NodeAuthStats node : nodes) {
+            long[] counts = node.getCounts();
+            if (total == null) {
+                total = new long[counts.length];
+            }
+            for (int i = 0; i < counts.length; i++) {
+                total[i] += counts[i];
+            }
+        }
+        return total == null ? new long[0] : total;
+    }
+
+    /**
+     * @return the decision latencies of all the nodes, merged bucket by bucket
+     */
+    public LatencyHistogram.Snapshot totalDecisionLatency() {
+        LatencyHistogram.Snapshot total = LatencyHistogram.Snapshot.fromBuckets(new long[0]);
+        for (NodeAuthStats node : nodes) {
+            total = total.merge(node.getDecisionLatency());
+        }
+        return total;
+    }
+
+    /**
+     * @param builder
+     * @param buckets whether to add the histogram buckets
+     */
+    public void toXContent(XContentBuilder builder, boolean buckets) throws IOException {
+        builder.field("cluster_name", getClusterName().value());
+        builder.startObject("total");
+        builder.field("nodes", nodes.length);
+        AuthStats.toXContent(builder, totalCounts(), totalDecisionLatency(), buckets);
+        builder.endObject();
+        builder.startObject("nodes");
+        for (NodeAuthStats node : nodes) {
+            builder.startObject(node.getNode().id());
+            builder.field("name", node.getNode().name());
+            AuthStats.toXContent(builder, node.getCounts(), node.getDecisionLatency(), buckets);
+            builder.endObject();
+        }
+        builder.endObject();
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        nodes = new NodeAuthStats[in.readVInt()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = NodeAuthStats.readNodeAuthStats(in);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(nodes.length);
+        for (NodeAuthStats node : nodes) {
+            node.writeTo(out);
+        }
+    }
+}
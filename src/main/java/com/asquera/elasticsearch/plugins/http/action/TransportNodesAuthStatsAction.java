@@ -0,0 +1,110 @@
+package com.asquera.elasticsearch.plugins.http.action;
+
+import com.asquera.elasticsearch.plugins.http.AuthStats;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.NodeOperationRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesOperationAction;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Answers with the {@link AuthStats} of the node, shared with the
+ * {@link com.asquera.elasticsearch.plugins.http.HttpBasicServer}. Nodes
+ * that fail to answer, such as nodes without the plugin, are left out.
+ */
+public class TransportNodesAuthStatsAction extends TransportNodesOperationAction<NodesAuthStatsRequest, NodesAuthStatsResponse, TransportNodesAuthStatsAction.NodeRequest, NodeAuthStats> {
+
+    private final AuthStats stats;
+
+    @Inject
+    public TransportNodesAuthStatsAction(Settings settings, ClusterName clusterName, ThreadPool threadPool,
+            ClusterService clusterService, TransportService transportService, ActionFilters actionFilters,
+            AuthStats stats) {
+        super(settings, NodesAuthStatsAction.NAME, clusterName, threadPool, clusterService, transportService, actionFilters);
+        this.stats = stats;
+    }
+
+    @Override
+    protected String executor() {
+        return ThreadPool.Names.MANAGEMENT;
+    }
+
+    @Override
+    protected NodesAuthStatsResponse newResponse(NodesAuthStatsRequest request, AtomicReferenceArray responses) {
+        List<NodeAuthStats> nodes = new ArrayList<NodeAuthStats>();
+        for (int i = 0; i < responses.length(); i++) {
+            Object response = responses.get(i);
+            if (response instanceof NodeAuthStats) {
+                nodes.add((NodeAuthStats) response);
+            }
+        }
+        return new NodesAuthStatsResponse(clusterName, nodes.toArray(new NodeAuthStats[nodes.size()]));
+    }
+
+    @Override
+    protected NodesAuthStatsRequest newRequest() {
+        return new NodesAuthStatsRequest();
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest() {
+        return new NodeRequest();
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(String nodeId, NodesAuthStatsRequest request) {
+        return new NodeRequest(nodeId, request);
+    }
+
+    @Override
+    protected NodeAuthStats newNodeResponse() {
+        return new NodeAuthStats();
+    }
+
+    @Override
+    protected NodeAuthStats nodeOperation(NodeRequest request) throws ElasticsearchException {
+        return new NodeAuthStats(clusterService.localNode(), stats);
+    }
+
+    @Override
+    protected boolean accumulateExceptions() {
+        return false;
+    }
+
+    static class NodeRequest extends NodeOperationRequest {
+        NodesAuthStatsRequest request;
+
+        NodeRequest() {
+        }
+
+        NodeRequest(String nodeId, NodesAuthStatsRequest request) {
+            super(request, nodeId);
+            this.request = request;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            request = new NodesAuthStatsRequest();
+            request.readFrom(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            request.writeTo(out);
+        }
+    }
+}
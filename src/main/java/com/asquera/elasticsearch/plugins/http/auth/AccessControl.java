@@ -0,0 +1,97 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestRequest.Method;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * The routes each user, and the whitelisted ips, may request, compiled
+ * into a {@link RouteTrie} per user.
+ * <p>
+ * A user without routes, like the whitelisted ips without routes, may
+ * request anything.
+ */
+public class AccessControl {
+  private static final String PREFIX = "http.basic.acl.";
+
+  private final Map<String, RouteTrie> users;
+  /**
+   * null when whitelisted ips may request anything
+   */
+  private final RouteTrie whitelist;
+
+  /**
+   * @param users the routes of the users, by user name
+   * @param whitelist the routes of the whitelisted ips, null for anything
+   */
+  public AccessControl(Map<String, RouteTrie> users, RouteTrie whitelist) {
+    this.users = users;
+    this.whitelist = whitelist;
+  }
+
+  /**
+   * Reads the routes of the users from http.basic.acl.users.&lt;name&gt; and
+   * the ones of the whitelisted ips from http.basic.acl.ipwhitelist.
+   *
+   * @param settings
+   * @return the compiled routes
+   * @throws IllegalArgumentException if a route is malformed
+   */
+  public static AccessControl fromSettings(Settings settings) {
+    Map<String, RouteTrie> users = new HashMap<String, RouteTrie>();
+    String usersPrefix = PREFIX + "users.";
+    for (String key : settings.getByPrefix(usersPrefix).getAsMap().keySet()) {
+      String user = arrayName(key);
+      if (!users.containsKey(user)) {
+        users.put(user, RouteTrie.compile(settings.getAsArray(usersPrefix + user)));
+      }
+    }
+    String[] whitelisted = settings.getAsArray(PREFIX + "ipwhitelist", null);
+    return new AccessControl(Collections.unmodifiableMap(users),
+        whitelisted == null ? null : RouteTrie.compile(whitelisted));
+  }
+
+  /**
+   * @return the setting name without its array index, if any
+   */
+  private static String arrayName(String key) {
+    int dot = key.lastIndexOf('.');
+    if (dot < 0) {
+      return key;
+    }
+    for (int i = dot + 1; i < key.length(); i++) {
+      if (!Character.isDigit(key.charAt(i))) {
+        return key;
+      }
+    }
+    return key.substring(0, dot);
+  }
+
+  /**
+   * @param user name of the authenticated user, null for a whitelisted ip
+   * @param method
+   * @param path the path of the request, without its query string
+   * @return true iff the user, or the whitelisted ip, may send the request
+   */
+  public boolean isAllowed(String user, Method method, String path) {
+    RouteTrie routes = user == null ? whitelist : users.get(user);
+    return routes == null || routes.matches(method, path);
+  }
+
+  /**
+   * @return true iff anybody may request anything
+   */
+  public boolean isEmpty() {
+    return users.isEmpty() && whitelist == null;
+  }
+
+  @Override
+  public String toString() {
+    return users.size() + " users with routes"
+      + (whitelist == null ? "" : ", " + whitelist.size() + " whitelist routes");
+  }
+}
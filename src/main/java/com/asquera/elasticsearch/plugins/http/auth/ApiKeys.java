@@ -0,0 +1,175 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.settings.Settings;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * API keys of the service clients, sent as
+ * <code>Authorization: ApiKey base64(id:secret)</code>.
+ * <p>
+ * Only a {@link PasswordHash} of each secret is kept. The keys are held in
+ * a {@link CredentialStore} of their own, indexed by id: checking a key
+ * costs one table lookup whatever the number of keys, its secret is
+ * compared in constant time, and a verified key is then only checked
+ * against the digests of the verified keys. The store, and so what it
+ * verified, is replaced whenever the settings change, so a revoked key is
+ * refused as soon as the node applies the new settings. Keys of the node
+ * settings, which cluster settings can't remove, are revoked by listing
+ * their ids in http.basic.api_keys_revoked.
+ * <p>
+ * Every key authenticates as a principal, its id unless configured, so
+ * several keys of the same service share its quotas and routes. A key
+ * authenticating as its id must not have the name of a user, see
+ * {@link #checkIds(CredentialStore)}.
+ */
+public class ApiKeys {
+  static final String SCHEME = "ApiKey ";
+  private static final String PREFIX = "http.basic.api_keys.";
+
+  private final CredentialStore keys;
+  private final Map<String, String> principals;
+  /**
+   * the ids of the keys authenticating as their id
+   */
+  private final Set<String> unnamed;
+
+  /**
+   * @param hashes the hashes of the secrets, by key id
+   * @param principals the principal of each key id, if not the id
+   * @param verifiedCacheSize maximum number of verified keys kept
+   */
+  public ApiKeys(Map<String, PasswordHash> hashes, Map<String, String> principals, int verifiedCacheSize) {
+    List<User> users = new ArrayList<User>();
+    Map<String, String> byId = new HashMap<String, String>();
+    Set<String> unnamed = new HashSet<String>();
+    for (Map.Entry<String, PasswordHash> entry : hashes.entrySet()) {
+      users.add(User.withPasswordHash(entry.getKey(), entry.getValue()));
+      String principal = principals.get(entry.getKey());
+      if (principal == null) {
+        principal = entry.getKey();
+        unnamed.add(principal);
+      }
+      byId.put(entry.getKey(), principal);
+    }
+    this.keys = new CredentialStore(users, verifiedCacheSize);
+    this.principals = Collections.unmodifiableMap(byId);
+    this.unnamed = Collections.unmodifiableSet(unnamed);
+  }
+
+  /**
+   * Reads the keys from http.basic.api_keys.&lt;id&gt;.hash and their
+   * principals from http.basic.api_keys.&lt;id&gt;.user, leaving out the
+   * ids of http.basic.api_keys_revoked.
+   *
+   * @param settings
+   * @return the keys, null if none is configured or all are revoked
+   * @throws IllegalArgumentException if a hash is malformed
+   */
+  public static ApiKeys fromSettings(Settings settings) {
+    Map<String, Settings> groups = settings.getGroups(PREFIX);
+    Set<String> revoked = new HashSet<String>(
+        Arrays.asList(settings.getAsArray("http.basic.api_keys_revoked")));
+    Map<String, PasswordHash> hashes = new HashMap<String, PasswordHash>();
+    Map<String, String> principals = new HashMap<String, String>();
+    for (Map.Entry<String, Settings> entry : groups.entrySet()) {
+      if (revoked.contains(entry.getKey())) {
+        continue;
+      }
+      String hash = entry.getValue().get("hash");
+      if (hash == null) {
+        throw new IllegalArgumentException("api key [" + entry.getKey() + "] has no hash");
+      }
+      hashes.put(entry.getKey(), PasswordHash.parse(hash));
+      String user = entry.getValue().get("user");
+      if (user != null) {
+        principals.put(entry.getKey(), user);
+      }
+    }
+    if (hashes.isEmpty()) {
+      return null;
+    }
+    return new ApiKeys(hashes, principals,
+        settings.getAsInt("http.basic.api_keys_cache.size", 1000));
+  }
+
+  /**
+   * @param authHeader the raw Authorization header, may be null
+   * @return the principal of the key, null if the header carries no valid
+   * api key
+   */
+  public String authenticate(String authHeader) {
+    return authenticate(authHeader, null);
+  }
+
+  /**
+   * @param authHeader the raw Authorization header, may be null
+   * @param gate asked before the hash of a secret is verified, null to
+   * always verify it
+   * @return the principal of the key, null if the header carries no valid
+   * api key or the gate held its verification back
+   */
+  public String authenticate(String authHeader, CredentialStore.HashGate gate) {
+    if (authHeader == null || !authHeader.startsWith(SCHEME)) {
+      return null;
+    }
+    User key = BasicAuthParser.authenticate(authHeader, SCHEME, keys, gate);
+    return key == null ? null : principals.get(key.getName());
+  }
+
+  /**
+   * A key authenticating as its id would silently get the routes and the
+   * quotas of the user of the same name.
+   *
+   * @param users the users of the policy
+   * @throws IllegalArgumentException if a key without a configured
+   * principal has the id of a user
+   */
+  public void checkIds(CredentialStore users) {
+    for (String id : unnamed) {
+      if (users.contains(id)) {
+        throw new IllegalArgumentException("api key [" + id + "] has the name of a user, set "
+            + PREFIX + id + ".user to the principal it authenticates as");
+      }
+    }
+  }
+
+  /**
+   * @return the number of keys
+   */
+  public int size() {
+    return keys.size();
+  }
+
+  @Override
+  public String toString() {
+    return principals.size() + " api keys";
+  }
+
+  /**
+   * Generates a random secret for a key, and prints its hash and the
+   * Authorization header of the key.
+   */
+  public static void main(String[] args) {
+    if (args.length != 1) {
+      System.err.println("usage: ApiKeys <id>");
+      System.exit(1);
+    }
+    byte[] random = new byte[24];
+    new SecureRandom().nextBytes(random);
+    String secret = Base64.encodeBytes(random).replace('+', '-').replace('/', '_');
+    System.out.println("http.basic.api_keys." + args[0] + ".hash: \"" + PasswordHash.create(secret) + "\"");
+    System.out.println("Authorization: " + SCHEME
+        + Base64.encodeBytes(CredentialStore.utf8(args[0] + ":" + secret)));
+  }
+}
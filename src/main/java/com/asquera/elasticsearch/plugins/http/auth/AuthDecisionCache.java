@@ -0,0 +1,115 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Bounded cache of basic authentication decisions.
+ * <p>
+ * It maps the raw value of the Authorization header, as sent by the client,
+ * to the decision taken for it, the authenticated user or {@link #DENIED},
+ * so a client repeating the same header skips decoding and comparing the
+ * credentials. Entries expire after
+ * the configured ttl and the least recently used ones are evicted once the
+ * size limit is reached.
+ * <p>
+ * Denied headers are kept apart, in a cache of an eighth of the size: a
+ * client sending a new wrong header with every request only evicts other
+ * denials, never the decisions of the users.
+ */
+public class AuthDecisionCache {
+  /**
+   * the decision cached for headers that do not authenticate any user
+   */
+  public static final User DENIED = User.withPassword("", "");
+
+  private final Cache<String, User> decisions;
+  private final Cache<String, Boolean> denials;
+
+  /**
+   * @param size maximum number of cached decisions
+   * @param ttl time a decision is kept after it was taken
+   */
+  public AuthDecisionCache(long size, TimeValue ttl) {
+    this.decisions = CacheBuilder.newBuilder()
+      .maximumSize(size)
+      .expireAfterWrite(ttl.millis(), TimeUnit.MILLISECONDS)
+      .recordStats()
+      .build();
+    this.denials = CacheBuilder.newBuilder()
+      .maximumSize(Math.max(1, size / 8))
+      .expireAfterWrite(ttl.millis(), TimeUnit.MILLISECONDS)
+      .recordStats()
+      .build();
+  }
+
+  /**
+   * @param authHeader the raw Authorization header
+   * @return the cached user, {@link #DENIED}, or null if no decision is
+   * cached
+   */
+  public User get(String authHeader) {
+    User user = decisions.getIfPresent(authHeader);
+    if (user != null) {
+      return user;
+    }
+    return denials.getIfPresent(authHeader) != null ? DENIED : null;
+  }
+
+  /**
+   * @param authHeader the raw Authorization header
+   * @param user the user authenticated by it, null if none
+   */
+  public void put(String authHeader, User user) {
+    if (user == null || user == DENIED) {
+      denials.put(authHeader, Boolean.TRUE);
+    } else {
+      decisions.put(authHeader, user);
+    }
+  }
+
+  /**
+   * A lookup missing the decisions goes on to the denials, so a lookup hit
+   * if either hit, and missed if the denials missed too.
+   *
+   * @return the hit, miss and eviction counts over the decisions and the
+   * denials
+   */
+  public CacheStats stats() {
+    CacheStats users = decisions.stats();
+    CacheStats denied = denials.stats();
+    return new CacheStats(users.hitCount() + denied.hitCount(), denied.missCount(), 0, 0, 0,
+        users.evictionCount() + denied.evictionCount());
+  }
+
+  /**
+   * @return the hit, miss and eviction counts of the denials only
+   */
+  public CacheStats deniedStats() {
+    return denials.stats();
+  }
+
+  /**
+   * @return the number of cached decisions that authenticated a user
+   */
+  public long size() {
+    return decisions.size();
+  }
+
+  /**
+   * @return the number of cached denied headers
+   */
+  public long deniedSize() {
+    return denials.size();
+  }
+
+  @Override
+  public String toString() {
+    return "size: " + size() + ", denied: " + deniedSize() + ", " + stats();
+  }
+}
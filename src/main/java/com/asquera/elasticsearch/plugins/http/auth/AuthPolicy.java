@@ -0,0 +1,351 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ *
+ * All the auth settings of the plugin compiled into the structures the
+ * request path reads: the credential store, the ip whitelist, the trusted
+ * proxy chains and the xforward header limits.
+ * <p>
+ * A policy is never modified once compiled. A settings update compiles a
+ * new policy which is published as a whole, so requests in flight finish
+ * with the policy they started with. Only the whitelist keeps re-resolving
+ * its host names, see {@link InetAddressWhitelist#resolve(Executor, TimeValue)}.
+ */
+public class AuthPolicy {
+  /**
+   * prefix of all the settings compiled into a policy
+   */
+  public static final String PREFIX = "http.basic.";
+  /**
+   * the settings compiled into a policy, with the settings below them, the
+   * only ones the cluster update settings api may change, a <code>*</code>
+   * standing for any one part of a key. The other <code>http.basic.*</code>
+   * settings are read by the server at startup. Cluster settings can be
+   * read back by any client allowed to, so no secret is among them: users
+   * only get a password_hash, api keys a hash
+   */
+  public static final String[] DYNAMIC_SETTINGS = {
+    "http.basic.user", "http.basic.users.*.password_hash", "http.basic.users_file",
+    "http.basic.verified_cache.size", "http.basic.ipwhitelist", "http.basic.dns.ttl",
+    "http.basic.dns.timeout", "http.basic.trusted_proxy_chains", "http.basic.xforward",
+    "http.basic.xforward_max_hops", "http.basic.xforward_max_length", "http.basic.log",
+    "http.basic.cache.size", "http.basic.cache.ttl", "http.basic.acl", "http.basic.admin.users",
+    "http.basic.public_routes", "http.basic.api_keys", "http.basic.api_keys_revoked",
+    "http.basic.api_keys_cache.size", "http.basic.jwt.jwks_file", "http.basic.jwt.audience",
+    "http.basic.jwt.issuer", "http.basic.jwt.principal_claim", "http.basic.jwt.leeway",
+    "http.basic.jwt.cache.size"
+  };
+
+  private final Settings settings;
+  private final CredentialStore credentials;
+  private final InetAddressWhitelist whitelist;
+  private final ProxyChains proxyChains;
+  private final String xForwardHeader;
+  private final int xForwardMaxHops;
+  private final int xForwardMaxLength;
+  private final boolean log;
+  private final AuthDecisionCache authCache;
+  private final AccessControl accessControl;
+  private final Set<String> admins;
+  /**
+   * null when every route needs credentials
+   */
+  private final RouteTrie publicRoutes;
+  /**
+   * null when no session cookies are issued
+   */
+  private final SessionCookies sessions;
+  /**
+   * null when no api key is configured
+   */
+  private final ApiKeys apiKeys;
+  /**
+   * null when bearer tokens are not accepted
+   */
+  private final JwtVerifier jwt;
+  private final TimeValue dnsTtl;
+  private final TimeValue dnsTimeout;
+
+  private AuthPolicy(Settings settings, File configDir, Executor resolver) {
+    this.settings = settings;
+    this.credentials = CredentialStore.fromSettings(settings, configDir);
+    final boolean whitelistEnabled = settings.getAsBoolean("http.basic.ipwhitelist", true);
+    String [] whitelisted = new String[0];
+    if (whitelistEnabled) {
+      whitelisted = settings.getAsArray("http.basic.ipwhitelist", new String[]{"localhost", "127.0.0.1"});
+    }
+    this.dnsTtl = settings.getAsTime("http.basic.dns.ttl", TimeValue.timeValueMinutes(5));
+    this.dnsTimeout = settings.getAsTime("http.basic.dns.timeout", TimeValue.timeValueSeconds(5));
+    this.whitelist = new InetAddressWhitelist(whitelisted, resolver, dnsTimeout);
+    this.proxyChains = new ProxyChains(
+        settings.getAsArray("http.basic.trusted_proxy_chains", new String[]{""}));
+    // for AWS load balancers it is X-Forwarded-For -> hmmh does not work
+    this.xForwardHeader = settings.get("http.basic.xforward", "");
+    this.xForwardMaxHops = settings.getAsInt("http.basic.xforward_max_hops", XForwardedFor.DEFAULT_MAX_HOPS);
+    this.xForwardMaxLength = settings.getAsInt("http.basic.xforward_max_length", XForwardedFor.DEFAULT_MAX_LENGTH);
+    this.log = settings.getAsBoolean("http.basic.log", true);
+    final int cacheSize = settings.getAsInt("http.basic.cache.size", 0);
+    if (cacheSize > 0) {
+      // decisions are only valid for the credentials of this policy
+      this.authCache = new AuthDecisionCache(cacheSize,
+          settings.getAsTime("http.basic.cache.ttl", TimeValue.timeValueMinutes(1)));
+    } else {
+      this.authCache = null;
+    }
+    this.accessControl = AccessControl.fromSettings(settings);
+    this.admins = Collections.unmodifiableSet(new HashSet<String>(
+        Arrays.asList(settings.getAsArray("http.basic.admin.users"))));
+    final String[] publicRoutes = settings.getAsArray("http.basic.public_routes", null);
+    this.publicRoutes = publicRoutes == null ? null : RouteTrie.compile(publicRoutes);
+    this.sessions = SessionCookies.fromSettings(settings, configDir);
+    this.apiKeys = ApiKeys.fromSettings(settings);
+    if (apiKeys != null) {
+      apiKeys.checkIds(credentials);
+    }
+    this.jwt = JwtVerifier.fromSettings(settings, configDir);
+  }
+
+  /**
+   * Compiles the <code>http.basic.*</code> settings into a policy, resolving
+   * the host names of the whitelist.
+   *
+   * @param settings
+   * @param configDir directory relative users file paths are resolved against
+   * @param resolver runs the host name resolutions of the whitelist
+   * @return the compiled policy
+   * @throws IllegalArgumentException if a setting is invalid, such as a
+   * malformed password hash or an unreadable users file
+   */
+  public static AuthPolicy compile(Settings settings, File configDir, Executor resolver) {
+    return new AuthPolicy(authSettings(settings), configDir, resolver);
+  }
+
+  /**
+   * Overlays the dynamic cluster settings on the node settings. A cluster
+   * setting replaces the node setting of the same key as a whole, so an
+   * array set in the cluster settings replaces the array of the node
+   * settings instead of being merged element by element. Removing a cluster
+   * setting restores the node setting. Cluster settings which are not
+   * {@link #isDynamic(String) dynamic} are ignored.
+   *
+   * @param nodeSettings the settings the node was started with
+   * @param clusterSettings the persistent and transient cluster settings
+   * @return the <code>http.basic.*</code> settings in effect
+   */
+  public static Settings overlay(Settings nodeSettings, Settings clusterSettings) {
+    Map<String, String> dynamic = new LinkedHashMap<String, String>();
+    Set<String> overridden = new HashSet<String>();
+    for (Map.Entry<String, String> entry : clusterSettings.getAsMap().entrySet()) {
+      if (isDynamic(entry.getKey())) {
+        dynamic.put(entry.getKey(), entry.getValue());
+        overridden.add(baseKey(entry.getKey()));
+      }
+    }
+    Map<String, String> merged = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, String> entry : authSettings(nodeSettings).getAsMap().entrySet()) {
+      if (!overridden.contains(baseKey(entry.getKey()))) {
+        merged.put(entry.getKey(), entry.getValue());
+      }
+    }
+    merged.putAll(dynamic);
+    return ImmutableSettings.settingsBuilder().put(merged).build();
+  }
+
+  /**
+   * @param key
+   * @return true iff the key is one of the {@link #DYNAMIC_SETTINGS} or
+   * below one of them
+   */
+  public static boolean isDynamic(String key) {
+    for (String setting : DYNAMIC_SETTINGS) {
+      int end = matchedLength(setting, key);
+      if (end >= 0 && (end == key.length() || key.charAt(end) == '.')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the length of the start of the key the setting matches, -1 if
+   * it does not
+   */
+  private static int matchedLength(String setting, String key) {
+    int k = 0;
+    for (int i = 0; i < setting.length(); i++) {
+      if (setting.charAt(i) == '*') {
+        int from = k;
+        while (k < key.length() && key.charAt(k) != '.') {
+          k++;
+        }
+        if (k == from) {
+          return -1;
+        }
+      } else if (k < key.length() && key.charAt(k) == setting.charAt(i)) {
+        k++;
+      } else {
+        return -1;
+      }
+    }
+    return k;
+  }
+
+  /**
+   * @param settings
+   * @return true iff the policy was compiled from the same
+   * <code>http.basic.*</code> settings
+   */
+  public boolean isCompiledFrom(Settings settings) {
+    return this.settings.getAsMap().equals(authSettings(settings).getAsMap());
+  }
+
+  private static Settings authSettings(Settings settings) {
+    Map<String, String> auth = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, String> entry : settings.getAsMap().entrySet()) {
+      if (entry.getKey().startsWith(PREFIX)) {
+        auth.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return ImmutableSettings.settingsBuilder().put(auth).build();
+  }
+
+  /**
+   * @return the key without its array index, if any
+   */
+  private static String baseKey(String key) {
+    int dot = key.lastIndexOf('.');
+    if (dot < 0 || dot == key.length() - 1) {
+      return key;
+    }
+    for (int i = dot + 1; i < key.length(); i++) {
+      if (!Character.isDigit(key.charAt(i))) {
+        return key;
+      }
+    }
+    return key.substring(0, dot);
+  }
+
+  /**
+   * @return the settings the policy was compiled from
+   */
+  public Settings getSettings() {
+    return settings;
+  }
+
+  public CredentialStore getCredentials() {
+    return credentials;
+  }
+
+  public InetAddressWhitelist getWhitelist() {
+    return whitelist;
+  }
+
+  public ProxyChains getProxyChains() {
+    return proxyChains;
+  }
+
+  public String getXForwardHeader() {
+    return xForwardHeader;
+  }
+
+  /**
+   * @param header the value of the xforward header, may be null
+   * @return the header parsed within the configured limits, valid until
+   * the thread parses the next one
+   */
+  public XForwardedFor xForwardedFor(String header) {
+    return XForwardedFor.parse(header, xForwardMaxHops, xForwardMaxLength);
+  }
+
+  public boolean isLog() {
+    return log;
+  }
+
+  /**
+   * @return the decision cache of basic authentication, null if disabled
+   */
+  public AuthDecisionCache getAuthCache() {
+    return authCache;
+  }
+
+  /**
+   * @return the routes the users and the whitelisted ips may request
+   */
+  public AccessControl getAccessControl() {
+    return accessControl;
+  }
+
+  /**
+   * @param principal the authenticated user, null if none
+   * @return true iff the user may manage the plugin, such as its bans
+   */
+  public boolean isAdmin(String principal) {
+    return principal != null && admins.contains(principal);
+  }
+
+  /**
+   * @return the routes anybody may request without credentials, null if
+   * none
+   */
+  public RouteTrie getPublicRoutes() {
+    return publicRoutes;
+  }
+
+  /**
+   * @return the session cookies issued after basic auth, null if disabled
+   */
+  public SessionCookies getSessions() {
+    return sessions;
+  }
+
+  /**
+   * @return the api keys of the service clients, null if none
+   */
+  public ApiKeys getApiKeys() {
+    return apiKeys;
+  }
+
+  /**
+   * @return the verifier of bearer tokens, null if they are not accepted
+   */
+  public JwtVerifier getJwt() {
+    return jwt;
+  }
+
+  public TimeValue getDnsTtl() {
+    return dnsTtl;
+  }
+
+  public TimeValue getDnsTimeout() {
+    return dnsTimeout;
+  }
+
+  /**
+   * delegate method
+   */
+  @Override
+  public String toString() {
+    return "users " + credentials + " with whitelist: " + whitelist
+      + ", xforward header field: " + xForwardHeader
+      + ", trusted proxy chain: " + proxyChains
+      + (accessControl.isEmpty() ? "" : ", access control: " + accessControl)
+      + (admins.isEmpty() ? "" : ", admins: " + admins)
+      + (publicRoutes == null ? "" : ", " + publicRoutes.size() + " public routes")
+      + (sessions == null ? "" : ", " + sessions)
+      + (apiKeys == null ? "" : ", " + apiKeys)
+      + (jwt == null ? "" : ", " + jwt);
+  }
+}
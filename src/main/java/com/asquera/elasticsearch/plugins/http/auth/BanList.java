@@ -0,0 +1,404 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Ips banned for a while.
+ * <p>
+ * Each automatic ban of an ip lasts twice as long as its previous one, up
+ * to a maximum. An ip is remembered for as long again once its ban ends,
+ * a new ban in that time counts as a repeated one.
+ * <p>
+ * Bans are kept in stripes, each one a preallocated pool of entries in
+ * primitive arrays, indexed by an open addressing table and linked into a
+ * hashed timing wheel: every tick of {@link #expire(long)} only visits the
+ * entries due in the slots passed since the previous tick, so forgetting
+ * an ip costs O(1) amortized, whatever the number of bans. Whether an ip is
+ * banned is decided by its end of ban, the wheel only reclaims the entries.
+ */
+public class BanList {
+  private static final int STRIPES = 16;
+  private static final int WHEEL_SLOTS = 512;
+
+  private final long durationNanos;
+  private final long maxDurationNanos;
+  private final long tickNanos;
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicLong issued = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * @param duration duration of the first automatic ban of an ip
+   * @param maxDuration maximum duration of an automatic ban
+   * @param maxIps maximum number of ips remembered at once
+   * @param tick time between two calls to {@link #expire(long)}
+   */
+  public BanList(TimeValue duration, TimeValue maxDuration, int maxIps, TimeValue tick) {
+    this.durationNanos = Math.max(1, duration.nanos());
+    this.maxDurationNanos = Math.max(durationNanos, maxDuration.nanos());
+    this.tickNanos = Math.max(1, tick.nanos());
+    int perStripe = Math.max(1, (maxIps + STRIPES - 1) / STRIPES);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(perStripe);
+    }
+  }
+
+  /**
+   * @return true iff no ip is remembered, so no ip is banned
+   */
+  public boolean isEmpty() {
+    return size.get() == 0;
+  }
+
+  /**
+   * @param high first 64 bits of the ip, see {@link IpAddresses#parse(String, int, int, long[])}
+   * @param low last 64 bits of the ip
+   * @param now current time in nanoseconds
+   * @return true iff the ip is banned
+   */
+  public boolean isBanned(long high, long low, long now) {
+    int hash = IpAddresses.hash(high, low);
+    return stripes[hash & (STRIPES - 1)].isBanned(high, low, hash, now);
+  }
+
+  /**
+   * Bans the ip, for twice as long as its previous ban if it has one.
+   *
+   * @param high first 64 bits of the ip
+   * @param low last 64 bits of the ip
+   * @param now current time in nanoseconds
+   * @return the duration of the ban in nanoseconds, -1 if too many ips are
+   * remembered already
+   */
+  public long ban(long high, long low, long now) {
+    return ban(high, low, now, -1);
+  }
+
+  /**
+   * Bans the ip for the given duration, whatever its previous bans.
+   *
+   * @param high first 64 bits of the ip
+   * @param low last 64 bits of the ip
+   * @param now current time in nanoseconds
+   * @param duration
+   * @return false if too many ips are remembered already
+   */
+  public boolean ban(long high, long low, long now, TimeValue duration) {
+    return ban(high, low, now, Math.max(1, duration.nanos())) > 0;
+  }
+
+  private long ban(long high, long low, long now, long duration) {
+    int hash = IpAddresses.hash(high, low);
+    long banned = stripes[hash & (STRIPES - 1)].ban(high, low, hash, now, duration);
+    if (banned < 0) {
+      rejected.incrementAndGet();
+    } else {
+      issued.incrementAndGet();
+    }
+    return banned;
+  }
+
+  /**
+   * Lifts the ban of the ip and forgets its previous bans.
+   *
+   * @param high first 64 bits of the ip
+   * @param low last 64 bits of the ip
+   * @param now current time in nanoseconds
+   * @return true iff the ip was banned
+   */
+  public boolean lift(long high, long low, long now) {
+    int hash = IpAddresses.hash(high, low);
+    return stripes[hash & (STRIPES - 1)].lift(high, low, hash, now);
+  }
+
+  /**
+   * Forgets the ips whose ban ended long enough ago. To be called about
+   * every tick.
+   *
+   * @param now current time in nanoseconds
+   */
+  public void expire(long now) {
+    for (Stripe stripe : stripes) {
+      stripe.expire(now);
+    }
+  }
+
+  /**
+   * @param now current time in nanoseconds
+   * @return the ips currently banned
+   */
+  public List<Ban> bans(long now) {
+    List<Ban> bans = new ArrayList<Ban>();
+    for (Stripe stripe : stripes) {
+      stripe.collect(bans, now);
+    }
+    return bans;
+  }
+
+  /**
+   * @return the number of ips remembered, banned or not
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * @return the number of bans issued
+   */
+  public long getIssued() {
+    return issued.get();
+  }
+
+  /**
+   * @return the number of bans not issued because too many ips were
+   * remembered
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * @param strikes number of bans in a row
+   * @return the duration of the last one
+   */
+  long backoff(int strikes) {
+    long duration = durationNanos;
+    for (int i = 1; i < strikes && duration < maxDurationNanos; i++) {
+      duration <<= 1;
+    }
+    return Math.min(duration, maxDurationNanos);
+  }
+
+  @Override
+  public String toString() {
+    return "ban list: " + TimeValue.timeValueNanos(durationNanos) + " up to "
+      + TimeValue.timeValueNanos(maxDurationNanos) + ", " + size() + " ips remembered";
+  }
+
+  /**
+   * A current ban
+   */
+  public static class Ban {
+    private final long high;
+    private final long low;
+    private final long remainingNanos;
+    private final int strikes;
+
+    Ban(long high, long low, long remainingNanos, int strikes) {
+      this.high = high;
+      this.low = low;
+      this.remainingNanos = remainingNanos;
+      this.strikes = strikes;
+    }
+
+    /**
+     * @return the banned ip
+     */
+    public String ip() {
+      return IpAddresses.format(high, low);
+    }
+
+    public long getRemainingNanos() {
+      return remainingNanos;
+    }
+
+    /**
+     * @return the number of automatic bans in a row of the ip
+     */
+    public int getStrikes() {
+      return strikes;
+    }
+  }
+
+  /**
+   * A pool of entries, indexed by ip and linked into a timing wheel by
+   * expiry.
+   */
+  private class Stripe {
+    private static final int NONE = -1;
+
+    private final long[] highs;
+    private final long[] lows;
+    /** end of the ban of each entry */
+    private final long[] banEnds;
+    /** time at which each entry is forgotten */
+    private final long[] expiries;
+    private final int[] strikes;
+    /** next entry in the same wheel slot, or in the free list */
+    private final int[] next;
+    private final int[] prev;
+    /** entry of each table slot, or NONE */
+    private final int[] table;
+    private final int tableMask;
+    /** first entry of each wheel slot, or NONE */
+    private final int[] wheel = new int[WHEEL_SLOTS];
+    private int free;
+    private long lastTick;
+    private boolean ticked;
+
+    Stripe(int capacity) {
+      highs = new long[capacity];
+      lows = new long[capacity];
+      banEnds = new long[capacity];
+      expiries = new long[capacity];
+      strikes = new int[capacity];
+      next = new int[capacity];
+      prev = new int[capacity];
+      table = new int[Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1];
+      tableMask = table.length - 1;
+      Arrays.fill(table, NONE);
+      Arrays.fill(wheel, NONE);
+      for (int i = 0; i < capacity; i++) {
+        next[i] = i + 1 < capacity ? i + 1 : NONE;
+      }
+      free = 0;
+    }
+
+    synchronized boolean isBanned(long high, long low, int hash, long now) {
+      int entry = table[find(high, low, hash)];
+      return entry != NONE && banEnds[entry] - now > 0;
+    }
+
+    /**
+     * @param duration the duration of the ban, or -1 for the backoff
+     * @return the duration of the ban, -1 if the pool is exhausted
+     */
+    synchronized long ban(long high, long low, int hash, long now, long duration) {
+      int slot = find(high, low, hash);
+      int entry = table[slot];
+      if (entry == NONE) {
+        if (free == NONE) {
+          return -1;
+        }
+        entry = free;
+        free = next[entry];
+        table[slot] = entry;
+        highs[entry] = high;
+        lows[entry] = low;
+        strikes[entry] = 0;
+        size.incrementAndGet();
+      } else {
+        unlink(entry);
+      }
+      if (duration < 0) {
+        duration = backoff(++strikes[entry]);
+      }
+      banEnds[entry] = now + duration;
+      expiries[entry] = banEnds[entry] + Math.min(duration, maxDurationNanos);
+      link(entry);
+      return duration;
+    }
+
+    synchronized boolean lift(long high, long low, int hash, long now) {
+      int slot = find(high, low, hash);
+      int entry = table[slot];
+      if (entry == NONE) {
+        return false;
+      }
+      boolean banned = banEnds[entry] - now > 0;
+      remove(entry, slot);
+      return banned;
+    }
+
+    synchronized void expire(long now) {
+      long tick = now / tickNanos;
+      if (!ticked) {
+        ticked = true;
+        lastTick = tick - 1;
+      }
+      // a slot is visited at most once, even after a long pause
+      long from = Math.max(lastTick + 1, tick - WHEEL_SLOTS + 1);
+      for (long t = from; t <= tick; t++) {
+        int entry = wheel[slot(t)];
+        while (entry != NONE) {
+          int following = next[entry];
+          if (expiries[entry] - now <= 0) {
+            remove(entry, find(highs[entry], lows[entry], IpAddresses.hash(highs[entry], lows[entry])));
+          }
+          entry = following;
+        }
+      }
+      lastTick = Math.max(lastTick, tick);
+    }
+
+    synchronized void collect(List<Ban> bans, long now) {
+      for (int entry : table) {
+        if (entry != NONE && banEnds[entry] - now > 0) {
+          bans.add(new Ban(highs[entry], lows[entry], banEnds[entry] - now, strikes[entry]));
+        }
+      }
+    }
+
+    /**
+     * @return the table slot of the ip, or the free slot it would go to
+     */
+    private int find(long high, long low, int hash) {
+      // the low bits of the hash pick the stripe
+      int i = (hash >>> 4) & tableMask;
+      while (table[i] != NONE && (highs[table[i]] != high || lows[table[i]] != low)) {
+        i = (i + 1) & tableMask;
+      }
+      return i;
+    }
+
+    private int slot(long tick) {
+      return (int) (tick & (WHEEL_SLOTS - 1));
+    }
+
+    private void link(int entry) {
+      int slot = slot(expiries[entry] / tickNanos);
+      int head = wheel[slot];
+      next[entry] = head;
+      prev[entry] = NONE;
+      if (head != NONE) {
+        prev[head] = entry;
+      }
+      wheel[slot] = entry;
+    }
+
+    private void unlink(int entry) {
+      if (prev[entry] == NONE) {
+        wheel[slot(expiries[entry] / tickNanos)] = next[entry];
+      } else {
+        next[prev[entry]] = next[entry];
+      }
+      if (next[entry] != NONE) {
+        prev[next[entry]] = prev[entry];
+      }
+    }
+
+    /**
+     * removes the entry from the wheel and from the table, shifting back
+     * the entries of its probe sequence, and frees it
+     */
+    private void remove(int entry, int slot) {
+      unlink(entry);
+      next[entry] = free;
+      free = entry;
+      size.decrementAndGet();
+      table[slot] = NONE;
+      int hole = slot;
+      int i = (slot + 1) & tableMask;
+      while (table[i] != NONE) {
+        int moved = table[i];
+        int home = (IpAddresses.hash(highs[moved], lows[moved]) >>> 4) & tableMask;
+        // move the entry into the hole unless its home lies cyclically in (hole, i]
+        boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+        if (movable) {
+          table[hole] = moved;
+          table[i] = NONE;
+          hole = i;
+        }
+        i = (i + 1) & tableMask;
+      }
+    }
+  }
+}
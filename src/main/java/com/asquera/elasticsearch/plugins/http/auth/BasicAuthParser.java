@@ -0,0 +1,145 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Single pass parser of the Authorization header of http basic
+ * authentication.
+ * <p>
+ * The header is expected as <code>Basic base64(user:password)</code>. The
+ * scheme is checked in place and the credentials are decoded into a buffer
+ * owned by the calling thread, which is then handed to the
+ * {@link CredentialStore}. Nothing is allocated per request once the buffer
+ * of the thread is large enough.
+ */
+public class BasicAuthParser {
+  static final String SCHEME = "Basic ";
+  /**
+   * headers decoding to more bytes than this are rejected
+   */
+  static final int MAX_CREDENTIALS_LENGTH = 8192;
+
+  private static final byte[] DECODE = new byte[128];
+  static {
+    Arrays.fill(DECODE, (byte) -1);
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for (int i = 0; i < alphabet.length(); i++) {
+      DECODE[alphabet.charAt(i)] = (byte) i;
+    }
+  }
+
+  private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[256];
+    }
+  };
+
+  private BasicAuthParser() {
+  }
+
+  /**
+   * @param authHeader the raw Authorization header, may be null
+   * @param credentials the users to authenticate against
+   * @return the authenticated user, or null if the header is missing,
+   * malformed or carries wrong credentials
+   */
+  public static User authenticate(String authHeader, CredentialStore credentials) {
+    return authenticate(authHeader, SCHEME, credentials, null);
+  }
+
+  /**
+   * @param authHeader the raw Authorization header, may be null
+   * @param credentials the users to authenticate against
+   * @param gate asked before a password hash is verified, null to always
+   * verify it
+   * @return the authenticated user, or null if the header is missing,
+   * malformed, carries wrong credentials or the gate held their
+   * verification back
+   */
+  public static User authenticate(String authHeader, CredentialStore credentials,
+      CredentialStore.HashGate gate) {
+    return authenticate(authHeader, SCHEME, credentials, gate);
+  }
+
+  /**
+   * @param authHeader the raw Authorization header, may be null
+   * @param scheme the expected scheme, followed by a space
+   * @param credentials the users to authenticate against
+   * @return the authenticated user, or null if the header is missing, has
+   * another scheme, is malformed or carries wrong credentials
+   */
+  static User authenticate(String authHeader, String scheme, CredentialStore credentials) {
+    return authenticate(authHeader, scheme, credentials, null);
+  }
+
+  /**
+   * @param authHeader the raw Authorization header, may be null
+   * @param scheme the expected scheme, followed by a space
+   * @param credentials the users to authenticate against
+   * @param gate asked before a password hash is verified, null to always
+   * verify it
+   * @return the authenticated user, or null if the header is missing, has
+   * another scheme, is malformed, carries wrong credentials or the gate
+   * held their verification back
+   */
+  static User authenticate(String authHeader, String scheme, CredentialStore credentials,
+      CredentialStore.HashGate gate) {
+    if (authHeader == null || !authHeader.startsWith(scheme)) {
+      return null;
+    }
+    int encodedLength = authHeader.length() - scheme.length();
+    int maxLength = encodedLength / 4 * 3 + 2;
+    if (maxLength > MAX_CREDENTIALS_LENGTH) {
+      return null;
+    }
+    byte[] buffer = BUFFER.get();
+    if (buffer.length < maxLength) {
+      buffer = new byte[maxLength];
+      BUFFER.set(buffer);
+    }
+    int length = decode(authHeader, scheme.length(), buffer);
+    if (length < 0) {
+      return null;
+    }
+    return credentials.authenticate(buffer, 0, length, gate);
+  }
+
+  /**
+   * Decodes base64 from the offset up to the end of the string.
+   *
+   * @param s
+   * @param offset
+   * @param out a buffer of at least 3/4 of the encoded length, rounded up
+   * @return the number of decoded bytes, or -1 if the input isn't valid
+   * base64
+   */
+  static int decode(String s, int offset, byte[] out) {
+    int end = s.length();
+    while (end > offset && s.charAt(end - 1) == '=') {
+      end--;
+    }
+    if (s.length() - end > 2) {
+      return -1;
+    }
+    int length = 0;
+    int bits = 0;
+    int accumulated = 0;
+    for (int i = offset; i < end; i++) {
+      char c = s.charAt(i);
+      int value = c < DECODE.length ? DECODE[c] : -1;
+      if (value < 0) {
+        return -1;
+      }
+      accumulated = (accumulated << 6) | value;
+      bits += 6;
+      if (bits >= 8) {
+        bits -= 8;
+        out[length++] = (byte) (accumulated >> bits);
+      }
+    }
+    // a single trailing character cannot encode a whole byte
+    return bits >= 6 ? -1 : length;
+  }
+}
@@ -1,7 +1,5 @@
 package com.asquera.elasticsearch.plugins.http.auth;
 import java.net.InetAddress;
-import java.util.List;
-import java.util.ArrayList;
 
 /**
  * This class is responsible for determining the ip of the
@@ -20,6 +18,7 @@ import java.util.ArrayList;
  */
 public class Client {
   private final InetAddress requestIp;
+  private final String requestAddress;
   private final InetAddressWhitelist whitelist;
   private final XForwardedFor xForwardedFor;
   private final ProxyChains trustedProxyChains;
@@ -29,6 +28,16 @@ public class Client {
  */
   private boolean trusted;
  /**
+ *  the length of the longest trusted tail of the request chain, the request
+ *  ip included
+ */
+  private final int trustedLength;
+ /**
+ *  index in the X-Forwarded-For header of the remote client ip, -1 if the
+ *  header is not used
+ */
+  private final int clientHop;
+ /**
  *  the whitelisted state of the client.
  */
   private boolean whitelisted;
@@ -52,9 +61,12 @@ public class Client {
       XForwardedFor xForwardedFor, ProxyChains trustedProxyChains)
   {
     this.requestIp = requestIp;
+    this.requestAddress = requestIp.getHostAddress();
     this.whitelist = whitelist;
     this.xForwardedFor = xForwardedFor;
     this.trustedProxyChains = trustedProxyChains;
+    trustedLength = xForwardedFor.isSet() ? trustedTailLength() : 0;
+    clientHop = xForwardedFor.isSet() ? remoteClientHop() : -1;
     trusted = checkTrusted();
     whitelisted = checkWhitelisted();
     authorized = trusted && whitelisted;
@@ -74,13 +86,44 @@ public class Client {
    *
    */
   public String ip() {
-    String ip = requestIp.getHostAddress();
-    if (xForwardedFor.isSet()) {
-      ip = remoteClientIp();
+    String ip = requestAddress;
+    if (clientHop >= 0) {
+      ip = xForwardedFor.hop(clientHop);
     }
     return ip;
   }
 
+  /**
+   * @return the ip the client is accountable for: the ip of {@link #ip()}
+   * when the request came through trusted proxies, the request ip
+   * otherwise, see {@link #ipAddress(long[])}
+   */
+  public String accountableIp() {
+    return trustedLength > 0 && clientHop >= 0 ? xForwardedFor.hop(clientHop) : requestAddress;
+  }
+
+  /**
+   * The ip the client is accountable for, as two longs, IPv4 addresses
+   * being IPv4 mapped (see {@link IpAddresses#parse(String, int, int, long[])}),
+   * without allocating: the ip of {@link #ip()} when the request came
+   * through trusted proxies, the request ip otherwise. An untrusted
+   * X-Forwarded-For header is written by the client itself, so it never
+   * picks the ip.
+   *
+   * @param out receives the first 64 bits in out[0] and the last 64 bits in
+   * out[1]
+   * @return false if the ip taken from the X-Forwarded-For header is not
+   * an ip literal
+   */
+  public boolean ipAddress(long[] out) {
+    if (trustedLength > 0 && clientHop >= 0) {
+      return IpAddresses.parse(xForwardedFor.getxForwardedFor(),
+          xForwardedFor.start(clientHop), xForwardedFor.end(clientHop), out);
+    }
+    IpAddresses.fromBytes(requestIp.getAddress(), out);
+    return true;
+  }
+
   /**
    *
    * determines the trust state of the client.
@@ -89,6 +132,8 @@ public class Client {
    * <ul>
    * <li> it is not connected via proxy
    * <li> it is connected via proxies and least one of the proxies subchains is trusted
+   * </ul>
+   * A X-Forwarded-For header exceeding the configured limits is never trusted.
    *
    * @return true if the client's proxy chain is trusted or if the client is
    * not connected via proxy, false otherwise.
@@ -97,7 +142,7 @@ public class Client {
   private boolean checkTrusted() {
     boolean trusted = true;
     if (xForwardedFor.isSet()) {
-      trusted = trustedProxyChains.trusts(requestChain());
+      trusted = trustedLength > 0;
     }
     return trusted;
   }
@@ -116,7 +161,8 @@ public class Client {
   private boolean checkWhitelisted() {
     boolean whitelisted = false;
     if (xForwardedFor.isSet()) {
-      whitelisted = whitelist.contains(remoteClientIp());
+      whitelisted = clientHop >= 0 && whitelist.contains(xForwardedFor.getxForwardedFor(),
+          xForwardedFor.start(clientHop), xForwardedFor.end(clientHop));
     } else {
       whitelisted = whitelist.contains(requestIp);
     }
@@ -124,21 +170,26 @@ public class Client {
   }
 
   /**
-   * @return the trusted ip chain or null if none
-   */
-  private ProxyChain trustedChain() {
-    return trustedProxyChains.trustedSubchain(requestChain());
-  }
-
-  /**
-   * @param request_ip
-   * @return an request chain in the form of [proxy-1, .., proxy-n, request]
+   * Walks the trusted proxy chains trie along the request chain, in the
+   * form of [proxy-1, .., proxy-n, request], from its end.
+   *
+   * @return the length of the longest trusted tail of the request chain, 0
+   * if none is trusted
    */
-  private ProxyChain requestChain() {
-    List<String> ipsChain = new ArrayList<String>();
-    ipsChain.addAll(xForwardedFor.proxies());
-    ipsChain.add(requestIp.getHostAddress());
-    return new ProxyChain(ipsChain);
+  private int trustedTailLength() {
+    if (xForwardedFor.exceedsLimits()) {
+      return 0;
+    }
+    ProxyChainTrie.Node node = trustedProxyChains.getTrie().root().child(requestAddress);
+    int length = 0;
+    for (int i = xForwardedFor.size() - 1; node != null; i--) {
+      length++;
+      if (i < 1) {
+        break;
+      }
+      node = node.child(xForwardedFor.hop(i));
+    }
+    return length;
   }
 
   /**
@@ -148,33 +199,49 @@ public class Client {
    * <p>
    * by default the remote client ip is the first ip of the X-Forwarded-For.
    * If there is a sub proxy chain in the X-Forwarded-For that is trusted, the
-   * client ip is the ip that precedes the starting of the trusted subchain.<p>
+   * client ip is the last proxy that is not part of the trusted subchain.<p>
    * example:<p>
    *
    * a X-Forwarded-For value "1.1.1.1,2.2.2.2,3.3.3.3" with "3.3.3.3" as
    * trusted proxy chain will have the "3.3.3.3" subchain trusted. This
    * determines "2.2.2.2" as the server's remote client
    *
-   * @return the remote client's ip relative to the server
+   * @return the index of the remote client's ip relative to the server in
+   * the X-Forwarded-For header, -1 if the header exceeds its limits
    */
-  private String remoteClientIp() {
-    String clientIp = xForwardedFor.client();
-    if (trustedChain() != null) {
-      List<String> trustedProxies = trustedChain().getProxyChain();
-      List<String> proxies = xForwardedFor.proxies();
-      proxies.removeAll(trustedProxies);
-      if (proxies.size() > 0) {
-        clientIp = proxies.get(proxies.size() - 1);
+  private int remoteClientHop() {
+    if (xForwardedFor.exceedsLimits()) {
+      return -1;
+    }
+    if (trustedLength > 0) {
+      // the trusted subchain holds the request ip and the last
+      // trustedLength - 1 proxies
+      int trustedFrom = xForwardedFor.size() - trustedLength + 1;
+      for (int i = xForwardedFor.size() - 1; i >= 1; i--) {
+        if (!isTrustedProxy(i, trustedFrom)) {
+          return i;
+        }
+      }
+    }
+    return 0;
+  }
+
+  private boolean isTrustedProxy(int hop, int trustedFrom) {
+    if (xForwardedFor.hopEquals(hop, requestAddress)) {
+      return true;
+    }
+    for (int i = Math.max(trustedFrom, 1); i < xForwardedFor.size(); i++) {
+      if (xForwardedFor.hopEquals(hop, i)) {
+        return true;
       }
     }
-    return clientIp;
+    return false;
   }
 
   @Override
   public String toString() {
-    String addr = requestIp.getHostAddress();
-    String s = "client with request ip " + addr
-      + (xForwardedFor.isSet() ? ", remoteIp: " + remoteClientIp() : "")
+    String s = "client with request ip " + requestAddress
+      + (clientHop >= 0 ? ", remoteIp: " + ip() : "")
       + " is:"
       + (authorized ? "Authorized" : "NotAuthorized")
       + ", "
@@ -0,0 +1,316 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * Holds the users allowed to authenticate with http basic authentication.
+ * <p>
+ * Users come from:
+ * <ul>
+ *  <li>the single <code>http.basic.user</code> / <code>http.basic.password</code>
+ *  pair, when set or when no other user nor users file is configured
+ *  <li><code>http.basic.users.&lt;name&gt;.password</code> or
+ *  <code>http.basic.users.&lt;name&gt;.password_hash</code>
+ *  <li>the file set in <code>http.basic.users_file</code>, one
+ *  <code>name:password_hash</code> per line
+ * </ul>
+ * <p>
+ * Verifying a {@link PasswordHash} is deliberately slow, so the SHA-256
+ * digest of every successfully verified user and password is kept in a
+ * {@link VerifiedCredentialCache}. Further requests with the same
+ * credentials only cost a digest and a table lookup. The verifications
+ * missing it can be held back by a {@link HashGate}.
+ * <p>
+ * Users are looked up by the bytes of their name in an open addressing
+ * table, so credentials decoded by the {@link BasicAuthParser} are checked
+ * without allocating.
+ */
+public class CredentialStore {
+  static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+  private static final ThreadLocal<byte[]> DIGEST = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[VerifiedCredentialCache.DIGEST_LENGTH];
+    }
+  };
+
+  /**
+   * Lets a request verify the password hashes missing from the verified
+   * cache, or not.
+   */
+  public interface HashGate {
+    /**
+     * @return true iff a password hash may be verified now
+     */
+    boolean tryVerify();
+  }
+
+  private final Map<String, User> users;
+  private final User[] table;
+  private final int mask;
+  private final VerifiedCredentialCache verified;
+
+  /**
+   * @param users
+   * @param verifiedCacheSize maximum number of verified credentials kept
+   */
+  public CredentialStore(Collection<User> users, int verifiedCacheSize) {
+    this.users = new LinkedHashMap<String, User>();
+    for (User user : users) {
+      this.users.put(user.getName(), user);
+    }
+    this.table = new User[Integer.highestOneBit(Math.max(1, this.users.size())) << 2];
+    this.mask = table.length - 1;
+    for (User user : this.users.values()) {
+      byte[] name = user.getNameBytes();
+      int i = hash(name, 0, name.length) & mask;
+      while (table[i] != null) {
+        i = (i + 1) & mask;
+      }
+      table[i] = user;
+    }
+    this.verified = new VerifiedCredentialCache(verifiedCacheSize);
+  }
+
+  /**
+   * @param settings the node settings
+   * @param configDir directory relative users file paths are resolved against
+   * @return a store with all the configured users
+   * @throws IllegalArgumentException if a user has no password, or the
+   * users file has no user
+   */
+  public static CredentialStore fromSettings(Settings settings, File configDir) {
+    List<User> users = new ArrayList<User>();
+    for (Map.Entry<String, Settings> entry : settings.getGroups("http.basic.users.").entrySet()) {
+      String hash = entry.getValue().get("password_hash");
+      String password = entry.getValue().get("password");
+      if (hash != null) {
+        users.add(User.withPasswordHash(entry.getKey(), PasswordHash.parse(hash)));
+      } else if (password != null && !password.isEmpty()) {
+        users.add(User.withPassword(entry.getKey(), password));
+      } else {
+        throw new IllegalArgumentException("user [" + entry.getKey() + "] has neither password nor password_hash");
+      }
+    }
+    String usersFile = settings.get("http.basic.users_file");
+    if (usersFile != null) {
+      File file = new File(usersFile);
+      if (!file.isAbsolute()) {
+        file = new File(configDir, usersFile);
+      }
+      List<User> fileUsers = readUsersFile(file);
+      if (fileUsers.isEmpty()) {
+        // never fall back to the default credentials because of a broken file
+        throw new IllegalArgumentException("users file " + file + " has no valid user");
+      }
+      users.addAll(fileUsers);
+    }
+    String user = settings.get("http.basic.user");
+    String password = settings.get("http.basic.password");
+    if (user != null || password != null || users.isEmpty()) {
+      users.add(User.withPassword(user != null ? user : "admin",
+            password != null ? password : "admin_pw"));
+    }
+    return new CredentialStore(users,
+        settings.getAsInt("http.basic.verified_cache.size", 1000));
+  }
+
+  /**
+   * Lines are in the form <code>name:password_hash</code>, empty lines and
+   * lines starting with # are ignored.
+   *
+   * @param file
+   * @return the users listed in the file
+   */
+  static List<User> readUsersFile(File file) {
+    List<User> users = new ArrayList<User>();
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+          String template = "ignoring malformed line in users file {}";
+          Loggers.getLogger(CredentialStore.class).warn(template, file);
+          continue;
+        }
+        users.add(User.withPasswordHash(line.substring(0, colon),
+              PasswordHash.parse(line.substring(colon + 1))));
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("unable to read users file " + file, e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          // ignored
+        }
+      }
+    }
+    return users;
+  }
+
+  /**
+   * @param name the given user name
+   * @param password the given password
+   * @return the authenticated user, or null if the credentials don't match
+   */
+  public User authenticate(String name, String password) {
+    byte[] credentials = utf8(name + ":" + password);
+    return authenticate(credentials, 0, credentials.length);
+  }
+
+  /**
+   * @param buffer holding the credentials as <code>user:password</code>
+   * @param offset of the credentials in the buffer
+   * @param length of the credentials
+   * @return the authenticated user, or null if the credentials don't match
+   */
+  public User authenticate(byte[] buffer, int offset, int length) {
+    return authenticate(buffer, offset, length, null);
+  }
+
+  /**
+   * @param buffer holding the credentials as <code>user:password</code>
+   * @param offset of the credentials in the buffer
+   * @param length of the credentials
+   * @param gate asked before a password hash is verified, null to always
+   * verify it
+   * @return the authenticated user, or null if the credentials don't match
+   * or the gate held the verification back
+   */
+  public User authenticate(byte[] buffer, int offset, int length, HashGate gate) {
+    int colon = -1;
+    for (int i = offset; i < offset + length; i++) {
+      if (buffer[i] == ':') {
+        colon = i;
+        break;
+      }
+    }
+    if (colon < 0) {
+      return null;
+    }
+    User user = find(buffer, offset, colon - offset);
+    if (user == null) {
+      return null;
+    }
+    int passwordOffset = colon + 1;
+    int passwordLength = offset + length - passwordOffset;
+    if (!user.isHashed()) {
+      return user.matches(buffer, passwordOffset, passwordLength) ? user : null;
+    }
+    byte[] digest = digest(buffer, offset, length);
+    if (verified.contains(digest)) {
+      return user;
+    }
+    if (gate != null && !gate.tryVerify()) {
+      return null;
+    }
+    if (user.verify(new String(buffer, passwordOffset, passwordLength, UTF8))) {
+      verified.add(digest);
+      return user;
+    }
+    return null;
+  }
+
+  private User find(byte[] buffer, int offset, int length) {
+    for (int i = hash(buffer, offset, length) & mask; table[i] != null; i = (i + 1) & mask) {
+      if (table[i].nameEquals(buffer, offset, length)) {
+        return table[i];
+      }
+    }
+    return null;
+  }
+
+  private static int hash(byte[] buffer, int offset, int length) {
+    int h = 1;
+    for (int i = offset; i < offset + length; i++) {
+      h = 31 * h + buffer[i];
+    }
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @param name
+   * @return true iff a user has the name
+   */
+  public boolean contains(String name) {
+    return users.containsKey(name);
+  }
+
+  /**
+   * @param name
+   * @return the user of the name, null if there is none
+   */
+  public User get(String name) {
+    return users.get(name);
+  }
+
+  /**
+   * @return the number of configured users
+   */
+  public int size() {
+    return users.size();
+  }
+
+  /**
+   * @return the SHA-256 digest of the credentials, in a buffer owned by the
+   * calling thread
+   */
+  private static byte[] digest(byte[] buffer, int offset, int length) {
+    MessageDigest sha256 = SHA256.get();
+    byte[] digest = DIGEST.get();
+    sha256.update(buffer, offset, length);
+    try {
+      sha256.digest(digest, 0, digest.length);
+    } catch (DigestException e) {
+      throw new IllegalStateException(e);
+    }
+    return digest;
+  }
+
+  static byte[] utf8(String s) {
+    return s.getBytes(UTF8);
+  }
+
+  /**
+   * lists the user names only
+   */
+  @Override
+  public String toString() {
+    return users.keySet().toString();
+  }
+}
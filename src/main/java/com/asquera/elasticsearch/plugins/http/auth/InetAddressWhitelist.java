@@ -1,28 +1,79 @@
 package com.asquera.elasticsearch.plugins.http.auth;
 import org.elasticsearch.common.logging.Loggers;
 
+import org.elasticsearch.common.unit.TimeValue;
+
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.Iterator;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
 /**
  *
  * Wraps the configured whitelisted ips.
- * It uses a set of {@link InetAddress} internally.
  * <p>
- *
+ * Entries are either single ips, host names resolved with
+ * {@link InetAddress#getByName(String)}, or CIDR ranges such as
+ * <code>10.0.0.0/8</code> or <code>fd00::/8</code>. Single addresses are
+ * kept in an {@link IpAddressSet} and ranges in an {@link IpPrefixTrie}, one
+ * of each per address family.
+ * <p>
+ * Host names are resolved in parallel, with a timeout, and can be resolved
+ * again in the background with {@link #resolve(Executor, TimeValue)}. The
+ * resolved addresses are swapped in atomically, so lookups never wait for
+ * DNS.
+ * <p>
+ * Candidates given as strings, such as the client ip of the X-Forwarded-For
+ * header, are parsed straight into primitives by {@link IpAddresses}, so
+ * every textual form of an IPv6 address matches.
  *
  *
  * @author Ernesto Miguez (ernesto.miguez@asquera.de)
  */
 
 public class InetAddressWhitelist {
-  private Set<InetAddress> whitelist;
+  private static final ThreadLocal<long[]> IPV6 = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[2];
+    }
+  };
+
+  private static final TimeValue DEFAULT_RESOLVE_TIMEOUT = TimeValue.timeValueSeconds(5);
+  /**
+   * resolves every host name in its own short lived daemon thread
+   */
+  private static final Executor THREAD_PER_HOST = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      Thread thread = new Thread(command, "http-basic-whitelist-resolver");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  };
+
+  private final Set<InetAddress> whitelist;
+  private final List<String> hostnames = new ArrayList<String>();
+  private final List<String> ranges = new ArrayList<String>();
+  private final IpPrefixTrie ipv4Ranges = new IpPrefixTrie();
+  private final IpPrefixTrie ipv6Ranges = new IpPrefixTrie();
+  /**
+   * last successful resolution of each host name, guarded by this
+   */
+  private final Map<String, Set<InetAddress>> resolved = new LinkedHashMap<String, Set<InetAddress>>();
+  private volatile Addresses addresses;
   /**
    *
    *
@@ -30,16 +81,104 @@ public class InetAddressWhitelist {
    */
   public InetAddressWhitelist(Set<InetAddress> whitelist) {
     this.whitelist = whitelist;
+    this.addresses = new Addresses(whitelist, resolved.values());
   }
 
   /**
    *
+   * Host names are resolved in parallel, each one in its own thread, giving
+   * up after 5 seconds.
    *
    * @param sWhitelist
    *
    */
   public InetAddressWhitelist(String[] sWhitelist) {
-    this(toInetAddress(Arrays.asList(sWhitelist)));
+    this(sWhitelist, THREAD_PER_HOST, DEFAULT_RESOLVE_TIMEOUT);
+  }
+
+  /**
+   *
+   *
+   * @param sWhitelist ips, host names or CIDR ranges
+   * @param resolver runs the host name resolutions
+   * @param timeout time to wait for all host names to be resolved
+   */
+  public InetAddressWhitelist(String[] sWhitelist, Executor resolver, TimeValue timeout) {
+    this.whitelist = new HashSet<InetAddress>();
+    for (String entry : sWhitelist) {
+      if (entry != null && entry.indexOf('/') >= 0) {
+        addRange(entry);
+      } else if (entry != null && isLiteral(entry)) {
+        try {
+          // literals are parsed by getByName, without any lookup
+          whitelist.add(InetAddress.getByName(entry));
+        } catch (UnknownHostException e) {
+          throw new IllegalStateException(e);
+        }
+      } else {
+        hostnames.add(entry);
+      }
+    }
+    this.addresses = new Addresses(whitelist, resolved.values());
+    resolve(resolver, timeout);
+  }
+
+  /**
+   * @return true iff some entries are host names that need to be resolved
+   */
+  public boolean hasHostnames() {
+    return !hostnames.isEmpty();
+  }
+
+  /**
+   *
+   * (Re-)resolves the configured host names in parallel and atomically swaps
+   * in the resulting addresses. Lookups in progress keep using the previous
+   * addresses and never wait for DNS.
+   * <p>
+   * A host name that cannot be resolved, or not within the timeout, keeps
+   * the addresses of its last successful resolution, if any. It is tried
+   * again on the next call.
+   *
+   * @param resolver runs the host name resolutions
+   * @param timeout time to wait for all host names to be resolved
+   */
+  public synchronized void resolve(Executor resolver, TimeValue timeout) {
+    if (hostnames.isEmpty()) {
+      return;
+    }
+    List<FutureTask<InetAddress[]>> tasks = new ArrayList<FutureTask<InetAddress[]>>();
+    for (final String hostname : hostnames) {
+      FutureTask<InetAddress[]> task = new FutureTask<InetAddress[]>(new Callable<InetAddress[]>() {
+        @Override
+        public InetAddress[] call() throws UnknownHostException {
+          return InetAddress.getAllByName(hostname);
+        }
+      });
+      tasks.add(task);
+      resolver.execute(task);
+    }
+    long deadline = System.nanoTime() + timeout.nanos();
+    for (int i = 0; i < tasks.size(); i++) {
+      String hostname = hostnames.get(i);
+      try {
+        InetAddress[] result = tasks.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        resolved.put(hostname, new HashSet<InetAddress>(Arrays.asList(result)));
+      } catch (ExecutionException e) {
+        String template = "a host set in the whitelist settings raised an " +
+          "UnknownHostException: {}, retrying later";
+        Loggers.getLogger(InetAddressWhitelist.class).info(template, e.getCause().getMessage());
+      } catch (TimeoutException e) {
+        tasks.get(i).cancel(true);
+        String template = "a host set in the whitelist settings could not be " +
+          "resolved within {}: {}, retrying later";
+        Loggers.getLogger(InetAddressWhitelist.class).info(template, timeout, hostname);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    this.addresses = new Addresses(whitelist, resolved.values());
   }
 
   /**
@@ -51,66 +190,135 @@ public class InetAddressWhitelist {
    * @return if the ip is included in the whitelist
    */
   public Boolean contains(InetAddress candidate) {
-    return this.whitelist.contains(candidate);
+    byte[] bytes = candidate.getAddress();
+    long high = IpPrefixTrie.high(bytes);
+    long low = IpPrefixTrie.low(bytes);
+    return bytes.length == 4 ? containsIpv4(high) : containsIpv6(high, low);
   }
 
   /**
    *
    * Checks the xForwardedFor defined client ip for inclusion.
-   * Since that ip comes in a String representation, it is checked against
-   * the String representation of the defined whitelist.
+   * Since that ip comes in a String representation, it is only matched when
+   * it is an ip literal, host names are never resolved.
    *
    * @param candidate
-   * @return if the ip is included in the String representation of the
-   * whitelist ips
+   * @return if the ip is included in the whitelist
    */
   public Boolean contains(String candidate) {
-    return getStringWhitelist().contains(candidate);
+    return contains(candidate, 0, candidate.length());
   }
 
   /**
-   * @return set of the string representations of the whitelist
+   * Same as {@link #contains(String)} for a part of a string, without
+   * allocating.
+   *
+   * @param s
+   * @param from index of the first character of the candidate ip
+   * @param to index after the last character of the candidate ip
+   * @return if the ip is included in the whitelist
    */
-  Set<String> getStringWhitelist() {
-    Iterator<InetAddress> iterator = this.whitelist.iterator();
-    Set<String> set = new HashSet<String>();
-    while (iterator.hasNext()) {
-      InetAddress next = iterator.next();
-      set.add(next.getHostAddress());
+  public boolean contains(String s, int from, int to) {
+    if (IpAddresses.indexOfColon(s, from, to) < 0) {
+      long address = IpAddresses.parseIpv4(s, from, to);
+      return address >= 0 && containsIpv4(address << 32);
+    }
+    long[] address = IPV6.get();
+    if (!IpAddresses.parseIpv6(s, from, to, address)) {
+      return false;
     }
-    return set;
+    if (IpAddresses.isIpv4Mapped(address[0], address[1])) {
+      return containsIpv4(address[1] << 32);
+    }
+    return containsIpv6(address[0], address[1]);
+  }
+
+  private boolean containsIpv4(long high) {
+    return addresses.ipv4.contains(high, 0) || ipv4Ranges.contains(high, 0, 32);
+  }
+
+  private boolean containsIpv6(long high, long low) {
+    return addresses.ipv6.contains(high, low) || ipv6Ranges.contains(high, low, 128);
   }
 
   /**
-   * when an configured InetAddress is Unkown or Invalid it is dropped from the
-   * whitelist
-   *
-   * @param  ips a list of string ips
-   * @return a list of {@link InetAddress} objects
+   * @return true iff the entry is an IPv4 or IPv6 literal
+   */
+  private static boolean isLiteral(String entry) {
+    if (IpAddresses.indexOfColon(entry, 0, entry.length()) < 0) {
+      return IpAddresses.parseIpv4(entry, 0, entry.length()) >= 0;
+    }
+    return IpAddresses.parseIpv6(entry, 0, entry.length(), new long[2]);
+  }
+
+  /**
+   * adds a range in the form address/prefix-length, logging and dropping it
+   * when invalid
    *
+   * @param range
    */
-  static Set<InetAddress> toInetAddress(List<String> ips) {
-    List<InetAddress> listIps = new ArrayList<InetAddress>();
-    Iterator<String> iterator = ips.iterator();
-    while (iterator.hasNext()) {
-      String next = iterator.next();
-      try {
-        listIps.add(InetAddress.getByName(next));
-      } catch (UnknownHostException e) {
-        String template = "an ip set in the whitelist settings raised an " +
-          "UnknownHostException: {}, dropping it";
-        Loggers.getLogger(InetAddressWhitelist.class).info(template, e.getMessage());
+  private void addRange(String range) {
+    String trimmed = range.trim();
+    int slash = trimmed.indexOf('/');
+    try {
+      int prefixLength = Integer.parseInt(trimmed.substring(slash + 1));
+      if (IpAddresses.indexOfColon(trimmed, 0, slash) < 0) {
+        long address = IpAddresses.parseIpv4(trimmed, 0, slash);
+        if (address >= 0 && prefixLength >= 0 && prefixLength <= 32) {
+          ipv4Ranges.add(address << 32, 0, prefixLength);
+          ranges.add(range);
+          return;
+        }
+      } else {
+        long[] address = new long[2];
+        if (IpAddresses.parseIpv6(trimmed, 0, slash, address)
+            && prefixLength >= 0 && prefixLength <= 128) {
+          ipv6Ranges.add(address[0], address[1], prefixLength);
+          ranges.add(range);
+          return;
+        }
+      }
+    } catch (NumberFormatException e) {
+      // logged below
+    }
+    String template = "an ip range set in the whitelist settings is invalid: {}, dropping it";
+    Loggers.getLogger(InetAddressWhitelist.class).info(template, range);
+  }
+
+  /**
+   * Immutable snapshot of the single whitelisted addresses, swapped as a
+   * whole when host names are resolved again.
+   */
+  private static class Addresses {
+    private final IpAddressSet ipv4 = new IpAddressSet();
+    private final IpAddressSet ipv6 = new IpAddressSet();
+
+    Addresses(Set<InetAddress> literals, Collection<Set<InetAddress>> resolved) {
+      add(literals);
+      for (Set<InetAddress> addresses : resolved) {
+        add(addresses);
+      }
+    }
+
+    private void add(Set<InetAddress> addresses) {
+      for (InetAddress address : addresses) {
+        byte[] bytes = address.getAddress();
+        (bytes.length == 4 ? ipv4 : ipv6).add(IpPrefixTrie.high(bytes), IpPrefixTrie.low(bytes));
       }
     }
-    return new HashSet<InetAddress>(listIps);
   }
 
   /**
    * delegate method
    */
   @Override
-  public String toString() {
-    return whitelist.toString();
+  public synchronized String toString() {
+    List<Object> entries = new ArrayList<Object>(whitelist);
+    for (String hostname : hostnames) {
+      entries.add(resolved.containsKey(hostname) ? resolved.get(hostname) : hostname + " (unresolved)");
+    }
+    entries.addAll(ranges);
+    return entries.toString();
   }
 
 }
@@ -0,0 +1,87 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+/**
+ *
+ * Open addressing set of ip addresses, each held as two longs (see
+ * {@link IpAddresses}).
+ * <p>
+ * It is filled once when the whitelist is built and only read afterwards,
+ * so a lookup neither locks nor allocates.
+ */
+public class IpAddressSet {
+  private long[] keys;
+  private boolean[] used;
+  private int size;
+
+  public IpAddressSet() {
+    this(8);
+  }
+
+  /**
+   * @param expected number of addresses to be added
+   */
+  public IpAddressSet(int expected) {
+    int capacity = Integer.highestOneBit(Math.max(4, expected)) << 2;
+    this.keys = new long[capacity * 2];
+    this.used = new boolean[capacity];
+  }
+
+  /**
+   * @param high first 64 bits of the address
+   * @param low last 64 bits of the address
+   * @return true iff the address was not contained yet
+   */
+  public boolean add(long high, long low) {
+    if ((size + 1) * 2 > used.length) {
+      rehash();
+    }
+    int mask = used.length - 1;
+    int i = IpAddresses.hash(high, low) & mask;
+    while (used[i]) {
+      if (keys[2 * i] == high && keys[2 * i + 1] == low) {
+        return false;
+      }
+      i = (i + 1) & mask;
+    }
+    used[i] = true;
+    keys[2 * i] = high;
+    keys[2 * i + 1] = low;
+    size++;
+    return true;
+  }
+
+  /**
+   * @param high first 64 bits of the address
+   * @param low last 64 bits of the address
+   * @return true iff the address is contained
+   */
+  public boolean contains(long high, long low) {
+    int mask = used.length - 1;
+    for (int i = IpAddresses.hash(high, low) & mask; used[i]; i = (i + 1) & mask) {
+      if (keys[2 * i] == high && keys[2 * i + 1] == low) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the number of addresses contained
+   */
+  public int size() {
+    return size;
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    boolean[] oldUsed = used;
+    keys = new long[oldKeys.length * 2];
+    used = new boolean[oldUsed.length * 2];
+    size = 0;
+    for (int i = 0; i < oldUsed.length; i++) {
+      if (oldUsed[i]) {
+        add(oldKeys[2 * i], oldKeys[2 * i + 1]);
+      }
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+/**
+ *
+ * Parses textual ip addresses into primitives, without going through
+ * {@link java.net.InetAddress} and without allocating.
+ * <p>
+ * An IPv4 address is parsed into an unsigned int held in a long, an IPv6
+ * address into two longs: its first and its last 64 bits. Only literals are
+ * accepted, host names are never resolved.
+ */
+public final class IpAddresses {
+  private static final long MAPPED_PREFIX = 0xffffL << 32;
+
+  private IpAddresses() {
+  }
+
+  /**
+   * @param s
+   * @param from index of the first character of the address
+   * @param to index after the last character of the address
+   * @return the address as an unsigned 32 bits value, or -1 if the range is
+   * not a dotted quad IPv4 literal
+   */
+  public static long parseIpv4(String s, int from, int to) {
+    long address = 0;
+    int octets = 0;
+    int i = from;
+    while (octets < 4) {
+      int value = 0;
+      int digits = 0;
+      while (i < to && digits < 4) {
+        char c = s.charAt(i);
+        if (c < '0' || c > '9') {
+          break;
+        }
+        value = value * 10 + (c - '0');
+        digits++;
+        i++;
+      }
+      if (digits == 0 || digits > 3 || value > 255) {
+        return -1;
+      }
+      address = (address << 8) | value;
+      octets++;
+      if (octets < 4) {
+        if (i >= to || s.charAt(i) != '.') {
+          return -1;
+        }
+        i++;
+      }
+    }
+    return i == to ? address : -1;
+  }
+
+  /**
+   * Parses an IPv6 literal, including <code>::</code> compression and a
+   * trailing dotted quad.
+   *
+   * @param s
+   * @param from index of the first character of the address
+   * @param to index after the last character of the address
+   * @param out receives the first 64 bits in out[0] and the last 64 bits in
+   * out[1]
+   * @return true iff the range is an IPv6 literal
+   */
+  public static boolean parseIpv6(String s, int from, int to, long[] out) {
+    out[0] = 0;
+    out[1] = 0;
+    if (to - from < 2) {
+      return false;
+    }
+    int compressed = indexOf(s, "::", from, to);
+    if (compressed < 0) {
+      return parseGroups(s, from, to, 0, true, out) == 8;
+    }
+    if (indexOf(s, "::", compressed + 1, to) >= 0) {
+      return false;
+    }
+    int head = compressed == from ? 0 : parseGroups(s, from, compressed, 0, false, out);
+    if (head < 0) {
+      return false;
+    }
+    int tailStart = compressed + 2;
+    if (tailStart == to) {
+      return head <= 7;
+    }
+    int tail = countGroups(s, tailStart, to);
+    if (head + tail > 7) {
+      return false;
+    }
+    return parseGroups(s, tailStart, to, 8 - tail, true, out) == tail;
+  }
+
+  /**
+   * Parses an IPv4 or IPv6 literal into a single form: IPv4 addresses are
+   * given as IPv4 mapped IPv6 addresses (::ffff:a.b.c.d), so each address
+   * has exactly one representation.
+   *
+   * @param s
+   * @param from index of the first character of the address
+   * @param to index after the last character of the address
+   * @param out receives the first 64 bits in out[0] and the last 64 bits in
+   * out[1]
+   * @return true iff the range is an ip literal
+   */
+  public static boolean parse(String s, int from, int to, long[] out) {
+    if (indexOfColon(s, from, to) < 0) {
+      long ipv4 = parseIpv4(s, from, to);
+      if (ipv4 < 0) {
+        return false;
+      }
+      out[0] = 0;
+      out[1] = MAPPED_PREFIX | ipv4;
+      return true;
+    }
+    return parseIpv6(s, from, to, out);
+  }
+
+  /**
+   * Same as {@link #parse(String, int, int, long[])} for an address in
+   * network byte order.
+   *
+   * @param address 4 or 16 bytes
+   * @param out receives the first 64 bits in out[0] and the last 64 bits in
+   * out[1]
+   */
+  public static void fromBytes(byte[] address, long[] out) {
+    if (address.length == 4) {
+      out[0] = 0;
+      out[1] = MAPPED_PREFIX | (IpPrefixTrie.high(address) >>> 32);
+    } else {
+      out[0] = IpPrefixTrie.high(address);
+      out[1] = IpPrefixTrie.low(address);
+    }
+  }
+
+  /**
+   * @return true iff the IPv6 address is an IPv4 mapped one (::ffff:a.b.c.d)
+   */
+  public static boolean isIpv4Mapped(long high, long low) {
+    return high == 0 && (low >>> 32) == 0xffffL;
+  }
+
+  /**
+   * Formats an address given as by {@link #parse(String, int, int, long[])},
+   * IPv4 mapped addresses as dotted quads.
+   *
+   * @param high first 64 bits of the address
+   * @param low last 64 bits of the address
+   * @return the textual form of the address
+   */
+  public static String format(long high, long low) {
+    if (isIpv4Mapped(high, low)) {
+      return ((low >>> 24) & 0xff) + "." + ((low >>> 16) & 0xff) + "."
+          + ((low >>> 8) & 0xff) + "." + (low & 0xff);
+    }
+    StringBuilder builder = new StringBuilder(39);
+    for (int group = 0; group < 8; group++) {
+      long half = group < 4 ? high : low;
+      if (group > 0) {
+        builder.append(':');
+      }
+      builder.append(Long.toHexString((half >>> (48 - 16 * (group & 3))) & 0xffff));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * @return a well mixed hash of the address
+   */
+  static int hash(long high, long low) {
+    long h = high * 0x9E3779B97F4A7C15L ^ low;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  /**
+   * @return the index of the ':' in the range, or -1 if there is none
+   */
+  static int indexOfColon(String s, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (s.charAt(i) == ':') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(String s, String needle, int from, int to) {
+    int i = s.indexOf(needle, from);
+    return i >= 0 && i + needle.length() <= to ? i : -1;
+  }
+
+  private static int countGroups(String s, int from, int to) {
+    int groups = 1;
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      if (c == ':') {
+        groups++;
+      } else if (c == '.') {
+        // a trailing dotted quad holds two groups
+        return groups + 1;
+      }
+    }
+    return groups;
+  }
+
+  /**
+   * @param trailingIpv4 whether the last group may be a dotted quad
+   * @return the number of groups parsed, or -1 if a group is malformed
+   */
+  private static int parseGroups(String s, int from, int to, int first,
+      boolean trailingIpv4, long[] out) {
+    int group = first;
+    int start = from;
+    while (start <= to) {
+      int end = indexOfColon(s, start, to);
+      if (end < 0) {
+        end = to;
+      }
+      if (end == start || group > 7) {
+        return -1;
+      }
+      if (end == to && s.indexOf('.', start) >= 0 && s.indexOf('.', start) < to) {
+        long ipv4 = parseIpv4(s, start, end);
+        if (!trailingIpv4 || ipv4 < 0 || group > 6) {
+          return -1;
+        }
+        setGroup(out, group++, (int) (ipv4 >>> 16));
+        setGroup(out, group++, (int) (ipv4 & 0xffff));
+      } else {
+        int value = parseHexGroup(s, start, end);
+        if (value < 0) {
+          return -1;
+        }
+        setGroup(out, group++, value);
+      }
+      start = end + 1;
+    }
+    return group - first;
+  }
+
+  private static int parseHexGroup(String s, int from, int to) {
+    if (to - from > 4) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = from; i < to; i++) {
+      int digit = Character.digit(s.charAt(i), 16);
+      if (digit < 0) {
+        return -1;
+      }
+      value = (value << 4) | digit;
+    }
+    return value;
+  }
+
+  private static void setGroup(long[] out, int group, int value) {
+    int shift = (3 - (group & 3)) * 16;
+    out[group >> 2] |= ((long) value) << shift;
+  }
+}
@@ -0,0 +1,125 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ *
+ * Binary trie of ip address prefixes (CIDR ranges).
+ * <p>
+ * Each node consumes one bit of the address, most significant first, so
+ * checking an address walks at most 32 (IPv4) or 128 (IPv6) nodes however
+ * many ranges were added. Nodes are kept in flat int arrays rather than as
+ * objects.
+ * <p>
+ * Addresses are given as two longs: the first 64 bits and the last 64 bits.
+ * An IPv4 address only uses the 32 most significant bits of the first long.
+ */
+public class IpPrefixTrie {
+  private static final int ROOT = 0;
+  private int[] zero = new int[16];
+  private int[] one = new int[16];
+  private final BitSet terminal = new BitSet();
+  private int nodes = 1;
+
+  /**
+   * @param high first 64 bits of the address
+   * @param low last 64 bits of the address
+   * @param prefixLength number of leading bits of the range
+   */
+  public void add(long high, long low, int prefixLength) {
+    int node = ROOT;
+    for (int i = 0; i < prefixLength; i++) {
+      if (terminal.get(node)) {
+        // already covered by a shorter prefix
+        return;
+      }
+      int[] children = bit(high, low, i) == 0 ? zero : one;
+      if (children[node] == ROOT) {
+        children = grow(children);
+        children[node] = nodes++;
+      }
+      node = children[node];
+    }
+    terminal.set(node);
+  }
+
+  /**
+   * @param high first 64 bits of the address
+   * @param low last 64 bits of the address
+   * @param bits length of the address, 32 or 128
+   * @return true iff the address is in any of the ranges
+   */
+  public boolean contains(long high, long low, int bits) {
+    int node = ROOT;
+    for (int i = 0; i < bits; i++) {
+      if (terminal.get(node)) {
+        return true;
+      }
+      node = (bit(high, low, i) == 0 ? zero : one)[node];
+      if (node == ROOT) {
+        return false;
+      }
+    }
+    return terminal.get(node);
+  }
+
+  /**
+   * @param address an ip address in network byte order, 4 or 16 bytes
+   * @param prefixLength number of leading bits of the range
+   */
+  public void add(byte[] address, int prefixLength) {
+    add(high(address), low(address), prefixLength);
+  }
+
+  /**
+   * @param address an ip address in network byte order, 4 or 16 bytes
+   * @return true iff the address is in any of the ranges
+   */
+  public boolean contains(byte[] address) {
+    return contains(high(address), low(address), address.length * 8);
+  }
+
+  /**
+   * @return true iff no range was added
+   */
+  public boolean isEmpty() {
+    return nodes == 1 && !terminal.get(ROOT);
+  }
+
+  /**
+   * @return the first 64 bits of the address, left aligned
+   */
+  static long high(byte[] address) {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | (i < address.length ? address[i] & 0xff : 0);
+    }
+    return value;
+  }
+
+  /**
+   * @return the last 64 bits of a 16 bytes address, 0 otherwise
+   */
+  static long low(byte[] address) {
+    long value = 0;
+    for (int i = 8; i < 16; i++) {
+      value = (value << 8) | (i < address.length ? address[i] & 0xff : 0);
+    }
+    return value;
+  }
+
+  private static int bit(long high, long low, int i) {
+    return (int) (i < 64 ? high >>> (63 - i) : low >>> (127 - i)) & 1;
+  }
+
+  private int[] grow(int[] children) {
+    if (nodes < zero.length) {
+      return children;
+    }
+    boolean isZero = children == zero;
+    zero = Arrays.copyOf(zero, zero.length * 2);
+    one = Arrays.copyOf(one, one.length * 2);
+    return isZero ? zero : one;
+  }
+}
@@ -0,0 +1,195 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+/**
+ *
+ * Per source ip budget of authentication failures.
+ * <p>
+ * Every ip has a token bucket (see {@link RateLimit}) from which each
+ * failure takes a token. An ip whose bucket is empty is throttled until a
+ * token is refilled.
+ * <p>
+ * Buckets are kept in a fixed number of stripes, each one an open
+ * addressing table of primitive arrays behind its own lock, allocated
+ * once: the memory used never grows, however many ips fail. A bucket full
+ * again is forgotten when its stripe needs room. When a stripe is full of
+ * non full buckets, the fullest one is forgotten.
+ */
+public class IpThrottle {
+  private static final int STRIPES = 64;
+
+  private final RateLimit limit;
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  /**
+   * @param limit the failure budget of each ip
+   * @param maxIps maximum number of ips tracked at once
+   */
+  public IpThrottle(RateLimit limit, int maxIps) {
+    this.limit = limit;
+    int perStripe = Math.max(1, (maxIps + STRIPES - 1) / STRIPES);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(perStripe);
+    }
+  }
+
+  /**
+   * @param high first 64 bits of the ip, see {@link IpAddresses#parse(String, int, int, long[])}
+   * @param low last 64 bits of the ip
+   * @param now current time in nanoseconds
+   * @return true iff the ip has no failure left in its budget
+   */
+  public boolean isThrottled(long high, long low, long now) {
+    int hash = IpAddresses.hash(high, low);
+    long tat = stripes[hash & (STRIPES - 1)].get(high, low, hash);
+    return tat != Stripe.ABSENT && limit.isEmpty(tat, now);
+  }
+
+  /**
+   * Takes a failure from the budget of the ip.
+   *
+   * @param high first 64 bits of the ip
+   * @param low last 64 bits of the ip
+   * @param now current time in nanoseconds
+   * @return true iff the ip has now spent its budget
+   */
+  public boolean recordFailure(long high, long low, long now) {
+    int hash = IpAddresses.hash(high, low);
+    return limit.isEmpty(stripes[hash & (STRIPES - 1)].take(high, low, hash, limit, now), now);
+  }
+
+  /**
+   * @return the number of ips tracked
+   */
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  public RateLimit getLimit() {
+    return limit;
+  }
+
+  @Override
+  public String toString() {
+    return "ip throttle: " + limit + " failures, " + size() + " ips tracked";
+  }
+
+  /**
+   * Open addressing table from ip to theoretical arrival time
+   */
+  private static class Stripe {
+    static final long ABSENT = Long.MIN_VALUE;
+
+    private final int maxSize;
+    private final long[] highs;
+    private final long[] lows;
+    private final long[] tats;
+    private final boolean[] used;
+    private final int mask;
+    private int size;
+
+    Stripe(int maxSize) {
+      this.maxSize = maxSize;
+      int capacity = Integer.highestOneBit(Math.max(2, maxSize) * 2 - 1) << 1;
+      this.highs = new long[capacity];
+      this.lows = new long[capacity];
+      this.tats = new long[capacity];
+      this.used = new boolean[capacity];
+      this.mask = capacity - 1;
+    }
+
+    synchronized int size() {
+      return size;
+    }
+
+    synchronized long get(long high, long low, int hash) {
+      int i = find(high, low, hash);
+      return used[i] ? tats[i] : ABSENT;
+    }
+
+    /**
+     * @return the new theoretical arrival time of the ip
+     */
+    synchronized long take(long high, long low, int hash, RateLimit limit, long now) {
+      int i = find(high, low, hash);
+      if (used[i]) {
+        return tats[i] = limit.take(tats[i], now);
+      }
+      if (size >= maxSize) {
+        evict(limit, now);
+        i = find(high, low, hash);
+      }
+      used[i] = true;
+      highs[i] = high;
+      lows[i] = low;
+      tats[i] = limit.take(now, now);
+      size++;
+      return tats[i];
+    }
+
+    /**
+     * @return the slot of the ip, or the free slot it would go to
+     */
+    private int find(long high, long low, int hash) {
+      // the low bits of the hash pick the stripe
+      int i = (hash >>> 6) & mask;
+      while (used[i] && (highs[i] != high || lows[i] != low)) {
+        i = (i + 1) & mask;
+      }
+      return i;
+    }
+
+    /**
+     * forgets the full buckets, or the fullest one if none is full
+     */
+    private void evict(RateLimit limit, long now) {
+      int fullest = -1;
+      for (int i = 0; i <= mask; i++) {
+        if (used[i] && (fullest < 0 || tats[i] - tats[fullest] < 0)) {
+          fullest = i;
+        }
+      }
+      boolean anyFull = fullest >= 0 && limit.isFull(tats[fullest], now);
+      int i = 0;
+      while (i <= mask) {
+        if (used[i] && (anyFull ? limit.isFull(tats[i], now) : i == fullest)) {
+          remove(i);
+          if (!anyFull) {
+            return;
+          }
+          // the slot now holds a shifted entry, check it again
+        } else {
+          i++;
+        }
+      }
+    }
+
+    /**
+     * removes the entry of the slot, shifting back the entries of its probe
+     * sequence
+     */
+    private void remove(int slot) {
+      used[slot] = false;
+      size--;
+      int hole = slot;
+      int i = (slot + 1) & mask;
+      while (used[i]) {
+        int home = (IpAddresses.hash(highs[i], lows[i]) >>> 6) & mask;
+        // move the entry into the hole unless its home lies cyclically in (hole, i]
+        boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+        if (movable) {
+          highs[hole] = highs[i];
+          lows[hole] = lows[i];
+          tats[hole] = tats[i];
+          used[hole] = true;
+          used[i] = false;
+          hole = i;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+  }
+}
@@ -0,0 +1,502 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * Verifies the JSON web tokens of an SSO, sent as
+ * <code>Authorization: Bearer &lt;token&gt;</code>.
+ * <p>
+ * Tokens must be signed with HS256 or RS256 by one of the keys of a local
+ * JWKS file, the kid of the token picking the key, and carry an
+ * <code>exp</code>. Their <code>nbf</code>, and their <code>aud</code> and
+ * <code>iss</code> when configured, are checked as well. The principal of a
+ * token is one of its claims, <code>sub</code> by default, prefixed with
+ * {@link #PRINCIPAL_PREFIX}: basic auth user names can't hold a colon, so
+ * a token never authenticates as a basic auth user, nor as an admin
+ * meant to be one.
+ * <p>
+ * A verified token is cached by its SHA-256 digest until it expires, so
+ * its signature is only checked once: the following requests cost a digest
+ * and a cache lookup. The JWKS file is read again when it changes, which
+ * empties the cache.
+ */
+public class JwtVerifier {
+  static final String SCHEME = "Bearer ";
+  private static final String PREFIX = "http.basic.jwt.";
+  /**
+   * namespace of the principals of the tokens
+   */
+  public static final String PRINCIPAL_PREFIX = "jwt:";
+  /**
+   * longer tokens are refused without being parsed
+   */
+  static final int MAX_TOKEN_LENGTH = 8192;
+
+  private static final byte[] DECODE = new byte[128];
+  static {
+    Arrays.fill(DECODE, (byte) -1);
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    for (int i = 0; i < alphabet.length(); i++) {
+      DECODE[alphabet.charAt(i)] = (byte) i;
+    }
+  }
+
+  private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
+
+  private final File jwksFile;
+  /**
+   * empty when the audience is not checked
+   */
+  private final Set<String> audiences;
+  /**
+   * null when the issuer is not checked
+   */
+  private final String issuer;
+  private final String principalClaim;
+  private final long leewayMillis;
+  private final int cacheSize;
+  private volatile KeySet keys;
+
+  /**
+   * @param jwksFile the JWKS file of the keys
+   * @param audiences the audiences accepted, empty for any
+   * @param issuer the issuer accepted, null for any
+   * @param principalClaim the claim holding the principal
+   * @param leeway clock skew tolerated on exp and nbf
+   * @param cacheSize maximum number of verified tokens kept
+   * @throws IllegalArgumentException if the JWKS file cannot be read
+   */
+  public JwtVerifier(File jwksFile, Collection<String> audiences, String issuer, String principalClaim,
+      TimeValue leeway, int cacheSize) {
+    this.jwksFile = jwksFile;
+    this.audiences = Collections.unmodifiableSet(new HashSet<String>(audiences));
+    this.issuer = issuer;
+    this.principalClaim = principalClaim;
+    this.leewayMillis = leeway.millis();
+    this.cacheSize = cacheSize;
+    this.keys = load();
+  }
+
+  /**
+   * Reads http.basic.jwt.jwks_file, resolved against the config directory,
+   * .audience, .issuer, .principal_claim, .leeway and .cache.size.
+   *
+   * @param settings
+   * @param configDir
+   * @return the verifier, null if no JWKS file is configured
+   * @throws IllegalArgumentException if the JWKS file cannot be read
+   */
+  public static JwtVerifier fromSettings(Settings settings, File configDir) {
+    String path = settings.get(PREFIX + "jwks_file");
+    if (path == null) {
+      return null;
+    }
+    File file = new File(path);
+    if (!file.isAbsolute()) {
+      file = new File(configDir, path);
+    }
+    return new JwtVerifier(file,
+        Arrays.asList(settings.getAsArray(PREFIX + "audience")),
+        settings.get(PREFIX + "issuer"),
+        settings.get(PREFIX + "principal_claim", "sub"),
+        settings.getAsTime(PREFIX + "leeway", TimeValue.timeValueSeconds(30)),
+        settings.getAsInt(PREFIX + "cache.size", 1000));
+  }
+
+  /**
+   * @param authHeader the raw Authorization header, may be null
+   * @param nowMillis current time in milliseconds since the epoch
+   * @return the principal of the token, null if the header carries no valid
+   * token
+   */
+  public String authenticate(String authHeader, long nowMillis) {
+    if (authHeader == null || !authHeader.startsWith(SCHEME)
+        || authHeader.length() - SCHEME.length() > MAX_TOKEN_LENGTH) {
+      return null;
+    }
+    String token = authHeader.substring(SCHEME.length()).trim();
+    KeySet keys = this.keys;
+    String digest = digest(token);
+    Verified verified = keys.verified.getIfPresent(digest);
+    if (verified != null) {
+      if (nowMillis < verified.expiresMillis) {
+        return verified.principal;
+      }
+      keys.verified.invalidate(digest);
+      return null;
+    }
+    verified = verify(token, keys, nowMillis);
+    if (verified == null) {
+      return null;
+    }
+    keys.verified.put(digest, verified);
+    return verified.principal;
+  }
+
+  /**
+   * Reads the JWKS file again if it was modified since it was last read.
+   * The current keys are kept if it cannot be read.
+   *
+   * @return true iff the keys were replaced
+   */
+  public boolean reloadIfModified() {
+    if (jwksFile.lastModified() == keys.lastModified) {
+      return false;
+    }
+    try {
+      keys = load();
+      Loggers.getLogger(getClass()).info("reloaded {} keys from {}", keys.size, jwksFile);
+      return true;
+    } catch (IllegalArgumentException e) {
+      Loggers.getLogger(getClass()).error("keeping the current keys: {}", e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * @return the number of verified tokens cached
+   */
+  public long cachedTokens() {
+    return keys.verified.size();
+  }
+
+  @Override
+  public String toString() {
+    return "jwt bearer tokens: " + keys.size + " keys from " + jwksFile
+      + (audiences.isEmpty() ? "" : ", audience " + audiences)
+      + (issuer == null ? "" : ", issuer " + issuer)
+      + ", principal claim " + principalClaim;
+  }
+
+  /**
+   * @return the claims, null if the token is malformed, its signature
+   * invalid, or its claims not accepted
+   */
+  private Verified verify(String token, KeySet keys, long nowMillis) {
+    int headerEnd = token.indexOf('.');
+    int payloadEnd = headerEnd < 0 ? -1 : token.indexOf('.', headerEnd + 1);
+    if (payloadEnd < 0 || token.indexOf('.', payloadEnd + 1) >= 0) {
+      return null;
+    }
+    Map<String, Object> header = json(token, 0, headerEnd);
+    if (header == null || header.containsKey("crit")) {
+      return null;
+    }
+    Object alg = header.get("alg");
+    Object kid = header.get("kid");
+    Jwk key = kid == null ? keys.single : keys.byKid.get(kid.toString());
+    if (key == null || !key.accepts(alg)) {
+      return null;
+    }
+    byte[] signature = decode(token, payloadEnd + 1, token.length());
+    if (signature == null
+        || !key.verify(token.substring(0, payloadEnd).getBytes(CredentialStore.UTF8), signature)) {
+      return null;
+    }
+    return claims(json(token, headerEnd + 1, payloadEnd), nowMillis);
+  }
+
+  /**
+   * @return the principal and expiry of the claims, null if they are not
+   * accepted
+   */
+  private Verified claims(Map<String, Object> claims, long nowMillis) {
+    if (claims == null) {
+      return null;
+    }
+    Object exp = claims.get("exp");
+    if (!(exp instanceof Number) || ((Number) exp).longValue() * 1000 + leewayMillis <= nowMillis) {
+      return null;
+    }
+    Object nbf = claims.get("nbf");
+    if (nbf != null && (!(nbf instanceof Number) || ((Number) nbf).longValue() * 1000 - leewayMillis > nowMillis)) {
+      return null;
+    }
+    if (issuer != null && !issuer.equals(claims.get("iss"))) {
+      return null;
+    }
+    if (!audiences.isEmpty() && !hasAudience(claims.get("aud"))) {
+      return null;
+    }
+    Object principal = claims.get(principalClaim);
+    if (!(principal instanceof String) || ((String) principal).isEmpty()) {
+      return null;
+    }
+    return new Verified(PRINCIPAL_PREFIX + principal, ((Number) exp).longValue() * 1000 + leewayMillis);
+  }
+
+  private boolean hasAudience(Object aud) {
+    if (aud instanceof String) {
+      return audiences.contains(aud);
+    }
+    if (aud instanceof List) {
+      for (Object audience : (List<?>) aud) {
+        if (audiences.contains(audience)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private KeySet load() {
+    Map<String, Object> jwks;
+    long lastModified = jwksFile.lastModified();
+    Reader reader = null;
+    try {
+      reader = new InputStreamReader(new FileInputStream(jwksFile), CredentialStore.UTF8);
+      StringBuilder content = new StringBuilder();
+      char[] buffer = new char[4096];
+      for (int read = reader.read(buffer); read >= 0; read = reader.read(buffer)) {
+        content.append(buffer, 0, read);
+      }
+      jwks = parse(content.toString());
+    } catch (IOException e) {
+      throw new IllegalArgumentException("unable to read JWKS file " + jwksFile, e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          // ignored
+        }
+      }
+    }
+    Object list = jwks.get("keys");
+    if (!(list instanceof List)) {
+      throw new IllegalArgumentException("JWKS file " + jwksFile + " has no keys");
+    }
+    Map<String, Jwk> byKid = new HashMap<String, Jwk>();
+    Jwk single = null;
+    int count = 0;
+    for (Object entry : (List<?>) list) {
+      if (!(entry instanceof Map)) {
+        continue;
+      }
+      @SuppressWarnings("unchecked")
+      Jwk key = Jwk.parse((Map<String, Object>) entry);
+      if (key == null) {
+        continue;
+      }
+      count++;
+      single = key;
+      if (key.kid != null) {
+        byKid.put(key.kid, key);
+      }
+    }
+    // tokens without kid are only accepted when there is no choice
+    return new KeySet(byKid, count == 1 ? single : null, count, lastModified, cacheSize);
+  }
+
+  /**
+   * @return the json object, null if it is not one
+   */
+  private static Map<String, Object> json(String token, int from, int to) {
+    byte[] bytes = decode(token, from, to);
+    if (bytes == null) {
+      return null;
+    }
+    try {
+      return parse(new String(bytes, CredentialStore.UTF8));
+    } catch (IOException e) {
+      return null;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static Map<String, Object> parse(String json) throws IOException {
+    XContentParser parser = JsonXContent.jsonXContent.createParser(json);
+    try {
+      return parser.map();
+    } finally {
+      parser.close();
+    }
+  }
+
+  /**
+   * Decodes unpadded base64url.
+   *
+   * @return the decoded bytes, null if the range is not valid base64url
+   */
+  static byte[] decode(String s, int from, int to) {
+    if ((to - from) % 4 == 1) {
+      return null;
+    }
+    byte[] out = new byte[(to - from) * 3 / 4];
+    int length = 0;
+    int bits = 0;
+    int accumulated = 0;
+    for (int i = from; i < to; i++) {
+      char c = s.charAt(i);
+      int value = c < DECODE.length ? DECODE[c] : -1;
+      if (value < 0) {
+        return null;
+      }
+      accumulated = (accumulated << 6) | value;
+      bits += 6;
+      if (bits >= 8) {
+        bits -= 8;
+        out[length++] = (byte) (accumulated >> bits);
+      }
+    }
+    return length == out.length ? out : Arrays.copyOf(out, length);
+  }
+
+  /**
+   * @return the SHA-256 digest of the token, as the key of the cache
+   */
+  private static String digest(String token) {
+    byte[] digest = SHA256.get().digest(token.getBytes(CredentialStore.UTF8));
+    return new BigInteger(1, digest).toString(36);
+  }
+
+  /**
+   * The keys of a JWKS file and the tokens verified with them
+   */
+  private static class KeySet {
+    final Map<String, Jwk> byKid;
+    /**
+     * the key of the tokens without kid, null unless there is only one
+     */
+    final Jwk single;
+    final int size;
+    final long lastModified;
+    final Cache<String, Verified> verified;
+
+    KeySet(Map<String, Jwk> byKid, Jwk single, int size, long lastModified, int cacheSize) {
+      this.byKid = byKid;
+      this.single = single;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.verified = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+  }
+
+  /**
+   * A signing key of a JWKS file, HMAC for HS256 or RSA for RS256
+   */
+  private static class Jwk {
+    final String kid;
+    final byte[] secret;
+    final PublicKey publicKey;
+
+    private Jwk(String kid, byte[] secret, PublicKey publicKey) {
+      this.kid = kid;
+      this.secret = secret;
+      this.publicKey = publicKey;
+    }
+
+    /**
+     * @return the key, null if it is not a signing key of a supported type
+     * @throws IllegalArgumentException if the key is malformed
+     */
+    static Jwk parse(Map<String, Object> jwk) {
+      Object use = jwk.get("use");
+      if (use != null && !"sig".equals(use)) {
+        return null;
+      }
+      String kid = jwk.get("kid") == null ? null : jwk.get("kid").toString();
+      Object kty = jwk.get("kty");
+      if ("oct".equals(kty) && (jwk.get("alg") == null || "HS256".equals(jwk.get("alg")))) {
+        return new Jwk(kid, bytes(jwk, "k"), null);
+      }
+      if ("RSA".equals(kty) && (jwk.get("alg") == null || "RS256".equals(jwk.get("alg")))) {
+        try {
+          PublicKey key = KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(
+              new BigInteger(1, bytes(jwk, "n")), new BigInteger(1, bytes(jwk, "e"))));
+          return new Jwk(kid, null, key);
+        } catch (GeneralSecurityException e) {
+          throw new IllegalArgumentException("invalid RSA key [" + kid + "]", e);
+        }
+      }
+      return null;
+    }
+
+    private static byte[] bytes(Map<String, Object> jwk, String field) {
+      Object value = jwk.get(field);
+      byte[] bytes = value == null ? null : decode(value.toString(), 0, value.toString().length());
+      if (bytes == null || bytes.length == 0) {
+        throw new IllegalArgumentException("key [" + jwk.get("kid") + "] has no valid " + field);
+      }
+      return bytes;
+    }
+
+    /**
+     * @return true iff the key signs with the algorithm, HMAC keys never
+     * verify RS256 tokens and the other way round
+     */
+    boolean accepts(Object alg) {
+      return secret != null ? "HS256".equals(alg) : "RS256".equals(alg);
+    }
+
+    boolean verify(byte[] signed, byte[] signature) {
+      try {
+        if (secret != null) {
+          Mac mac = Mac.getInstance("HmacSHA256");
+          mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+          return MessageDigest.isEqual(mac.doFinal(signed), signature);
+        }
+        Signature rsa = Signature.getInstance("SHA256withRSA");
+        rsa.initVerify(publicKey);
+        rsa.update(signed);
+        return rsa.verify(signature);
+      } catch (GeneralSecurityException e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * The principal of a verified token and when it expires
+   */
+  private static class Verified {
+    final String principal;
+    final long expiresMillis;
+
+    Verified(String principal, long expiresMillis) {
+      this.principal = principal;
+      this.expiresMillis = expiresMillis;
+    }
+  }
+}
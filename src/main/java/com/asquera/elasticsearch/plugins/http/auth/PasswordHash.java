@@ -0,0 +1,109 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.common.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ *
+ * A salted PBKDF2 password hash.
+ * <p>
+ * The encoded form, as used in the settings and in the users file, is:
+ *
+ *     pbkdf2$iterations$base64(salt)$base64(hash)
+ *
+ * A hash for a new password can be generated with:
+ *
+ *     java -cp elasticsearch-http-basic.jar:elasticsearch.jar \
+ *       com.asquera.elasticsearch.plugins.http.auth.PasswordHash some_password
+ */
+public class PasswordHash {
+  static final String PREFIX = "pbkdf2";
+  static final int DEFAULT_ITERATIONS = 10000;
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+  private static final int SALT_LENGTH = 16;
+  private static final int HASH_LENGTH = 20;
+
+  private final int iterations;
+  private final byte[] salt;
+  private final byte[] hash;
+
+  PasswordHash(int iterations, byte[] salt, byte[] hash) {
+    this.iterations = iterations;
+    this.salt = salt;
+    this.hash = hash;
+  }
+
+  /**
+   * @param encoded a hash in the form pbkdf2$iterations$salt$hash
+   * @return the parsed hash
+   * @throws IllegalArgumentException if the hash is malformed
+   */
+  public static PasswordHash parse(String encoded) {
+    String[] parts = encoded.trim().split("\\$");
+    if (parts.length != 4 || !parts[0].equals(PREFIX)) {
+      throw new IllegalArgumentException("password hash must be in the form "
+          + PREFIX + "$iterations$salt$hash");
+    }
+    try {
+      return new PasswordHash(Integer.parseInt(parts[1]),
+          Base64.decode(parts[2]), Base64.decode(parts[3]));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("invalid base64 in password hash", e);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("invalid iteration count in password hash", e);
+    }
+  }
+
+  /**
+   * @param password
+   * @return a hash of the password with a random salt
+   */
+  public static PasswordHash create(String password) {
+    byte[] salt = new byte[SALT_LENGTH];
+    new SecureRandom().nextBytes(salt);
+    return new PasswordHash(DEFAULT_ITERATIONS, salt,
+        pbkdf2(password, salt, DEFAULT_ITERATIONS, HASH_LENGTH));
+  }
+
+  /**
+   * This is deliberately slow, see {@link CredentialStore} for how the
+   * result is cached.
+   *
+   * @param password the candidate password
+   * @return true iff the password matches the hash
+   */
+  public boolean verify(String password) {
+    return MessageDigest.isEqual(hash, pbkdf2(password, salt, iterations, hash.length));
+  }
+
+  private static byte[] pbkdf2(String password, byte[] salt, int iterations, int length) {
+    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, length * 8);
+    try {
+      return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("unable to compute " + ALGORITHM, e);
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return PREFIX + "$" + iterations + "$" + Base64.encodeBytes(salt) + "$"
+      + Base64.encodeBytes(hash);
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 1) {
+      System.err.println("usage: PasswordHash <password>");
+      System.exit(1);
+    }
+    System.out.println(create(args[0]));
+  }
+}
@@ -21,8 +21,15 @@ public class ProxyChain {
     this.proxyChain = proxyChain;
   }
 
+  /**
+   * @param proxyChain comma separated ips, whitespace around them is
+   * trimmed as in the parsed X-Forwarded-For header
+   */
   public ProxyChain(String proxyChain) {
-    this(new ArrayList<String>(Arrays.asList(proxyChain.split(","))));
+    this(new ArrayList<String>());
+    for (String ip : proxyChain.split(",")) {
+      this.proxyChain.add(ip.trim());
+    }
   }
 
 
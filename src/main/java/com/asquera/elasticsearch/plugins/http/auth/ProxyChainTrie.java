@@ -0,0 +1,79 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * The trusted proxy chains compiled into a trie of their ips in reverse
+ * order, last proxy first.
+ * <p>
+ * Every node of the trie is the last ip of a tail subchain of a trusted
+ * chain, so the longest trusted tail subchain of a candidate is found by
+ * walking the candidate from its end until an ip has no node, without
+ * building any subchain.
+ */
+public class ProxyChainTrie {
+  private final Node root = new Node();
+
+  /**
+   * @param chain a trusted chain, all its tail subchains become trusted
+   */
+  public void add(List<String> chain) {
+    Node node = root;
+    for (int i = chain.size() - 1; i >= 0; i--) {
+      node = node.add(chain.get(i));
+    }
+  }
+
+  /**
+   * @return the node of the empty chain, to walk the trie from
+   */
+  public Node root() {
+    return root;
+  }
+
+  /**
+   * @param candidate
+   * @return the length of the longest tail subchain of the candidate that
+   * is trusted, 0 if none is
+   */
+  public int trustedTailLength(List<String> candidate) {
+    Node node = root;
+    int length = 0;
+    for (int i = candidate.size() - 1; i >= 0; i--) {
+      node = node.child(candidate.get(i));
+      if (node == null) {
+        break;
+      }
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * A trusted tail subchain
+   */
+  public static class Node {
+    private final Map<String, Node> children = new HashMap<String, Node>();
+
+    private Node add(String ip) {
+      Node child = children.get(ip);
+      if (child == null) {
+        child = new Node();
+        children.put(ip, child);
+      }
+      return child;
+    }
+
+    /**
+     * @param ip
+     * @return the node of the subchain preceded by the ip, or null if that
+     * subchain is not trusted
+     */
+    public Node child(String ip) {
+      return children.get(ip);
+    }
+  }
+}
@@ -4,6 +4,10 @@ import java.util.*;
 
 /**
  *  This class wraps a set of {@link ProxyChain} 
+ *  <p>
+ *  The chains are compiled into a {@link ProxyChainTrie} when the instance
+ *  is built, so finding the trusted subchain of a request chain is a single
+ *  walk over it.
  *
  * @author Ernesto Miguez (ernesto.miguez@asquera.de)
  **/
@@ -11,9 +15,13 @@ import java.util.*;
 public class ProxyChains {
 
   private Set<ProxyChain> proxyChains;
+  private final ProxyChainTrie trie = new ProxyChainTrie();
 
   public ProxyChains(Set<ProxyChain> proxyChains) {
     this.proxyChains = proxyChains;
+    for (ProxyChain chain : proxyChains) {
+      trie.add(chain.getProxyChain());
+    }
   }
 
   public ProxyChains(String[] proxyChains) {
@@ -29,7 +37,7 @@ public class ProxyChains {
    * @return true iff the candidate is included
    */
   public Boolean trusts(ProxyChain candidate) {
-    return trustedSubchain(candidate) != null;
+    return trustedTailLength(candidate) > 0;
   }
 
   /**
@@ -41,23 +49,30 @@ public class ProxyChains {
    * If more than one is trusted, the <b>longuest</b> will be returned
    */
   public ProxyChain trustedSubchain(ProxyChain candidate) {
-    Set<ProxyChain> sub = subchains();
-    sub.retainAll(candidate.subchains().getProxyChains());
+    List<String> ips = candidate.getProxyChain();
+    int length = trie.trustedTailLength(ips);
     ProxyChain trusted = null;
-    if (!sub.isEmpty()) {
-      trusted = Collections.max(sub, new InetAddressChainComparator()); 
+    if (length > 0) {
+      trusted = new ProxyChain(new ArrayList<String>(ips.subList(ips.size() - length, ips.size())));
     }
     return trusted;
   }
 
   /**
-   * a comparator that uses ip chain size
+   *
+   * @param candidate
+   * @return the length of the longest trusted tail subchain of the
+   * candidate, 0 if none is trusted
    */
-  class InetAddressChainComparator implements Comparator<ProxyChain> {
-    @Override
-    public int compare(ProxyChain a, ProxyChain b) {
-      return a.size() < b.size() ? -1 : a.size() == b.size() ? 0 : 1;
-    }
+  public int trustedTailLength(ProxyChain candidate) {
+    return trie.trustedTailLength(candidate.getProxyChain());
+  }
+
+  /**
+   * @return the compiled trusted chains
+   */
+  public ProxyChainTrie getTrie() {
+    return trie;
   }
 
   /**
@@ -105,6 +120,7 @@ public class ProxyChains {
    * @return true if it could be added
    */
   public boolean add(ProxyChain chain) {
+    trie.add(chain.getProxyChain());
     return proxyChains.add(chain);
   }
 
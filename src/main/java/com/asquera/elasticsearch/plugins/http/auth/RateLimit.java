@@ -0,0 +1,102 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ *
+ * A token bucket of a given burst, refilled at a given rate, computed with
+ * the generic cell rate algorithm: the whole state of a bucket is a single
+ * long, its theoretical arrival time, so buckets can be kept in primitive
+ * arrays or updated with a compare and set.
+ * <p>
+ * The theoretical arrival time is the time at which the bucket would be
+ * full again, a new bucket starts with the current time. Times are in
+ * nanoseconds, as given by {@link System#nanoTime()}.
+ */
+public class RateLimit {
+  private final int burst;
+  private final long interval;
+  private final long tolerance;
+
+  /**
+   * @param burst number of tokens of a full bucket
+   * @param period time to refill a bucket from empty to full
+   */
+  public RateLimit(int burst, TimeValue period) {
+    this(burst, period.nanos() / Math.max(1, burst));
+  }
+
+  private RateLimit(int burst, long interval) {
+    if (burst < 1) {
+      throw new IllegalArgumentException("the burst of a rate limit must be positive, got " + burst);
+    }
+    this.burst = burst;
+    this.interval = Math.max(1, interval);
+    this.tolerance = this.interval * burst;
+  }
+
+  /**
+   * @param rate tokens refilled per second
+   * @param burst number of tokens of a full bucket
+   * @return the rate limit
+   */
+  public static RateLimit perSecond(double rate, int burst) {
+    if (!(rate > 0)) {
+      throw new IllegalArgumentException("the rate of a rate limit must be positive, got " + rate);
+    }
+    return new RateLimit(burst, (long) (1e9 / rate));
+  }
+
+  /**
+   * @param tat theoretical arrival time of the bucket
+   * @param now
+   * @return true iff the bucket is empty
+   */
+  public boolean isEmpty(long tat, long now) {
+    return tat - now > tolerance - interval;
+  }
+
+  /**
+   * @param tat theoretical arrival time of the bucket
+   * @param now
+   * @return the theoretical arrival time once a token is taken, regardless
+   * of the bucket being empty
+   */
+  public long take(long tat, long now) {
+    return Math.max(tat, now) + interval;
+  }
+
+  /**
+   * @param tat theoretical arrival time of the bucket
+   * @param now
+   * @return true iff the bucket is full, so it can be forgotten
+   */
+  public boolean isFull(long tat, long now) {
+    return tat - now <= 0;
+  }
+
+  /**
+   * @param tat theoretical arrival time of the bucket
+   * @param now
+   * @return the time until a token is available, 0 if one is
+   */
+  public long waitNanos(long tat, long now) {
+    return Math.max(0, tat - now - (tolerance - interval));
+  }
+
+  /**
+   * @return the time between two tokens
+   */
+  public long getIntervalNanos() {
+    return interval;
+  }
+
+  public int getBurst() {
+    return burst;
+  }
+
+  @Override
+  public String toString() {
+    return burst + " per " + TimeValue.timeValueNanos(tolerance);
+  }
+}
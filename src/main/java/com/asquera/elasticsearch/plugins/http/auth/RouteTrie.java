@@ -0,0 +1,248 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.rest.RestRequest.Method;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *
+ * A set of routes, each one http methods and a path pattern, compiled into
+ * a trie of path segments whose nodes hold the methods of the routes ending
+ * there as a bitmask.
+ * <p>
+ * A route is written <code>GET|HEAD /logs-*&#47;_search</code>, without
+ * methods or with <code>*</code> for every method. A segment of the pattern
+ * is either a literal, <code>*</code> for any segment, <code>prefix*</code>
+ * for any segment starting with the prefix or, as the last segment,
+ * <code>**</code> for any number of segments, none included. Wildcards never
+ * match a segment holding a comma, so a wildcard for an index name cannot
+ * be widened by a list of indices.
+ * <p>
+ * A path is matched in one pass over its segments, without allocating: the
+ * literal children of a node are found by binary search, so the cost does
+ * not grow with the number of routes, but with the number of wildcards
+ * alongside each other.
+ */
+public class RouteTrie {
+  private static final int ALL_METHODS = (1 << Method.values().length) - 1;
+
+  private final Node root;
+  private final int size;
+
+  private RouteTrie(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * @param routes
+   * @return the compiled routes
+   * @throws IllegalArgumentException if a route is malformed
+   */
+  public static RouteTrie compile(String... routes) {
+    Builder root = new Builder();
+    for (String route : routes) {
+      add(root, route.trim());
+    }
+    return new RouteTrie(root.build(), routes.length);
+  }
+
+  private static void add(Builder root, String route) {
+    int space = route.indexOf(' ');
+    String path = space < 0 ? route : route.substring(space + 1).trim();
+    int methods = space < 0 ? ALL_METHODS : methods(route.substring(0, space), route);
+    if (!path.startsWith("/")) {
+      throw new IllegalArgumentException("the path of route [" + route + "] must start with /");
+    }
+    Builder node = root;
+    String[] segments = path.split("/");
+    for (int i = 0; i < segments.length; i++) {
+      String segment = segments[i];
+      if (segment.isEmpty()) {
+        continue;
+      }
+      int star = segment.indexOf('*');
+      if (segment.equals("**")) {
+        if (i != segments.length - 1) {
+          throw new IllegalArgumentException("** must be the last segment of route [" + route + "]");
+        }
+        node.restMethods |= methods;
+        return;
+      } else if (segment.equals("*")) {
+        if (node.any == null) {
+          node.any = new Builder();
+        }
+        node = node.any;
+      } else if (star == segment.length() - 1) {
+        node = child(node.prefixes, segment.substring(0, star));
+      } else if (star >= 0) {
+        throw new IllegalArgumentException("a segment of route [" + route + "] may only end with *");
+      } else {
+        node = child(node.literals, segment);
+      }
+    }
+    node.methods |= methods;
+  }
+
+  private static Builder child(Map<String, Builder> children, String key) {
+    Builder child = children.get(key);
+    if (child == null) {
+      child = new Builder();
+      children.put(key, child);
+    }
+    return child;
+  }
+
+  private static int methods(String spec, String route) {
+    if (spec.equals("*")) {
+      return ALL_METHODS;
+    }
+    int methods = 0;
+    for (String name : spec.split("\\|")) {
+      try {
+        methods |= bit(Method.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("unknown method [" + name + "] in route [" + route + "]");
+      }
+    }
+    return methods;
+  }
+
+  private static int bit(Method method) {
+    return 1 << method.ordinal();
+  }
+
+  /**
+   * @param method
+   * @param path the path of the request, without its query string
+   * @return true iff a route matches the request
+   */
+  public boolean matches(Method method, String path) {
+    return match(root, bit(method), path, 0);
+  }
+
+  /**
+   * @return the number of routes
+   */
+  public int size() {
+    return size;
+  }
+
+  private static boolean match(Node node, int method, String path, int from) {
+    if ((node.restMethods & method) != 0) {
+      return true;
+    }
+    int length = path.length();
+    while (from < length && path.charAt(from) == '/') {
+      from++;
+    }
+    if (from == length) {
+      return (node.methods & method) != 0;
+    }
+    int to = path.indexOf('/', from);
+    if (to < 0) {
+      to = length;
+    }
+    Node literal = node.literal(path, from, to);
+    if (literal != null && match(literal, method, path, to)) {
+      return true;
+    }
+    if (node.prefixes.length == 0 && node.any == null) {
+      return false;
+    }
+    if (path.lastIndexOf(',', to - 1) >= from) {
+      return false;
+    }
+    for (int i = 0; i < node.prefixes.length; i++) {
+      String prefix = node.prefixes[i];
+      if (to - from >= prefix.length() && path.regionMatches(from, prefix, 0, prefix.length())
+          && match(node.prefixNodes[i], method, path, to)) {
+        return true;
+      }
+    }
+    return node.any != null && match(node.any, method, path, to);
+  }
+
+  /**
+   * A node, frozen into arrays
+   */
+  private static class Node {
+    final String[] literals;
+    final Node[] literalNodes;
+    final String[] prefixes;
+    final Node[] prefixNodes;
+    final Node any;
+    /** methods of the routes ending at this node */
+    final int methods;
+    /** methods of the routes ending with ** at this node */
+    final int restMethods;
+
+    Node(Builder builder) {
+      literals = builder.literals.keySet().toArray(new String[builder.literals.size()]);
+      literalNodes = new Node[literals.length];
+      for (int i = 0; i < literals.length; i++) {
+        literalNodes[i] = builder.literals.get(literals[i]).build();
+      }
+      prefixes = builder.prefixes.keySet().toArray(new String[builder.prefixes.size()]);
+      prefixNodes = new Node[prefixes.length];
+      for (int i = 0; i < prefixes.length; i++) {
+        prefixNodes[i] = builder.prefixes.get(prefixes[i]).build();
+      }
+      any = builder.any == null ? null : builder.any.build();
+      methods = builder.methods;
+      restMethods = builder.restMethods;
+    }
+
+    /**
+     * @return the child of the literal segment, null if none
+     */
+    Node literal(String path, int from, int to) {
+      int low = 0;
+      int high = literals.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = compare(literals[mid], path, from, to);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          return literalNodes[mid];
+        }
+      }
+      return null;
+    }
+
+    /**
+     * compares like {@link String#compareTo(String)}, the second string
+     * being the range of the path
+     */
+    private static int compare(String literal, String path, int from, int to) {
+      int length = Math.min(literal.length(), to - from);
+      for (int i = 0; i < length; i++) {
+        int diff = literal.charAt(i) - path.charAt(from + i);
+        if (diff != 0) {
+          return diff;
+        }
+      }
+      return literal.length() - (to - from);
+    }
+  }
+
+  /**
+   * A node while the routes are added
+   */
+  private static class Builder {
+    final Map<String, Builder> literals = new TreeMap<String, Builder>();
+    final Map<String, Builder> prefixes = new TreeMap<String, Builder>();
+    Builder any;
+    int methods;
+    int restMethods;
+
+    Node build() {
+      return new Node(this);
+    }
+  }
+}
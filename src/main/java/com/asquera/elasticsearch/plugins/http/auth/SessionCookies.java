@@ -0,0 +1,425 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ *
+ * Expiring session cookies signed with HMAC-SHA256, issued once a user
+ * authenticated with basic auth. A request carrying a valid cookie is
+ * authenticated by its signature and expiry, and a lookup of its user,
+ * without hashing any password.
+ * <p>
+ * The value of a cookie is:
+ *
+ *     keyId.expiry.hex(user).hex(hmac)
+ *
+ * with the expiry in seconds since the epoch and the hmac computed over
+ * everything before it and the credential stamp of the user, with the key
+ * of the id. The stamp is not part of the cookie: removing the user or
+ * changing its password ends its sessions. Several keys can be
+ * configured at once: cookies are signed with the signing key only, and
+ * verified with the key they name, so keys are rotated by adding a new
+ * signing key and removing the old one once its cookies expired. Removing
+ * a key ends all of its sessions.
+ * <p>
+ * The secrets are node settings or lines of a key file, never cluster
+ * settings, which any client allowed to read the cluster settings could
+ * read back. The key file is read again when it is modified, see
+ * {@link #reloadIfModified()}.
+ */
+public class SessionCookies {
+  private static final String PREFIX = "http.basic.session.";
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int MIN_SECRET_LENGTH = 16;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final String name;
+  private final Map<String, String> secrets;
+  /**
+   * null when all the keys are node settings
+   */
+  private final File keysFile;
+  /**
+   * null when the signing key is the only key or the first of the file
+   */
+  private final String signingKeyId;
+  private final long ttlSeconds;
+  private final boolean secure;
+  private final String sameSite;
+  private volatile KeySet keys;
+
+  /**
+   * @param name name of the cookie
+   * @param secrets the secrets of the keys, by key id
+   * @param keysFile file of further keys, may be null
+   * @param signingKey id of the key new cookies are signed with, null for
+   * the only key or else the first key of the file
+   * @param ttl time a cookie is valid after it is issued
+   * @param secure whether browsers only send the cookie over https
+   * @param sameSite the SameSite attribute of the cookie: Strict, Lax or
+   * None, which needs secure
+   * @throws IllegalArgumentException if a key id or secret is invalid, or
+   * the key file cannot be read
+   */
+  public SessionCookies(String name, Map<String, String> secrets, File keysFile, String signingKey,
+      TimeValue ttl, boolean secure, String sameSite) {
+    this.name = name;
+    this.secrets = Collections.unmodifiableMap(new HashMap<String, String>(secrets));
+    this.keysFile = keysFile;
+    this.signingKeyId = signingKey;
+    this.ttlSeconds = Math.max(1, ttl.seconds());
+    this.secure = secure;
+    this.sameSite = sameSite(sameSite, secure);
+    this.keys = load();
+  }
+
+  /**
+   * Reads the secrets from the node settings http.basic.session.keys.&lt;id&gt;
+   * and the lines <code>id:secret</code> of http.basic.session.keys_file,
+   * resolved against the config directory, the id of the signing key from
+   * http.basic.session.signing_key, and http.basic.session.ttl, .cookie,
+   * .secure and .same_site.
+   *
+   * @param settings
+   * @param configDir
+   * @return the session cookies, null if no key is configured
+   * @throws IllegalArgumentException if a key is invalid or the key file
+   * cannot be read
+   */
+  public static SessionCookies fromSettings(Settings settings, File configDir) {
+    Map<String, String> secrets = settings.getByPrefix(PREFIX + "keys.").getAsMap();
+    String path = settings.get(PREFIX + "keys_file");
+    if (secrets.isEmpty() && path == null) {
+      return null;
+    }
+    File file = null;
+    if (path != null) {
+      file = new File(path);
+      if (!file.isAbsolute()) {
+        file = new File(configDir, path);
+      }
+    }
+    return new SessionCookies(settings.get(PREFIX + "cookie", "es_session"), secrets, file,
+        settings.get(PREFIX + "signing_key"),
+        settings.getAsTime(PREFIX + "ttl", TimeValue.timeValueHours(1)),
+        settings.getAsBoolean(PREFIX + "secure", false),
+        settings.get(PREFIX + "same_site", "Strict"));
+  }
+
+  private static String sameSite(String value, boolean secure) {
+    String lower = value.toLowerCase(Locale.ROOT);
+    if (lower.equals("strict") || lower.equals("lax") || lower.equals("none")) {
+      if (lower.equals("none") && !secure) {
+        throw new IllegalArgumentException(PREFIX + "same_site None needs " + PREFIX + "secure");
+      }
+      return Character.toUpperCase(lower.charAt(0)) + lower.substring(1);
+    }
+    throw new IllegalArgumentException("invalid " + PREFIX + "same_site [" + value + "]");
+  }
+
+  /**
+   * Reads the key file again if it was modified since it was last read.
+   * The current keys are kept if it cannot be read or holds invalid keys.
+   *
+   * @return true iff the keys were replaced
+   */
+  public boolean reloadIfModified() {
+    if (keysFile == null || keysFile.lastModified() == keys.lastModified) {
+      return false;
+    }
+    try {
+      keys = load();
+      Loggers.getLogger(getClass()).info("reloaded {} session keys from {}", keys.byId.size(), keysFile);
+      return true;
+    } catch (IllegalArgumentException e) {
+      Loggers.getLogger(getClass()).error("keeping the current session keys: {}", e.getMessage());
+      return false;
+    }
+  }
+
+  private KeySet load() {
+    long lastModified = keysFile == null ? 0 : keysFile.lastModified();
+    Map<String, Key> byId = new HashMap<String, Key>();
+    for (Map.Entry<String, String> entry : secrets.entrySet()) {
+      byId.put(entry.getKey(), new Key(entry.getKey(), entry.getValue()));
+    }
+    String first = null;
+    if (keysFile != null) {
+      BufferedReader reader = null;
+      try {
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(keysFile), CredentialStore.UTF8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          line = line.trim();
+          if (line.isEmpty() || line.startsWith("#")) {
+            continue;
+          }
+          int colon = line.indexOf(':');
+          if (colon <= 0) {
+            throw new IllegalArgumentException("malformed line in session key file " + keysFile);
+          }
+          Key key = new Key(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+          if (byId.put(key.id, key) != null) {
+            throw new IllegalArgumentException("duplicate session key [" + key.id + "] in " + keysFile);
+          }
+          if (first == null) {
+            first = key.id;
+          }
+        }
+      } catch (IOException e) {
+        throw new IllegalArgumentException("unable to read session key file " + keysFile, e);
+      } finally {
+        if (reader != null) {
+          try {
+            reader.close();
+          } catch (IOException e) {
+            // ignored
+          }
+        }
+      }
+    }
+    String signingKey = signingKeyId;
+    if (signingKey == null) {
+      if (first != null) {
+        signingKey = first;
+      } else if (byId.size() == 1) {
+        signingKey = byId.keySet().iterator().next();
+      } else {
+        throw new IllegalArgumentException(PREFIX + "signing_key must name one of the " + byId.size() + " session keys");
+      }
+    }
+    Key signing = byId.get(signingKey);
+    if (signing == null) {
+      throw new IllegalArgumentException("unknown session signing key [" + signingKey + "]");
+    }
+    return new KeySet(Collections.unmodifiableMap(byId), signing, lastModified);
+  }
+
+  /**
+   * @param user the authenticated user
+   * @param nowMillis current time in milliseconds since the epoch
+   * @return the value of the Set-Cookie header of a new session of the user
+   */
+  public String issue(User user, long nowMillis) {
+    StringBuilder value = new StringBuilder(name.length() + 128);
+    value.append(name).append('=');
+    int start = value.length();
+    Key signingKey = keys.signingKey;
+    value.append(signingKey.id).append('.').append(nowMillis / 1000 + ttlSeconds).append('.');
+    appendHex(value, user.getNameBytes());
+    byte[] mac = signingKey.sign(value.substring(start), user.getCredentialStamp());
+    value.append('.');
+    appendHex(value, mac);
+    value.append("; Path=/; Max-Age=").append(ttlSeconds).append("; HttpOnly; SameSite=").append(sameSite);
+    if (secure) {
+      value.append("; Secure");
+    }
+    return value.toString();
+  }
+
+  /**
+   * @param cookieHeader the Cookie header of the request, may be null
+   * @param nowMillis current time in milliseconds since the epoch
+   * @param credentials the current users
+   * @return the user of the session, null if the request carries no
+   * valid and unexpired session cookie of a current user
+   */
+  public String verify(String cookieHeader, long nowMillis, CredentialStore credentials) {
+    if (cookieHeader == null) {
+      return null;
+    }
+    int from = valueStart(cookieHeader);
+    if (from < 0) {
+      return null;
+    }
+    int to = cookieHeader.indexOf(';', from);
+    String value = (to < 0 ? cookieHeader.substring(from) : cookieHeader.substring(from, to)).trim();
+    int keyEnd = value.indexOf('.');
+    int expiryEnd = keyEnd < 0 ? -1 : value.indexOf('.', keyEnd + 1);
+    int userEnd = expiryEnd < 0 ? -1 : value.indexOf('.', expiryEnd + 1);
+    if (userEnd < 0) {
+      return null;
+    }
+    Key key = keys.byId.get(value.substring(0, keyEnd));
+    if (key == null) {
+      return null;
+    }
+    long expiry;
+    try {
+      expiry = Long.parseLong(value.substring(keyEnd + 1, expiryEnd));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    // expired cookies are refused before any hmac is computed
+    if (expiry * 1000 - nowMillis <= 0) {
+      return null;
+    }
+    byte[] name = parseHex(value, expiryEnd + 1, userEnd);
+    if (name == null) {
+      return null;
+    }
+    User user = credentials.get(new String(name, CredentialStore.UTF8));
+    if (user == null) {
+      return null;
+    }
+    byte[] expected = key.sign(value.substring(0, userEnd), user.getCredentialStamp());
+    return hexEquals(expected, value, userEnd + 1) ? user.getName() : null;
+  }
+
+  /**
+   * @return the index of the value of the session cookie in the header, -1
+   * if it has none
+   */
+  private int valueStart(String cookieHeader) {
+    int i = 0;
+    int length = cookieHeader.length();
+    while (i < length) {
+      while (i < length && (cookieHeader.charAt(i) == ' ' || cookieHeader.charAt(i) == ';')) {
+        i++;
+      }
+      if (cookieHeader.startsWith(name, i) && i + name.length() < length
+          && cookieHeader.charAt(i + name.length()) == '=') {
+        return i + name.length() + 1;
+      }
+      int next = cookieHeader.indexOf(';', i);
+      if (next < 0) {
+        return -1;
+      }
+      i = next + 1;
+    }
+    return -1;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    KeySet keys = this.keys;
+    return "session cookie " + name + ": " + keys.byId.size() + " keys"
+      + (keysFile == null ? "" : " with " + keysFile) + ", signed with "
+      + keys.signingKey.id + ", valid for " + TimeValue.timeValueSeconds(ttlSeconds);
+  }
+
+  private static void appendHex(StringBuilder builder, byte[] bytes) {
+    for (byte b : bytes) {
+      builder.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+    }
+  }
+
+  private static int hexDigit(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the bytes of the lower case hex range, null if it is not one
+   */
+  private static byte[] parseHex(String s, int from, int to) {
+    if (((to - from) & 1) != 0) {
+      return null;
+    }
+    byte[] bytes = new byte[(to - from) / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      int high = hexDigit(s.charAt(from + 2 * i));
+      int low = hexDigit(s.charAt(from + 2 * i + 1));
+      if (high < 0 || low < 0) {
+        return null;
+      }
+      bytes[i] = (byte) (high << 4 | low);
+    }
+    return bytes;
+  }
+
+  /**
+   * compares the bytes with the hex from the index to the end of the
+   * string, in a time that only depends on their lengths
+   */
+  private static boolean hexEquals(byte[] expected, String s, int from) {
+    if (s.length() - from != expected.length * 2) {
+      return false;
+    }
+    int diff = 0;
+    for (int i = 0; i < expected.length; i++) {
+      int high = hexDigit(s.charAt(from + 2 * i));
+      int low = hexDigit(s.charAt(from + 2 * i + 1));
+      diff |= (high | low) & 0x100;
+      diff |= (expected[i] & 0xff) ^ ((high << 4 | low) & 0xff);
+    }
+    return diff == 0;
+  }
+
+  /**
+   * The keys by id and the key new cookies are signed with
+   */
+  private static class KeySet {
+    final Map<String, Key> byId;
+    final Key signingKey;
+    final long lastModified;
+
+    KeySet(Map<String, Key> byId, Key signingKey, long lastModified) {
+      this.byId = byId;
+      this.signingKey = signingKey;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * A signing key, with an initialized mac per thread
+   */
+  private static class Key {
+    final String id;
+    private final ThreadLocal<Mac> macs;
+
+    Key(String id, String secret) {
+      if (id.isEmpty() || id.indexOf('.') >= 0 || id.indexOf(';') >= 0 || id.indexOf('=') >= 0) {
+        throw new IllegalArgumentException("invalid session key id [" + id + "]");
+      }
+      if (secret.length() < MIN_SECRET_LENGTH) {
+        throw new IllegalArgumentException("the secret of session key [" + id + "] must have at least "
+            + MIN_SECRET_LENGTH + " characters");
+      }
+      this.id = id;
+      final SecretKeySpec spec = new SecretKeySpec(secret.getBytes(CredentialStore.UTF8), ALGORITHM);
+      this.macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+          try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(spec);
+            return mac;
+          } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+          }
+        }
+      };
+    }
+
+    byte[] sign(String data, byte[] stamp) {
+      Mac mac = macs.get();
+      mac.update(data.getBytes(CredentialStore.UTF8));
+      return mac.doFinal(stamp);
+    }
+  }
+}
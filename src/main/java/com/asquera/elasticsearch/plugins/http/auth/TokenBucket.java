@@ -0,0 +1,50 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * A single {@link RateLimit} bucket shared between threads, updated with a
+ * compare and set of its theoretical arrival time, without locking.
+ */
+public class TokenBucket {
+  private final RateLimit limit;
+  private final AtomicLong tat;
+
+  /**
+   * @param limit
+   * @param now current time in nanoseconds, the bucket starts full
+   */
+  public TokenBucket(RateLimit limit, long now) {
+    this.limit = limit;
+    this.tat = new AtomicLong(now);
+  }
+
+  /**
+   * @param now current time in nanoseconds
+   * @return true iff a token was taken, false if the bucket is empty
+   */
+  public boolean tryTake(long now) {
+    while (true) {
+      long current = tat.get();
+      if (limit.isEmpty(current, now)) {
+        return false;
+      }
+      if (tat.compareAndSet(current, limit.take(current, now))) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @param now current time in nanoseconds
+   * @return true iff the bucket is full
+   */
+  public boolean isFull(long now) {
+    return limit.isFull(tat.get(), now);
+  }
+
+  public RateLimit getLimit() {
+    return limit;
+  }
+}
@@ -0,0 +1,128 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ *
+ * A user allowed to authenticate with http basic authentication.
+ * Its password is either configured in plain text or as a
+ * {@link PasswordHash}.
+ */
+public class User {
+  private final String name;
+  private final byte[] nameBytes;
+  private final byte[] password;
+  private final PasswordHash passwordHash;
+  private final byte[] credentialStamp;
+
+  private User(String name, byte[] password, PasswordHash passwordHash) {
+    this.name = name;
+    this.nameBytes = CredentialStore.utf8(name);
+    this.password = password;
+    this.passwordHash = passwordHash;
+    this.credentialStamp = stamp(passwordHash != null ? CredentialStore.utf8(passwordHash.toString()) : password);
+  }
+
+  private static byte[] stamp(byte[] credential) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(credential);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param name
+   * @param password the plain text password
+   * @return a user whose password is compared as is
+   */
+  public static User withPassword(String name, String password) {
+    return new User(name, CredentialStore.utf8(password), null);
+  }
+
+  /**
+   * @param name
+   * @param passwordHash
+   * @return a user whose password is verified against a hash
+   */
+  public static User withPasswordHash(String name, PasswordHash passwordHash) {
+    return new User(name, null, passwordHash);
+  }
+
+  /**
+   * @return the user name
+   */
+  public String getName() {
+    return name;
+  }
+
+  byte[] getNameBytes() {
+    return nameBytes;
+  }
+
+  /**
+   * @return a SHA-256 digest of the password or of its hash, which changes
+   * with them
+   */
+  byte[] getCredentialStamp() {
+    return credentialStamp;
+  }
+
+  /**
+   * @return true iff the password is verified against a slow hash
+   */
+  public boolean isHashed() {
+    return passwordHash != null;
+  }
+
+  /**
+   * @param candidate
+   * @return true iff the candidate is the password of this user
+   */
+  public boolean verify(String candidate) {
+    if (isHashed()) {
+      return passwordHash.verify(candidate);
+    }
+    return MessageDigest.isEqual(password, CredentialStore.utf8(candidate));
+  }
+
+  /**
+   * Compares a plain text password in constant time, without allocating.
+   *
+   * @param buffer holding the candidate password
+   * @param offset of the candidate password
+   * @param length of the candidate password
+   * @return true iff the candidate is the plain text password of this user
+   */
+  boolean matches(byte[] buffer, int offset, int length) {
+    if (isHashed() || length != password.length) {
+      return false;
+    }
+    int diff = 0;
+    for (int i = 0; i < length; i++) {
+      diff |= password[i] ^ buffer[offset + i];
+    }
+    return diff == 0;
+  }
+
+  /**
+   * @return true iff the bytes in the buffer are the UTF-8 name of this user
+   */
+  boolean nameEquals(byte[] buffer, int offset, int length) {
+    if (length != nameBytes.length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (nameBytes[i] != buffer[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
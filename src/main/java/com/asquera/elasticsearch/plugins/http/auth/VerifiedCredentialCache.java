@@ -0,0 +1,73 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * Bounded set of the SHA-256 digests of credentials that were already
+ * verified against a slow {@link PasswordHash}.
+ * <p>
+ * Digests are kept in a fixed size, direct mapped table of longs: a new
+ * digest replaces whatever was stored in its slot, so the memory used never
+ * grows after construction. Lookups neither lock nor allocate.
+ */
+public class VerifiedCredentialCache {
+  static final int DIGEST_LENGTH = 32;
+  private static final int LONGS_PER_DIGEST = DIGEST_LENGTH / 8;
+
+  private final AtomicLongArray slots;
+  private final int mask;
+
+  /**
+   * @param size the maximum number of digests kept, rounded up to the next
+   * power of two
+   */
+  public VerifiedCredentialCache(int size) {
+    int capacity = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    this.slots = new AtomicLongArray(capacity * LONGS_PER_DIGEST);
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * @param digest a SHA-256 digest of the credentials
+   * @return true iff the digest was added and not replaced since
+   */
+  public boolean contains(byte[] digest) {
+    int base = slot(digest);
+    for (int i = 0; i < LONGS_PER_DIGEST; i++) {
+      if (slots.get(base + i) != toLong(digest, i * 8)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param digest a SHA-256 digest of verified credentials
+   */
+  public void add(byte[] digest) {
+    int base = slot(digest);
+    for (int i = 0; i < LONGS_PER_DIGEST; i++) {
+      slots.set(base + i, toLong(digest, i * 8));
+    }
+  }
+
+  /**
+   * @return the maximum number of digests kept
+   */
+  public int capacity() {
+    return mask + 1;
+  }
+
+  private int slot(byte[] digest) {
+    return ((int) toLong(digest, 0) & mask) * LONGS_PER_DIGEST;
+  }
+
+  private static long toLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      value = (value << 8) | (bytes[i] & 0xff);
+    }
+    return value;
+  }
+}
@@ -1,7 +1,6 @@
 package com.asquera.elasticsearch.plugins.http.auth;
 
 import java.util.List;
-import java.util.Arrays;
 import java.util.ArrayList;
 
 /**
@@ -17,6 +16,11 @@ import java.util.ArrayList;
  * original host's IP address; for this reason, effective use of XFF requires
  * knowledge of which proxies are trustworthy, for instance by looking them
  * up in a whitelist of servers whose maintainers can be trusted.
+ * <p>
+ * The header is parsed once, into the offsets of its ips. Its number of ips
+ * and its length are bounded, so an oversized header cannot make
+ * authorization expensive. The offsets of the headers of the requests are
+ * written to a buffer of the thread, see {@link #parse(String, int, int)}.
  *
  * @see <a href="http://en.wikipedia.org/wiki/X-Forwarded-For">X-Forwarded-For</a>
  *
@@ -26,6 +30,22 @@ import java.util.ArrayList;
  */
 
 public class XForwardedFor {
+  /**
+   * default maximum number of ips accepted in the header
+   */
+  public static final int DEFAULT_MAX_HOPS = 32;
+  /**
+   * default maximum number of characters accepted in the header
+   */
+  public static final int DEFAULT_MAX_LENGTH = 2048;
+  private static final int[] NO_HOPS = new int[0];
+  private static final ThreadLocal<int[]> HOPS = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[2 * DEFAULT_MAX_HOPS];
+    }
+  };
+
   /**
    *
    * The X-Forwarded-For Header value as received in the request
@@ -35,21 +55,98 @@ public class XForwardedFor {
    */
   private final String xForwardedFor;
 
+  /**
+   * start and end offsets of each ip in the header, whitespace trimmed:
+   * hops[2 * i] is the start of the i-th ip and hops[2 * i + 1] its end
+   */
+  private final int[] hops;
+  private final int size;
+  private final boolean exceedsLimits;
+
   /**
    *
    * @param xForwardedFor
    */
   public XForwardedFor(String xForwardedFor) {
+    this(xForwardedFor, DEFAULT_MAX_HOPS, DEFAULT_MAX_LENGTH);
+  }
+
+  /**
+   * Parses the header in a single pass. A header with more ips or more
+   * characters than allowed is not parsed at all, see {@link #exceedsLimits()}.
+   *
+   * @param xForwardedFor
+   * @param maxHops maximum number of ips accepted
+   * @param maxLength maximum number of characters accepted
+   */
+  public XForwardedFor(String xForwardedFor, int maxHops, int maxLength) {
+    this(xForwardedFor, maxHops, maxLength, false);
+  }
+
+  /**
+   * Parses the header of a request without allocating its offsets: they
+   * are written to a buffer of the calling thread, so the result is only
+   * valid until the thread parses the next header.
+   *
+   * @param xForwardedFor
+   * @param maxHops maximum number of ips accepted
+   * @param maxLength maximum number of characters accepted
+   * @return the parsed header
+   */
+  public static XForwardedFor parse(String xForwardedFor, int maxHops, int maxLength) {
+    return new XForwardedFor(xForwardedFor, maxHops, maxLength, true);
+  }
+
+  private XForwardedFor(String xForwardedFor, int maxHops, int maxLength, boolean reuse) {
     this.xForwardedFor = xForwardedFor != null ? xForwardedFor : "";
+    int length = this.xForwardedFor.length();
+    int commas = 0;
+    for (int i = 0; i < length && commas < maxHops; i++) {
+      if (this.xForwardedFor.charAt(i) == ',') {
+        commas++;
+      }
+    }
+    if (length > maxLength || commas >= maxHops) {
+      this.exceedsLimits = true;
+      this.hops = NO_HOPS;
+      this.size = 0;
+      return;
+    }
+    this.exceedsLimits = false;
+    this.size = commas + 1;
+    int[] hops = reuse ? HOPS.get() : null;
+    if (hops == null || hops.length < 2 * size) {
+      hops = new int[2 * size];
+      if (reuse) {
+        HOPS.set(hops);
+      }
+    }
+    this.hops = hops;
+    int hop = 0;
+    int start = 0;
+    for (int i = 0; i <= length; i++) {
+      if (i == length || this.xForwardedFor.charAt(i) == ',') {
+        int from = start;
+        int to = i;
+        while (from < to && Character.isWhitespace(this.xForwardedFor.charAt(from))) {
+          from++;
+        }
+        while (to > from && Character.isWhitespace(this.xForwardedFor.charAt(to - 1))) {
+          to--;
+        }
+        hops[2 * hop] = from;
+        hops[2 * hop + 1] = to;
+        hop++;
+        start = i + 1;
+      }
+    }
   }
 
   /**
    * @return the ip of the client as defined by the X-Forwarded-For Header
    */
   public String client() {
-    ArrayList<String> splitted_ips =  new ArrayList<String>(
-        Arrays.asList(xForwardedFor.split(",")));
-    return splitted_ips.remove(0);
+    return size > 0 ? hop(0) : "";
   }
 
   /**
@@ -60,6 +157,67 @@ public class XForwardedFor {
     return ! xForwardedFor.equals("");
   }
 
+  /**
+   *
+   * @return true if the header has more ips or characters than allowed, in
+   * which case none of its ips is considered
+   */
+  public boolean exceedsLimits() {
+    return exceedsLimits;
+  }
+
+  /**
+   * @return the number of ips in the header, client included
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param i index of the ip, 0 being the client
+   * @return the offset of the first character of the ip in the header
+   */
+  public int start(int i) {
+    return hops[2 * i];
+  }
+
+  /**
+   * @param i index of the ip, 0 being the client
+   * @return the offset after the last character of the ip in the header
+   */
+  public int end(int i) {
+    return hops[2 * i + 1];
+  }
+
+  /**
+   * @param i index of the ip, 0 being the client
+   * @return the ip
+   */
+  public String hop(int i) {
+    return xForwardedFor.substring(start(i), end(i));
+  }
+
+  /**
+   * @param i index of the ip, 0 being the client
+   * @param ip
+   * @return true iff the ip at index i is the given one
+   */
+  public boolean hopEquals(int i, String ip) {
+    int length = end(i) - start(i);
+    return length == ip.length() && xForwardedFor.regionMatches(start(i), ip, 0, length);
+  }
+
+  /**
+   * @param i index of an ip, 0 being the client
+   * @param j index of another ip
+   * @return true iff both ips are the same
+   */
+  public boolean hopEquals(int i, int j) {
+    int length = end(i) - start(i);
+    return length == end(j) - start(j)
+      && xForwardedFor.regionMatches(start(i), xForwardedFor, start(j), length);
+  }
+
   /**
    *  delegate method
    */
@@ -77,10 +235,11 @@ public class XForwardedFor {
    * X-Forwarded-For Header) and the * server
    */
   protected List<String> proxies() {
-    ArrayList<String> splitted_ips =  new ArrayList<String>(
-        Arrays.asList(xForwardedFor.split(",")));
-    splitted_ips.remove(0);
-    return splitted_ips;
+    List<String> proxies = new ArrayList<String>();
+    for (int i = 1; i < size; i++) {
+      proxies.add(hop(i));
+    }
+    return proxies;
   }
 
   /**
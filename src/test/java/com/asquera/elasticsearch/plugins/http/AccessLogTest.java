@@ -0,0 +1,99 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.is;
+
+import org.elasticsearch.rest.RestRequest.Method;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class AccessLogTest {
+
+    private static class RecordingAccessLog extends AccessLog {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+
+        RecordingAccessLog(int size, int batchSize, Overflow overflow) {
+            super(size, batchSize, overflow);
+        }
+
+        @Override
+        protected void write(String line) {
+            lines.add(line);
+        }
+    }
+
+    private final FakeHttpRequest request = new FakeHttpRequest(Method.GET, "/_status")
+        .withHeader("Host", "localhost")
+        .withHeader("X-Forwarded-For", "1.1.1.1");
+
+    @Test
+    public void formatsEntriesInTheBackground() throws Exception {
+        RecordingAccessLog log = new RecordingAccessLog(16, 4, AccessLog.Overflow.DROP);
+        assertTrue(log.add(request, InetAddress.getByName("2.2.2.2"), "X-Forwarded-For", AuthOutcome.IP));
+        assertTrue(log.lines.isEmpty());
+        assertThat(log.drain(new StringBuilder()), is(1));
+        String line = log.lines.get(0);
+        assertTrue(line, line.contains("type: GET"));
+        assertTrue(line, line.contains("Path:/_status"));
+        assertTrue(line, line.contains("X-Forwarded-For:1.1.1.1"));
+        assertTrue(line, line.contains("Request-IP:2.2.2.2"));
+        assertTrue(line, line.contains("outcome:IP"));
+        assertThat(log.getLogged(), is(1L));
+    }
+
+    @Test
+    public void drainsInBatches() throws Exception {
+        RecordingAccessLog log = new RecordingAccessLog(16, 4, AccessLog.Overflow.DROP);
+        for (int i = 0; i < 10; i++) {
+            log.add(request, InetAddress.getByName("2.2.2.2"), "X-Forwarded-For", AuthOutcome.BASIC);
+        }
+        assertThat(log.drain(new StringBuilder()), is(4));
+        assertThat(log.drain(new StringBuilder()), is(4));
+        assertThat(log.drain(new StringBuilder()), is(2));
+        assertThat(log.drain(new StringBuilder()), is(0));
+    }
+
+    @Test
+    public void dropsWhenFull() throws Exception {
+        RecordingAccessLog log = new RecordingAccessLog(4, 4, AccessLog.Overflow.DROP);
+        assertThat(log.capacity(), is(4));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(log.add(request, InetAddress.getByName("2.2.2.2"), "X-Forwarded-For", AuthOutcome.BASIC));
+        }
+        assertFalse(log.add(request, InetAddress.getByName("2.2.2.2"), "X-Forwarded-For", AuthOutcome.BASIC));
+        assertThat(log.getDropped(), is(1L));
+        log.drain(new StringBuilder());
+        assertTrue(log.add(request, InetAddress.getByName("2.2.2.2"), "X-Forwarded-For", AuthOutcome.BASIC));
+    }
+
+    @Test
+    public void blocksUntilWrittenWhenFull() throws Exception {
+        final RecordingAccessLog log = new RecordingAccessLog(2, 1, AccessLog.Overflow.BLOCK);
+        final InetAddress ip = InetAddress.getByName("2.2.2.2");
+        log.start();
+        final int producers = 4;
+        final int perProducer = 500;
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        log.add(request, ip, "X-Forwarded-For", AuthOutcome.BASIC);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        log.close();
+        assertThat(log.getDropped(), is(0L));
+        assertThat(log.lines.size(), is(producers * perProducer));
+        assertThat(log.getLogged(), is((long) producers * perProducer));
+    }
+}
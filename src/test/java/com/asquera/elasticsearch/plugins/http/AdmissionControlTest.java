@@ -0,0 +1,46 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import static org.junit.Assert.*;
+
+import com.asquera.elasticsearch.plugins.http.auth.RateLimit;
+import org.junit.Test;
+
+public class AdmissionControlTest {
+
+    @Test
+    public void capsConcurrency() {
+        AdmissionControl admission = new AdmissionControl(2, null);
+        long now = System.nanoTime();
+        assertTrue(admission.tryAcquire(now));
+        assertTrue(admission.tryAcquire(now));
+        assertFalse(admission.tryAcquire(now));
+        assertEquals(2, admission.getInFlight());
+        admission.release();
+        assertTrue(admission.tryAcquire(now));
+        assertEquals(3, admission.getAdmitted());
+        assertEquals(1, admission.getShedConcurrent());
+    }
+
+    @Test
+    public void capsRate() {
+        AdmissionControl admission = new AdmissionControl(0, RateLimit.perSecond(1, 3));
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(admission.tryAcquire(now));
+            admission.release();
+        }
+        assertFalse(admission.tryAcquire(now));
+        assertEquals(1, admission.getShedRate());
+        assertTrue(admission.tryAcquire(now + 1000000000L));
+    }
+
+    @Test
+    public void rateShedRequestsDoNotHoldASlot() {
+        AdmissionControl admission = new AdmissionControl(1, RateLimit.perSecond(1, 1));
+        long now = System.nanoTime();
+        assertTrue(admission.tryAcquire(now));
+        admission.release();
+        assertFalse(admission.tryAcquire(now));
+        assertEquals(0, admission.getInFlight());
+    }
+}
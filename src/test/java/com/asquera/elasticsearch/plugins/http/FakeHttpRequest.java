@@ -0,0 +1,108 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.http.HttpRequest;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An in memory request, to test the server without a transport
+ */
+public class FakeHttpRequest extends HttpRequest {
+    private final Method method;
+    private final String path;
+    private final Map<String, String> headers = new HashMap<String, String>();
+    private final Map<String, String> params = new HashMap<String, String>();
+    private BytesReference content = new BytesArray(new byte[0]);
+    private SocketAddress remoteAddress = new InetSocketAddress("127.0.0.1", 9200);
+
+    public FakeHttpRequest(Method method, String path) {
+        this.method = method;
+        this.path = path;
+    }
+
+    public FakeHttpRequest withHeader(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public FakeHttpRequest withContent(BytesReference content) {
+        this.content = content;
+        return this;
+    }
+
+    public FakeHttpRequest withRemoteAddress(String ip) {
+        this.remoteAddress = new InetSocketAddress(ip, 9200);
+        return this;
+    }
+
+    @Override
+    public Method method() {
+        return method;
+    }
+
+    @Override
+    public String uri() {
+        return path;
+    }
+
+    @Override
+    public String rawPath() {
+        return path;
+    }
+
+    @Override
+    public boolean hasContent() {
+        return content.length() > 0;
+    }
+
+    @Override
+    public boolean contentUnsafe() {
+        return false;
+    }
+
+    @Override
+    public BytesReference content() {
+        return content;
+    }
+
+    @Override
+    public String header(String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, String>> headers() {
+        return headers.entrySet();
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public boolean hasParam(String key) {
+        return params.containsKey(key);
+    }
+
+    @Override
+    public String param(String key) {
+        return params.get(key);
+    }
+
+    @Override
+    public String param(String key, String defaultValue) {
+        String value = params.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public Map<String, String> params() {
+        return params;
+    }
+}
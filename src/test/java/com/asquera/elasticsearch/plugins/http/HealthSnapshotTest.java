@@ -0,0 +1,45 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+public class HealthSnapshotTest {
+
+    @Test
+    public void noEndpointConfigured() {
+        assertNull(HealthSnapshot.fromSettings(ImmutableSettings.settingsBuilder().build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRelativePaths() {
+        HealthSnapshot.fromSettings(ImmutableSettings.settingsBuilder()
+            .put("http.basic.health.path", "health")
+            .build());
+    }
+
+    @Test
+    public void matchesGetAndHeadOfItsPath() {
+        HealthSnapshot health = HealthSnapshot.fromSettings(ImmutableSettings.settingsBuilder()
+            .put("http.basic.health.path", "/_http_basic/health")
+            .build());
+        assertTrue(health.matches(new FakeHttpRequest(RestRequest.Method.GET, "/_http_basic/health")));
+        assertTrue(health.matches(new FakeHttpRequest(RestRequest.Method.HEAD, "/_http_basic/health")));
+        assertFalse(health.matches(new FakeHttpRequest(RestRequest.Method.POST, "/_http_basic/health")));
+        assertFalse(health.matches(new FakeHttpRequest(RestRequest.Method.GET, "/")));
+    }
+
+    @Test
+    public void unavailableUntilRefreshedAndAfterFailures() {
+        HealthSnapshot health = HealthSnapshot.fromSettings(ImmutableSettings.settingsBuilder()
+            .put("http.basic.health.path", "/health")
+            .build());
+        assertEquals(RestStatus.SERVICE_UNAVAILABLE, health.getResponse().status());
+        assertSame(health.getResponse(), health.getResponse());
+        health.fail(new IllegalStateException("no master"));
+        assertEquals(RestStatus.SERVICE_UNAVAILABLE, health.getResponse().status());
+    }
+}
@@ -0,0 +1,114 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.is;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (long value = 0; value < 100000; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(LatencyHistogram.lowerBound(bucket) <= value);
+            assertTrue(LatencyHistogram.upperBound(bucket) >= value);
+        }
+        int last = LatencyHistogram.bucket(Long.MAX_VALUE);
+        assertThat(LatencyHistogram.upperBound(last), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void relativeErrorIsBounded() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = Math.abs(random.nextLong()) >>> random.nextInt(60);
+            int bucket = LatencyHistogram.bucket(value);
+            long width = LatencyHistogram.upperBound(bucket) - LatencyHistogram.lowerBound(bucket);
+            assertTrue(width <= Math.max(1, value / 32));
+        }
+    }
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram(4).snapshot();
+        assertThat(snapshot.count(), is(0L));
+        assertThat(snapshot.percentile(0.99), is(0L));
+        assertThat(snapshot.max(), is(0L));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram(4);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.count(), is(1000L));
+        assertWithin(500000, snapshot.percentile(0.5));
+        assertWithin(990000, snapshot.percentile(0.99));
+        assertWithin(999000, snapshot.percentile(0.999));
+        assertWithin(1000000, snapshot.max());
+    }
+
+    @Test
+    public void bucketsSumToCount() {
+        LatencyHistogram histogram = new LatencyHistogram(2);
+        histogram.record(5);
+        histogram.record(5);
+        histogram.record(1000);
+        long[] buckets = histogram.snapshot().buckets();
+        assertThat(buckets.length, is(4));
+        assertThat(buckets[0], is(5L));
+        assertThat(buckets[1], is(2L));
+        assertThat(buckets[3], is(1L));
+    }
+
+    @Test
+    public void recordsConcurrently() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram(4);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(histogram.snapshot().count(), is(80000L));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not within 4% of " + expected,
+            Math.abs(actual - expected) <= expected / 25);
+    }
+
+    @Test
+    public void bucketsOfSeveralNodesMergeExactly() {
+        LatencyHistogram first = new LatencyHistogram(2);
+        LatencyHistogram second = new LatencyHistogram(2);
+        LatencyHistogram both = new LatencyHistogram(2);
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            long value = Math.abs(random.nextLong()) >>> random.nextInt(60);
+            (i % 3 == 0 ? first : second).record(value);
+            both.record(value);
+        }
+        LatencyHistogram.Snapshot merged = LatencyHistogram.Snapshot.fromBuckets(first.snapshot().buckets())
+            .merge(LatencyHistogram.Snapshot.fromBuckets(second.snapshot().buckets()));
+        LatencyHistogram.Snapshot expected = both.snapshot();
+        assertThat(merged.count(), is(expected.count()));
+        assertThat(merged.percentile(0.99), is(expected.percentile(0.99)));
+        assertThat(merged.max(), is(expected.max()));
+        assertArrayEquals(expected.buckets(), merged.buckets());
+    }
+}
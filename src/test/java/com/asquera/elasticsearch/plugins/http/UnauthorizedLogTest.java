@@ -0,0 +1,96 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.is;
+
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestRequest.Method;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class UnauthorizedLogTest {
+
+    private static class RecordingUnauthorizedLog extends UnauthorizedLog {
+        final List<String> lines = new ArrayList<String>();
+
+        RecordingUnauthorizedLog(int sample, int perIp, int maxBody, int maxIps) {
+            super(sample, perIp, maxBody, maxIps, TimeValue.timeValueMinutes(1));
+        }
+
+        @Override
+        protected void write(String line) {
+            lines.add(line);
+        }
+    }
+
+    private final FakeHttpRequest request = new FakeHttpRequest(Method.POST, "/_bulk")
+        .withHeader("Authorization", "Basic " + Base64.encodeBytes("alice:secret".getBytes()))
+        .withContent(new BytesArray("0123456789abcdef"));
+
+    @Test
+    public void logsUserWithoutPasswordAndTruncatedBody() throws Exception {
+        RecordingUnauthorizedLog log = new RecordingUnauthorizedLog(1, 1, 4, 10);
+        assertTrue(log.log(request, "1.1.1.1"));
+        String line = log.lines.get(0);
+        assertTrue(line, line.contains("user:alice"));
+        assertFalse(line, line.contains("secret"));
+        assertTrue(line, line.contains("content:0123... (16 bytes)"));
+        assertFalse(line, line.contains("4567"));
+    }
+
+    @Test
+    public void noBodyIsLoggedWithZeroMaxBody() throws Exception {
+        RecordingUnauthorizedLog log = new RecordingUnauthorizedLog(1, 1, 0, 10);
+        log.log(request, "1.1.1.1");
+        assertFalse(log.lines.get(0).contains("content"));
+    }
+
+    @Test
+    public void invalidCredentialsAreLogged() throws Exception {
+        RecordingUnauthorizedLog log = new RecordingUnauthorizedLog(1, 1, 0, 10);
+        FakeHttpRequest invalid = new FakeHttpRequest(Method.GET, "/")
+            .withHeader("Authorization", "Basic !!!");
+        assertTrue(log.log(invalid, "1.1.1.1"));
+    }
+
+    @Test
+    public void limitsRequestsPerIpAndSummarizes() throws Exception {
+        RecordingUnauthorizedLog log = new RecordingUnauthorizedLog(1, 2, 0, 10);
+        String flooder = "1.1.1.1";
+        for (int i = 0; i < 100; i++) {
+            log.log(request, flooder);
+        }
+        assertTrue(log.log(request, "2.2.2.2"));
+        assertThat(log.lines.size(), is(3));
+        assertThat(log.getLogged(), is(3L));
+        assertThat(log.getSuppressed(), is(98L));
+        log.flush();
+        assertThat(log.lines.size(), is(4));
+        assertTrue(log.lines.get(3), log.lines.get(3).contains("suppressed 98 similar requests from 1.1.1.1"));
+        assertTrue(log.log(request, flooder));
+    }
+
+    @Test
+    public void untrackedIpsShareALimit() throws Exception {
+        RecordingUnauthorizedLog log = new RecordingUnauthorizedLog(1, 1, 0, 1);
+        assertTrue(log.log(request, "1.1.1.1"));
+        assertTrue(log.log(request, "2.2.2.2"));
+        assertFalse(log.log(request, "3.3.3.3"));
+        log.flush();
+        assertTrue(log.lines.get(2), log.lines.get(2).contains("suppressed 1 similar requests from other ips"));
+    }
+
+    @Test
+    public void samplesRequests() throws Exception {
+        RecordingUnauthorizedLog log = new RecordingUnauthorizedLog(10, 100000, 0, 10);
+        for (int i = 0; i < 10000; i++) {
+            log.log(request, "1.1.1.1");
+        }
+        assertTrue(log.getLogged() > 500 && log.getLogged() < 1500);
+        assertThat(log.getLogged() + log.getSuppressed(), is(10000L));
+    }
+}
@@ -0,0 +1,72 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.http.HttpChannel;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+public class UserBulkheadTest {
+
+    @Test
+    public void noCapConfigured() {
+        assertNull(UserBulkhead.fromSettings(ImmutableSettings.settingsBuilder().build()));
+    }
+
+    @Test
+    public void capsRequestsInFlightPerUser() {
+        UserBulkhead bulkhead = UserBulkhead.fromSettings(ImmutableSettings.settingsBuilder()
+            .put("http.basic.bulkhead.max_concurrent", 2)
+            .put("http.basic.bulkhead.users.admin.max_concurrent", 0)
+            .build());
+        UserBulkhead.Slots slots = bulkhead.slots("bulk");
+        assertTrue(slots.tryAcquire());
+        assertTrue(slots.tryAcquire());
+        assertFalse(slots.tryAcquire());
+        assertTrue(bulkhead.slots("search").tryAcquire());
+        assertNull(bulkhead.slots("admin"));
+        slots.release();
+        assertTrue(slots.tryAcquire());
+        assertEquals(2, slots.getCurrent());
+        assertEquals(2, slots.getPeak());
+        assertEquals(1, slots.getRejected());
+        slots.release();
+        slots.release();
+        assertEquals(0, slots.getCurrent());
+        assertEquals(2, slots.getPeak());
+    }
+
+    @Test
+    public void channelReleasesOnceTheResponseIsSent() {
+        UserBulkhead bulkhead = new UserBulkhead(1, new HashMap<String, Integer>());
+        UserBulkhead.Slots slots = bulkhead.slots("bulk");
+        assertTrue(slots.tryAcquire());
+        RecordingChannel channel = new RecordingChannel(new FakeHttpRequest(RestRequest.Method.GET, "/"));
+        BulkheadChannel bulkheadChannel = new BulkheadChannel(channel, slots);
+        assertFalse(slots.tryAcquire());
+        bulkheadChannel.sendResponse(new BytesRestResponse(RestStatus.OK, "{}"));
+        assertEquals(1, channel.responses);
+        assertEquals(0, slots.getCurrent());
+        bulkheadChannel.release();
+        assertEquals(0, slots.getCurrent());
+    }
+
+    private static class RecordingChannel extends HttpChannel {
+        int responses;
+
+        RecordingChannel(RestRequest request) {
+            super(request, false);
+        }
+
+        @Override
+        public void sendResponse(RestResponse response) {
+            responses++;
+        }
+    }
+}
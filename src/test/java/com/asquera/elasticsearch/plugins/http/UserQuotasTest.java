@@ -0,0 +1,65 @@
+package com.asquera.elasticsearch.plugins.http;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.junit.Test;
+
+public class UserQuotasTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void noQuotaConfigured() {
+        assertNull(UserQuotas.fromSettings(ImmutableSettings.settingsBuilder()
+            .put("http.basic.user", "admin").build()));
+    }
+
+    @Test
+    public void usersHaveTheirOwnBuckets() {
+        UserQuotas quotas = UserQuotas.fromSettings(ImmutableSettings.settingsBuilder()
+            .put("http.basic.quota.rate", "1")
+            .put("http.basic.quota.burst", 2)
+            .build());
+        long now = 100 * SECOND;
+        assertTrue(quotas.tryAcquire("bulk", now));
+        assertTrue(quotas.tryAcquire("bulk", now));
+        assertFalse(quotas.tryAcquire("bulk", now));
+        assertTrue(quotas.tryAcquire("search", now));
+        assertTrue(quotas.tryAcquire("bulk", now + SECOND));
+        assertEquals(1, quotas.getQuotas().get("bulk").getExceeded());
+        assertEquals(3, quotas.getQuotas().get("bulk").getAllowed());
+        assertEquals(0, quotas.getQuotas().get("search").getExceeded());
+    }
+
+    @Test
+    public void userQuotasOverrideTheDefault() {
+        UserQuotas quotas = UserQuotas.fromSettings(ImmutableSettings.settingsBuilder()
+            .put("http.basic.quota.rate", "1")
+            .put("http.basic.quota.users.admin.rate", "0")
+            .put("http.basic.quota.users.search.rate", "100")
+            .build());
+        long now = 100 * SECOND;
+        for (int i = 0; i < 100; i++) {
+            assertTrue(quotas.tryAcquire("admin", now));
+            assertTrue(quotas.tryAcquire("search", now));
+        }
+        assertFalse(quotas.tryAcquire("search", now));
+        assertTrue(quotas.tryAcquire("bulk", now));
+        assertFalse(quotas.tryAcquire("bulk", now));
+        assertNull(quotas.getQuotas().get("admin"));
+    }
+
+    @Test
+    public void onlySomeUsersLimited() {
+        UserQuotas quotas = UserQuotas.fromSettings(ImmutableSettings.settingsBuilder()
+            .put("http.basic.quota.users.bulk.rate", "1")
+            .build());
+        long now = 100 * SECOND;
+        assertTrue(quotas.tryAcquire("bulk", now));
+        assertFalse(quotas.tryAcquire("bulk", now));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(quotas.tryAcquire("search", now));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.rest.RestRequest.Method;
+import org.junit.Test;
+
+public class AccessControlTest {
+
+  @Test
+  public void restrictsUsersToTheirRoutes() {
+    AccessControl acl = AccessControl.fromSettings(ImmutableSettings.settingsBuilder()
+        .putArray("http.basic.acl.users.reader", "GET|HEAD /logs-*/_search", "GET /_cluster/health")
+        .build());
+    assertTrue(acl.isAllowed("reader", Method.GET, "/logs-2015/_search"));
+    assertTrue(acl.isAllowed("reader", Method.GET, "/_cluster/health"));
+    assertFalse(acl.isAllowed("reader", Method.DELETE, "/logs-2015"));
+    assertFalse(acl.isAllowed("reader", Method.GET, "/secrets/_search"));
+    assertFalse(acl.isEmpty());
+  }
+
+  @Test
+  public void usersAndIpsWithoutRoutesMayRequestAnything() {
+    AccessControl acl = AccessControl.fromSettings(ImmutableSettings.settingsBuilder()
+        .putArray("http.basic.acl.users.reader", "GET /logs/**")
+        .build());
+    assertTrue(acl.isAllowed("admin", Method.DELETE, "/logs"));
+    assertTrue(acl.isAllowed(null, Method.DELETE, "/logs"));
+  }
+
+  @Test
+  public void restrictsWhitelistedIps() {
+    AccessControl acl = AccessControl.fromSettings(ImmutableSettings.settingsBuilder()
+        .putArray("http.basic.acl.ipwhitelist", "GET /_cluster/health")
+        .build());
+    assertTrue(acl.isAllowed(null, Method.GET, "/_cluster/health"));
+    assertFalse(acl.isAllowed(null, Method.GET, "/logs/_search"));
+    assertTrue(acl.isAllowed("admin", Method.GET, "/logs/_search"));
+  }
+
+  @Test
+  public void emptyWithoutSettings() {
+    AccessControl acl = AccessControl.fromSettings(ImmutableSettings.settingsBuilder().build());
+    assertTrue(acl.isEmpty());
+    assertTrue(acl.isAllowed("admin", Method.DELETE, "/"));
+  }
+}
@@ -0,0 +1,84 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.junit.Test;
+
+public class ApiKeysTest {
+
+  private static final String INGEST_HASH = PasswordHash.create("ingest-secret").toString();
+  private static final String REPORTS_HASH = PasswordHash.create("reports-secret").toString();
+
+  private final ApiKeys keys = ApiKeys.fromSettings(ImmutableSettings.settingsBuilder()
+      .put("http.basic.api_keys.ingest1.hash", INGEST_HASH)
+      .put("http.basic.api_keys.ingest1.user", "ingest")
+      .put("http.basic.api_keys.reports.hash", REPORTS_HASH)
+      .build());
+
+  private static String header(String credentials) throws Exception {
+    return "ApiKey " + Base64.encodeBytes(credentials.getBytes("UTF-8"));
+  }
+
+  @Test
+  public void noKeysConfigured() {
+    assertNull(ApiKeys.fromSettings(ImmutableSettings.settingsBuilder().build()));
+  }
+
+  @Test
+  public void validKeysAuthenticateAsTheirPrincipal() throws Exception {
+    assertEquals("ingest", keys.authenticate(header("ingest1:ingest-secret")));
+    assertEquals("reports", keys.authenticate(header("reports:reports-secret")));
+    // verified once, then from the digests
+    assertEquals("ingest", keys.authenticate(header("ingest1:ingest-secret")));
+    assertEquals(2, keys.size());
+  }
+
+  @Test
+  public void invalidKeysAreRefused() throws Exception {
+    assertNull(keys.authenticate(header("ingest1:reports-secret")));
+    assertNull(keys.authenticate(header("unknown:ingest-secret")));
+    assertNull(keys.authenticate(header("ingest1")));
+    assertNull(keys.authenticate("ApiKey !!!"));
+    assertNull(keys.authenticate(null));
+  }
+
+  @Test
+  public void otherSchemesAreIgnored() throws Exception {
+    String basic = "Basic " + Base64.encodeBytes("ingest1:ingest-secret".getBytes("UTF-8"));
+    assertNull(keys.authenticate(basic));
+  }
+
+  @Test
+  public void revokedKeysAreRefusedByTheNextKeys() throws Exception {
+    assertEquals("ingest", keys.authenticate(header("ingest1:ingest-secret")));
+    ApiKeys revoked = ApiKeys.fromSettings(ImmutableSettings.settingsBuilder()
+        .put("http.basic.api_keys.reports.hash", REPORTS_HASH)
+        .build());
+    assertNull(revoked.authenticate(header("ingest1:ingest-secret")));
+    assertEquals("reports", revoked.authenticate(header("reports:reports-secret")));
+  }
+
+  @Test
+  public void listedKeysAreRevoked() throws Exception {
+    ApiKeys revoked = ApiKeys.fromSettings(ImmutableSettings.settingsBuilder()
+        .put("http.basic.api_keys.ingest1.hash", INGEST_HASH)
+        .put("http.basic.api_keys.reports.hash", REPORTS_HASH)
+        .putArray("http.basic.api_keys_revoked", "ingest1")
+        .build());
+    assertNull(revoked.authenticate(header("ingest1:ingest-secret")));
+    assertEquals("reports", revoked.authenticate(header("reports:reports-secret")));
+    assertNull(ApiKeys.fromSettings(ImmutableSettings.settingsBuilder()
+        .put("http.basic.api_keys.ingest1.hash", INGEST_HASH)
+        .putArray("http.basic.api_keys_revoked", "ingest1")
+        .build()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void keysNeedAHash() {
+    ApiKeys.fromSettings(ImmutableSettings.settingsBuilder()
+        .put("http.basic.api_keys.ingest1.user", "ingest")
+        .build());
+  }
+}
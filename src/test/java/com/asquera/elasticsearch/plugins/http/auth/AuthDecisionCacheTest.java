@@ -0,0 +1,62 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+public class AuthDecisionCacheTest {
+
+  private final String header = "Basic YWRtaW46YWRtaW5fcHc=";
+  private final User admin = User.withPassword("admin", "admin_pw");
+
+  @Test
+  public void missReturnsNull() {
+    AuthDecisionCache cache = new AuthDecisionCache(10, TimeValue.timeValueMinutes(1));
+    assertNull(cache.get(header));
+    assertEquals(1, cache.stats().missCount());
+  }
+
+  @Test
+  public void cachesAllowAndDenyDecisions() {
+    AuthDecisionCache cache = new AuthDecisionCache(10, TimeValue.timeValueMinutes(1));
+    cache.put(header, admin);
+    cache.put("Basic Zm9vOmJhcg==", null);
+    assertSame(admin, cache.get(header));
+    assertSame(AuthDecisionCache.DENIED, cache.get("Basic Zm9vOmJhcg=="));
+    assertEquals(2, cache.stats().hitCount());
+    assertEquals(0, cache.stats().missCount());
+    assertEquals(1, cache.deniedStats().hitCount());
+    assertEquals(1, cache.deniedSize());
+  }
+
+  @Test
+  public void deniedHeadersDoNotEvictUsers() {
+    AuthDecisionCache cache = new AuthDecisionCache(16, TimeValue.timeValueMinutes(1));
+    cache.put(header, admin);
+    for (int i = 0; i < 1000; i++) {
+      cache.put("Basic wrong" + i, null);
+    }
+    assertSame(admin, cache.get(header));
+    assertEquals(2, cache.deniedSize());
+    assertEquals(998, cache.stats().evictionCount());
+  }
+
+  @Test
+  public void sizeIsBounded() {
+    AuthDecisionCache cache = new AuthDecisionCache(2, TimeValue.timeValueMinutes(1));
+    cache.put("a", admin);
+    cache.put("b", admin);
+    cache.put("c", admin);
+    assertTrue(cache.size() <= 2);
+    assertTrue(cache.stats().evictionCount() >= 1);
+  }
+
+  @Test
+  public void expiredDecisionsAreNotReturned() throws InterruptedException {
+    AuthDecisionCache cache = new AuthDecisionCache(10, TimeValue.timeValueMillis(1));
+    cache.put(header, admin);
+    Thread.sleep(10);
+    assertNull(cache.get(header));
+  }
+}
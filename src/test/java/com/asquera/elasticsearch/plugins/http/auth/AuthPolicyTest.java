@@ -0,0 +1,233 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.is;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestRequest.Method;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+public class AuthPolicyTest {
+  private final Executor direct = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+  private final File configDir = new File(".");
+
+  @Test
+  public void compilesSettings() {
+    Settings settings = ImmutableSettings.settingsBuilder()
+      .put("http.basic.users.alice.password", "alice_pw")
+      .putArray("http.basic.ipwhitelist", "10.0.0.0/8")
+      .put("http.basic.xforward", "X-Forwarded-For")
+      .build();
+    AuthPolicy policy = AuthPolicy.compile(settings, configDir, direct);
+    assertNotNull(policy.getCredentials().authenticate("alice", "alice_pw"));
+    assertNull(policy.getCredentials().authenticate("admin", "admin_pw"));
+    assertTrue(policy.getWhitelist().contains("10.1.2.3"));
+    assertFalse(policy.getWhitelist().contains("127.0.0.1"));
+    assertThat(policy.getXForwardHeader(), is("X-Forwarded-For"));
+    assertNull(policy.getAuthCache());
+  }
+
+  @Test
+  public void ignoresOtherSettings() {
+    Settings settings = ImmutableSettings.settingsBuilder()
+      .put("http.basic.user", "admin")
+      .build();
+    AuthPolicy policy = AuthPolicy.compile(settings, configDir, direct);
+    Settings other = ImmutableSettings.settingsBuilder()
+      .put(settings)
+      .put("cluster.name", "other")
+      .build();
+    assertTrue(policy.isCompiledFrom(other));
+    assertFalse(policy.isCompiledFrom(ImmutableSettings.settingsBuilder().put("http.basic.user", "root").build()));
+  }
+
+  @Test
+  public void clusterSettingsOverrideNodeSettings() {
+    Settings node = ImmutableSettings.settingsBuilder()
+      .put("http.basic.user", "admin")
+      .put("http.basic.password", "admin_pw")
+      .put("cluster.name", "test")
+      .build();
+    Settings cluster = ImmutableSettings.settingsBuilder()
+      .put("http.basic.user", "root")
+      .put("indices.ttl.interval", "1m")
+      .build();
+    Settings merged = AuthPolicy.overlay(node, cluster);
+    assertThat(merged.get("http.basic.user"), is("root"));
+    assertThat(merged.get("http.basic.password"), is("admin_pw"));
+    assertNull(merged.get("cluster.name"));
+    assertNull(merged.get("indices.ttl.interval"));
+  }
+
+  @Test
+  public void clusterArrayReplacesNodeArray() {
+    Settings node = ImmutableSettings.settingsBuilder()
+      .putArray("http.basic.ipwhitelist", "1.1.1.1", "2.2.2.2", "3.3.3.3")
+      .build();
+    Settings cluster = ImmutableSettings.settingsBuilder()
+      .putArray("http.basic.ipwhitelist", "4.4.4.4")
+      .build();
+    String[] whitelist = AuthPolicy.overlay(node, cluster).getAsArray("http.basic.ipwhitelist");
+    assertThat(whitelist.length, is(1));
+    assertThat(whitelist[0], is("4.4.4.4"));
+  }
+
+  @Test
+  public void clusterValueReplacesNodeArray() {
+    Settings node = ImmutableSettings.settingsBuilder()
+      .putArray("http.basic.ipwhitelist", "1.1.1.1", "2.2.2.2")
+      .build();
+    Settings cluster = ImmutableSettings.settingsBuilder()
+      .put("http.basic.ipwhitelist", false)
+      .build();
+    AuthPolicy policy = AuthPolicy.compile(AuthPolicy.overlay(node, cluster), configDir, direct);
+    assertFalse(policy.getWhitelist().contains("1.1.1.1"));
+  }
+
+  @Test
+  public void removedClusterSettingRestoresNodeSetting() {
+    Settings node = ImmutableSettings.settingsBuilder()
+      .put("http.basic.password", "admin_pw")
+      .build();
+    Settings merged = AuthPolicy.overlay(node, ImmutableSettings.Builder.EMPTY_SETTINGS);
+    assertThat(merged.get("http.basic.password"), is("admin_pw"));
+  }
+
+  @Test
+  public void everyPolicyHasItsOwnDecisionCache() {
+    Settings settings = ImmutableSettings.settingsBuilder()
+      .put("http.basic.cache.size", 10)
+      .build();
+    AuthPolicy first = AuthPolicy.compile(settings, configDir, direct);
+    first.getAuthCache().put("Basic xyz", User.withPassword("admin", "admin_pw"));
+    AuthPolicy second = AuthPolicy.compile(settings, configDir, direct);
+    assertNull(second.getAuthCache().get("Basic xyz"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidSettingsAreRejected() {
+    Settings settings = ImmutableSettings.settingsBuilder()
+      .put("http.basic.users.alice.password_hash", "not a hash")
+      .build();
+    AuthPolicy.compile(settings, configDir, direct);
+  }
+
+  @Test
+  public void compilesPublicRoutes() {
+    AuthPolicy none = AuthPolicy.compile(ImmutableSettings.settingsBuilder().build(), configDir, direct);
+    assertNull(none.getPublicRoutes());
+    Settings settings = ImmutableSettings.settingsBuilder()
+      .putArray("http.basic.public_routes", "HEAD /", "GET /_cluster/health")
+      .build();
+    RouteTrie routes = AuthPolicy.compile(settings, configDir, direct).getPublicRoutes();
+    assertTrue(routes.matches(Method.HEAD, "/"));
+    assertFalse(routes.matches(Method.GET, "/"));
+    assertTrue(routes.matches(Method.GET, "/_cluster/health"));
+    assertFalse(routes.matches(Method.GET, "/_cluster/state"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMalformedPublicRoutes() {
+    AuthPolicy.compile(ImmutableSettings.settingsBuilder()
+      .putArray("http.basic.public_routes", "GET _cluster/health")
+      .build(), configDir, direct);
+  }
+
+  @Test
+  public void onlyConfiguredUsersAreAdmins() {
+    AuthPolicy none = AuthPolicy.compile(ImmutableSettings.settingsBuilder().build(), configDir, direct);
+    assertFalse(none.isAdmin("admin"));
+    AuthPolicy policy = AuthPolicy.compile(ImmutableSettings.settingsBuilder()
+      .putArray("http.basic.admin.users", "alice")
+      .build(), configDir, direct);
+    assertTrue(policy.isAdmin("alice"));
+    assertFalse(policy.isAdmin("admin"));
+    assertFalse(policy.isAdmin(null));
+  }
+
+  @Test
+  public void onlyCompiledSettingsAreDynamic() {
+    assertTrue(AuthPolicy.isDynamic("http.basic.users.bob.password_hash"));
+    assertTrue(AuthPolicy.isDynamic("http.basic.ipwhitelist.0"));
+    assertTrue(AuthPolicy.isDynamic("http.basic.jwt.audience"));
+    assertFalse(AuthPolicy.isDynamic("http.basic.jwt.reload_interval"));
+    assertFalse(AuthPolicy.isDynamic("http.basic.throttle.failures"));
+    assertFalse(AuthPolicy.isDynamic("http.basic.usersx"));
+  }
+
+  @Test
+  public void plainTextPasswordsAreNeverClusterSettings() {
+    assertFalse(AuthPolicy.isDynamic("http.basic.password"));
+    assertFalse(AuthPolicy.isDynamic("http.basic.users.bob.password"));
+    assertFalse(AuthPolicy.isDynamic("http.basic.users.bob"));
+    assertFalse(AuthPolicy.isDynamic("http.basic.users..password_hash"));
+    Settings cluster = ImmutableSettings.settingsBuilder()
+      .put("http.basic.users.bob.password", "bob_pw")
+      .put("http.basic.password", "new_pw")
+      .build();
+    assertThat(AuthPolicy.overlay(ImmutableSettings.Builder.EMPTY_SETTINGS, cluster).getAsMap().size(), is(0));
+  }
+
+  @Test
+  public void sessionKeysAreNeverClusterSettings() {
+    assertFalse(AuthPolicy.isDynamic("http.basic.session.keys.k1"));
+    assertFalse(AuthPolicy.isDynamic("http.basic.session.keys_file"));
+    Settings cluster = ImmutableSettings.settingsBuilder()
+      .put("http.basic.session.keys.k1", "0123456789abcdef0123")
+      .build();
+    Settings overlaid = AuthPolicy.overlay(ImmutableSettings.Builder.EMPTY_SETTINGS, cluster);
+    assertNull(AuthPolicy.compile(overlaid, configDir, direct).getSessions());
+  }
+
+  @Test
+  public void clusterSettingsReadAtStartupAreIgnored() {
+    Settings node = ImmutableSettings.settingsBuilder()
+      .put("http.basic.throttle.failures", 10)
+      .build();
+    Settings cluster = ImmutableSettings.settingsBuilder()
+      .put("http.basic.throttle.failures", 1)
+      .put("http.basic.quota.rate", 5)
+      .build();
+    Settings overlaid = AuthPolicy.overlay(node, cluster);
+    assertThat(overlaid.get("http.basic.throttle.failures"), is("10"));
+    assertNull(overlaid.get("http.basic.quota.rate"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsApiKeysNamedLikeAUser() {
+    AuthPolicy.compile(ImmutableSettings.settingsBuilder()
+      .put("http.basic.users.alice.password", "alice_pw")
+      .put("http.basic.api_keys.alice.hash", PasswordHash.create("key-secret").toString())
+      .build(), configDir, direct);
+  }
+
+  @Test
+  public void acceptsApiKeysOfAUserByName() {
+    AuthPolicy policy = AuthPolicy.compile(ImmutableSettings.settingsBuilder()
+      .put("http.basic.users.alice.password", "alice_pw")
+      .put("http.basic.api_keys.alice.hash", PasswordHash.create("key-secret").toString())
+      .put("http.basic.api_keys.alice.user", "alice")
+      .build(), configDir, direct);
+    assertThat(policy.getApiKeys().size(), is(1));
+  }
+
+  @Test
+  public void apiKeysAreRevokedWithAClusterSetting() {
+    Settings node = ImmutableSettings.settingsBuilder()
+      .put("http.basic.api_keys.ingest1.hash", PasswordHash.create("key-secret").toString())
+      .build();
+    Settings cluster = ImmutableSettings.settingsBuilder()
+      .putArray("http.basic.api_keys_revoked", "ingest1")
+      .build();
+    assertNull(AuthPolicy.compile(AuthPolicy.overlay(node, cluster), configDir, direct).getApiKeys());
+  }
+}
@@ -0,0 +1,114 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+import java.util.List;
+
+public class BanListTest {
+
+  private static final long SECOND = 1000000000L;
+
+  private final BanList bans = new BanList(TimeValue.timeValueSeconds(10), TimeValue.timeValueSeconds(60),
+      1000, TimeValue.timeValueSeconds(1));
+
+  private long[] ip(String ip) {
+    long[] out = new long[2];
+    assertTrue(IpAddresses.parse(ip, 0, ip.length(), out));
+    return out;
+  }
+
+  @Test
+  public void bansUntilTheEndOfTheBan() {
+    long[] ip = ip("10.0.0.1");
+    long now = 100 * SECOND;
+    assertTrue(bans.isEmpty());
+    assertEquals(10 * SECOND, bans.ban(ip[0], ip[1], now));
+    assertTrue(bans.isBanned(ip[0], ip[1], now));
+    assertTrue(bans.isBanned(ip[0], ip[1], now + 9 * SECOND));
+    assertFalse(bans.isBanned(ip[0], ip[1], now + 10 * SECOND));
+    long[] other = ip("10.0.0.2");
+    assertFalse(bans.isBanned(other[0], other[1], now));
+  }
+
+  @Test
+  public void repeatedBansLastTwiceAsLong() {
+    long[] ip = ip("2001:db8::1");
+    long now = 100 * SECOND;
+    assertEquals(10 * SECOND, bans.ban(ip[0], ip[1], now));
+    now += 15 * SECOND;
+    assertEquals(20 * SECOND, bans.ban(ip[0], ip[1], now));
+    now += 25 * SECOND;
+    assertEquals(40 * SECOND, bans.ban(ip[0], ip[1], now));
+    now += 45 * SECOND;
+    assertEquals(60 * SECOND, bans.ban(ip[0], ip[1], now));
+    assertEquals(4, bans.bans(now).get(0).getStrikes());
+  }
+
+  @Test
+  public void ipsAreForgottenAfterTheirProbation() {
+    long[] ip = ip("10.0.0.1");
+    long now = 100 * SECOND;
+    bans.ban(ip[0], ip[1], now);
+    for (long t = now; t <= now + 30 * SECOND; t += SECOND) {
+      bans.expire(t);
+    }
+    assertEquals(0, bans.size());
+    // the next ban is a first one again
+    assertEquals(10 * SECOND, bans.ban(ip[0], ip[1], now + 30 * SECOND));
+  }
+
+  @Test
+  public void expiryCatchesUpAfterALongPause() {
+    long now = 100 * SECOND;
+    for (int i = 0; i < 500; i++) {
+      bans.ban(0, i, now + i * SECOND / 10);
+    }
+    assertEquals(500, bans.size());
+    bans.expire(now);
+    bans.expire(now + 3600 * SECOND);
+    assertEquals(0, bans.size());
+  }
+
+  @Test
+  public void liftForgetsTheIp() {
+    long[] ip = ip("10.0.0.1");
+    long now = 100 * SECOND;
+    bans.ban(ip[0], ip[1], now);
+    bans.ban(ip[0], ip[1], now);
+    assertTrue(bans.lift(ip[0], ip[1], now));
+    assertFalse(bans.isBanned(ip[0], ip[1], now));
+    assertFalse(bans.lift(ip[0], ip[1], now));
+    assertEquals(10 * SECOND, bans.ban(ip[0], ip[1], now));
+  }
+
+  @Test
+  public void explicitDurationIgnoresTheBackoff() {
+    long[] ip = ip("10.0.0.1");
+    long now = 100 * SECOND;
+    assertTrue(bans.ban(ip[0], ip[1], now, TimeValue.timeValueHours(2)));
+    assertTrue(bans.isBanned(ip[0], ip[1], now + 3600 * SECOND));
+    List<BanList.Ban> current = bans.bans(now);
+    assertEquals(1, current.size());
+    assertEquals("10.0.0.1", current.get(0).ip());
+    assertEquals(7200 * SECOND, current.get(0).getRemainingNanos());
+  }
+
+  @Test
+  public void sizeIsBounded() {
+    BanList small = new BanList(TimeValue.timeValueSeconds(10), TimeValue.timeValueSeconds(60),
+        16, TimeValue.timeValueSeconds(1));
+    long now = 100 * SECOND;
+    int banned = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (small.ban(0, i, now) > 0) {
+        banned++;
+      }
+    }
+    assertEquals(banned, small.size());
+    assertTrue(small.size() <= 16);
+    assertEquals(1000 - banned, small.getRejected());
+  }
+}
@@ -0,0 +1,99 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.Matchers.lessThan;
+
+import org.elasticsearch.common.Base64;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BasicAuthParserTest {
+
+  private final CredentialStore credentials = store();
+
+  private static CredentialStore store() {
+    List<User> users = new ArrayList<User>();
+    users.add(User.withPassword("admin", "admin_pw"));
+    users.add(User.withPasswordHash("alice", PasswordHash.create("alice_pw")));
+    return new CredentialStore(users, 16);
+  }
+
+  private String header(String credentials) throws Exception {
+    return "Basic " + Base64.encodeBytes(credentials.getBytes("UTF-8"));
+  }
+
+  @Test
+  public void validCredentialsAuthenticate() throws Exception {
+    assertEquals("admin", BasicAuthParser.authenticate(header("admin:admin_pw"), credentials).getName());
+    assertEquals("alice", BasicAuthParser.authenticate(header("alice:alice_pw"), credentials).getName());
+  }
+
+  @Test
+  public void passwordMayContainColons() throws Exception {
+    List<User> users = new ArrayList<User>();
+    users.add(User.withPassword("admin", "a:b"));
+    assertNotNull(BasicAuthParser.authenticate(header("admin:a:b"),
+          new CredentialStore(users, 16)));
+  }
+
+  @Test
+  public void wrongCredentialsAreRejected() throws Exception {
+    assertNull(BasicAuthParser.authenticate(header("admin:wrong"), credentials));
+    assertNull(BasicAuthParser.authenticate(header("admin:admin_pw2"), credentials));
+    assertNull(BasicAuthParser.authenticate(header("nobody:admin_pw"), credentials));
+    assertNull(BasicAuthParser.authenticate(header("admin"), credentials));
+    assertNull(BasicAuthParser.authenticate(header(""), credentials));
+  }
+
+  @Test
+  public void malformedHeadersAreRejected() throws Exception {
+    assertNull(BasicAuthParser.authenticate(null, credentials));
+    assertNull(BasicAuthParser.authenticate("", credentials));
+    assertNull(BasicAuthParser.authenticate("Basic", credentials));
+    assertNull(BasicAuthParser.authenticate("Bearer YWRtaW46YWRtaW5fcHc=", credentials));
+    assertNull(BasicAuthParser.authenticate("basic YWRtaW46YWRtaW5fcHc=", credentials));
+    assertNull(BasicAuthParser.authenticate("Basic YWRtaW46YWRtaW5fcHc*", credentials));
+    assertNull(BasicAuthParser.authenticate("Basic YWRtaW46YWRtaW5fcHc===", credentials));
+  }
+
+  @Test
+  public void decodesAllPaddings() throws Exception {
+    byte[] out = new byte[8];
+    for (String s : new String[] { "a", "ab", "abc", "abcd" }) {
+      String encoded = Base64.encodeBytes(s.getBytes("UTF-8"));
+      assertEquals(s.length(), BasicAuthParser.decode(encoded, 0, out));
+      assertEquals(s, new String(out, 0, s.length(), "UTF-8"));
+    }
+  }
+
+  @Test
+  public void authenticationDoesNotAllocate() throws Exception {
+    com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    if (!threads.isThreadAllocatedMemorySupported()) {
+      return;
+    }
+    threads.setThreadAllocatedMemoryEnabled(true);
+    String plain = header("admin:admin_pw");
+    String hashed = header("alice:alice_pw");
+    String wrong = header("admin:wrong");
+    int iterations = 100000;
+    for (int i = 0; i < iterations; i++) {
+      BasicAuthParser.authenticate(plain, credentials);
+      BasicAuthParser.authenticate(hashed, credentials);
+      BasicAuthParser.authenticate(wrong, credentials);
+    }
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < iterations; i++) {
+      assertNotNull(BasicAuthParser.authenticate(plain, credentials));
+      assertNotNull(BasicAuthParser.authenticate(hashed, credentials));
+      assertNull(BasicAuthParser.authenticate(wrong, credentials));
+    }
+    long perRequest = (threads.getThreadAllocatedBytes(thread) - before) / (3L * iterations);
+    assertThat(perRequest, lessThan(8L));
+  }
+}
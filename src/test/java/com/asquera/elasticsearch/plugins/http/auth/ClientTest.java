@@ -226,4 +226,59 @@ public class ClientTest{
     assertFalse(c.isWhitelisted());
     assertFalse(c.isAuthorized());
   }
+
+  @Test
+  public void proxiesWithWhitespaceAreTrusted() throws UnknownHostException {
+    Client c = new Client(
+      InetAddress.getByName(trustedRequestIp),
+      new InetAddressWhitelist(whitelist),
+      new XForwardedFor("9.9.9.9, 8.8.8.8 , 7.7.7.7"),
+      new ProxyChains(trustedIps));
+    assertThat(c.ip(), is(whitelistedIp));
+    assertTrue(c.isTrusted());
+    assertTrue(c.isWhitelisted());
+    assertTrue(c.isAuthorized());
+  }
+
+  @Test
+  public void xForwardedForExceedingLimitsIsNotAuthorized() throws UnknownHostException {
+    Client c = new Client(
+      InetAddress.getByName(trustedRequestIp),
+      new InetAddressWhitelist(whitelist),
+      new XForwardedFor(xForwardedFor, 2, 100),
+      new ProxyChains(trustedIps));
+    assertThat(c.ip(), is(trustedRequestIp));
+    assertFalse(c.isTrusted());
+    assertFalse(c.isWhitelisted());
+    assertFalse(c.isAuthorized());
+  }
+  @Test
+  public void untrustedXForwardedForDoesNotPickTheAccountableIp() throws UnknownHostException {
+    Client c = new Client(
+      InetAddress.getByName(untrustedRequestIp),
+      new InetAddressWhitelist(whitelist),
+      new XForwardedFor("1.2.3.4"),
+      new ProxyChains(trustedIps));
+    long[] ip = new long[2];
+    assertTrue(c.ipAddress(ip));
+    long[] expected = new long[2];
+    IpAddresses.parse(untrustedRequestIp, 0, untrustedRequestIp.length(), expected);
+    assertArrayEquals(expected, ip);
+    assertThat(c.accountableIp(), is(untrustedRequestIp));
+  }
+
+  @Test
+  public void trustedXForwardedForPicksTheAccountableIp() throws UnknownHostException {
+    Client c = new Client(
+      InetAddress.getByName(trustedRequestIp),
+      new InetAddressWhitelist(whitelist),
+      new XForwardedFor(xForwardedFor),
+      new ProxyChains(trustedIps));
+    long[] ip = new long[2];
+    assertTrue(c.ipAddress(ip));
+    long[] expected = new long[2];
+    IpAddresses.parse(whitelistedIp, 0, whitelistedIp.length(), expected);
+    assertArrayEquals(expected, ip);
+    assertThat(c.accountableIp(), is(whitelistedIp));
+  }
 }
@@ -0,0 +1,135 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CredentialStoreTest {
+
+  private final PasswordHash aliceHash = PasswordHash.create("alice_pw");
+
+  private CredentialStore store() {
+    List<User> users = new ArrayList<User>();
+    users.add(User.withPassword("admin", "admin_pw"));
+    users.add(User.withPasswordHash("alice", aliceHash));
+    return new CredentialStore(users, 16);
+  }
+
+  @Test
+  public void plainPasswordUserAuthenticates() {
+    assertEquals("admin", store().authenticate("admin", "admin_pw").getName());
+    assertNull(store().authenticate("admin", "wrong"));
+  }
+
+  @Test
+  public void hashedPasswordUserAuthenticates() {
+    CredentialStore store = store();
+    assertEquals("alice", store.authenticate("alice", "alice_pw").getName());
+    // second time served from the verified credentials
+    assertEquals("alice", store.authenticate("alice", "alice_pw").getName());
+    assertNull(store.authenticate("alice", "wrong"));
+  }
+
+  @Test
+  public void gateHoldsBackOnlyHashVerifications() {
+    final int[] asked = new int[1];
+    CredentialStore.HashGate closed = new CredentialStore.HashGate() {
+      @Override
+      public boolean tryVerify() {
+        asked[0]++;
+        return false;
+      }
+    };
+    CredentialStore store = store();
+    byte[] alice = CredentialStore.utf8("alice:alice_pw");
+    assertNull(store.authenticate(alice, 0, alice.length, closed));
+    byte[] admin = CredentialStore.utf8("admin:admin_pw");
+    assertNotNull(store.authenticate(admin, 0, admin.length, closed));
+    assertEquals(1, asked[0]);
+    // once verified, the gate is not asked anymore
+    assertNotNull(store.authenticate("alice", "alice_pw"));
+    assertNotNull(store.authenticate(alice, 0, alice.length, closed));
+    assertEquals(1, asked[0]);
+  }
+
+  @Test
+  public void unknownUserIsRejected() {
+    assertNull(store().authenticate("bob", "admin_pw"));
+  }
+
+  @Test
+  public void verifiedPasswordOfOneUserDoesNotAuthenticateAnother() {
+    List<User> users = new ArrayList<User>();
+    users.add(User.withPasswordHash("alice", aliceHash));
+    users.add(User.withPasswordHash("bob", PasswordHash.create("bob_pw")));
+    CredentialStore store = new CredentialStore(users, 16);
+    assertNotNull(store.authenticate("alice", "alice_pw"));
+    assertNull(store.authenticate("bob", "alice_pw"));
+  }
+
+  @Test
+  public void defaultsToAdminUser() {
+    CredentialStore store = CredentialStore.fromSettings(
+        ImmutableSettings.settingsBuilder().build(), null);
+    assertEquals(1, store.size());
+    assertNotNull(store.authenticate("admin", "admin_pw"));
+  }
+
+  @Test
+  public void usersFromSettings() {
+    Settings settings = ImmutableSettings.settingsBuilder()
+      .put("http.basic.users.alice.password_hash", aliceHash.toString())
+      .put("http.basic.users.bob.password", "bob_pw")
+      .build();
+    CredentialStore store = CredentialStore.fromSettings(settings, null);
+    assertEquals(2, store.size());
+    assertNotNull(store.authenticate("alice", "alice_pw"));
+    assertNotNull(store.authenticate("bob", "bob_pw"));
+    assertNull(store.authenticate("admin", "admin_pw"));
+  }
+
+  @Test
+  public void usersFromFile() throws IOException {
+    File file = File.createTempFile("users", ".txt");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(("# comment\n\nalice:" + aliceHash + "\n").getBytes("UTF-8"));
+    out.close();
+    Settings settings = ImmutableSettings.settingsBuilder()
+      .put("http.basic.users_file", file.getAbsolutePath())
+      .put("http.basic.user", "admin")
+      .build();
+    CredentialStore store = CredentialStore.fromSettings(settings, null);
+    assertEquals(2, store.size());
+    assertNotNull(store.authenticate("alice", "alice_pw"));
+    assertNotNull(store.authenticate("admin", "admin_pw"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void refusesTheDefaultUserForAnEmptyUsersFile() throws IOException {
+    File file = File.createTempFile("users", ".txt");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write("# no users yet\nmalformed\n".getBytes("UTF-8"));
+    out.close();
+    CredentialStore.fromSettings(ImmutableSettings.settingsBuilder()
+      .put("http.basic.users_file", file.getAbsolutePath())
+      .build(), null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUsersWithoutPassword() {
+    CredentialStore.fromSettings(ImmutableSettings.settingsBuilder()
+      .put("http.basic.users.alice.password_hash", aliceHash.toString())
+      .put("http.basic.users.bob.passwd", "bob_pw")
+      .build(), null);
+  }
+}
@@ -4,8 +4,11 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import org.elasticsearch.common.unit.TimeValue;
+
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
 
 public class InetAddressWhitelistTest {
 
@@ -52,4 +55,96 @@ public class InetAddressWhitelistTest {
     String invalidIp = "555.555.555.555";
     assertFalse(whitelist(invalidIp).contains(invalidIp));
   }
+
+  @Test
+  public void ipv4RangeContainsAddresses() throws UnknownHostException {
+    InetAddressWhitelist w = whitelist("10.0.0.0/8");
+    assertTrue(w.contains("10.0.0.1"));
+    assertTrue(w.contains("10.255.255.255"));
+    assertTrue(w.contains(InetAddress.getByName("10.1.2.3")));
+    assertFalse(w.contains("11.0.0.0"));
+    assertFalse(w.contains("9.255.255.255"));
+  }
+
+  @Test
+  public void ipv6RangeContainsAddresses() throws UnknownHostException {
+    InetAddressWhitelist w = whitelist("fd00::/8");
+    assertTrue(w.contains("fd12:3456::1"));
+    assertTrue(w.contains(InetAddress.getByName("fdff::")));
+    assertFalse(w.contains("fe00::1"));
+    assertFalse(w.contains("10.0.0.1"));
+  }
+
+  @Test
+  public void rangesAndIpsCanBeMixed() throws UnknownHostException {
+    String[] w = { containedIp, "192.168.0.0/16", "192.168.1.0/24" };
+    InetAddressWhitelist whitelist = new InetAddressWhitelist(w);
+    assertTrue(whitelist.contains(containedIp));
+    assertTrue(whitelist.contains("192.168.1.1"));
+    assertTrue(whitelist.contains("192.168.2.1"));
+    assertFalse(whitelist.contains(notContainedIp));
+  }
+
+  @Test
+  public void invalidRangeIsDropped() throws UnknownHostException {
+    assertFalse(whitelist("10.0.0.0/33").contains("10.0.0.1"));
+    assertFalse(whitelist("10.0.0.0/x").contains("10.0.0.1"));
+    assertFalse(whitelist("localhost/8").contains("127.0.0.1"));
+  }
+
+  @Test
+  public void ipv6TextualVariantsMatch() throws UnknownHostException {
+    assertTrue(whitelist("::1").contains("0:0:0:0:0:0:0:1"));
+    assertTrue(whitelist("0:0:0:0:0:0:0:1").contains("::1"));
+  }
+
+  @Test
+  public void ipv4MappedIpv6MatchesIpv4() throws UnknownHostException {
+    assertTrue(whitelist(containedIp).contains("::ffff:" + containedIp));
+  }
+
+  @Test
+  public void matchesPartOfAString() throws UnknownHostException {
+    String xForwardedFor = notContainedIp + "," + containedIp;
+    InetAddressWhitelist w = whitelist(containedIp);
+    assertTrue(w.contains(xForwardedFor, notContainedIp.length() + 1, xForwardedFor.length()));
+    assertFalse(w.contains(xForwardedFor, 0, notContainedIp.length()));
+  }
+
+  private static final Executor never = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+    }
+  };
+
+  private static final Executor direct = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  @Test
+  public void literalsAreNotHostnames() {
+    String[] w = { containedIp, "::1", "10.0.0.0/8" };
+    assertFalse(new InetAddressWhitelist(w).hasHostnames());
+    assertTrue(whitelist(localhost).hasHostnames());
+  }
+
+  @Test
+  public void hostnameNotResolvedInTimeIsResolvedLater() throws UnknownHostException {
+    String[] w = { localhost };
+    InetAddressWhitelist whitelist = new InetAddressWhitelist(w, never, TimeValue.timeValueMillis(10));
+    assertFalse(whitelist.contains(InetAddress.getByName(localhost)));
+    whitelist.resolve(direct, TimeValue.timeValueSeconds(5));
+    assertTrue(whitelist.contains(InetAddress.getByName(localhost)));
+  }
+
+  @Test
+  public void failedResolutionKeepsPreviousAddresses() throws UnknownHostException {
+    String[] w = { localhost };
+    InetAddressWhitelist whitelist = new InetAddressWhitelist(w, direct, TimeValue.timeValueSeconds(5));
+    whitelist.resolve(never, TimeValue.timeValueMillis(10));
+    assertTrue(whitelist.contains(InetAddress.getByName(localhost)));
+  }
 }
@@ -0,0 +1,31 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class IpAddressSetTest {
+
+  @Test
+  public void containsAddedAddresses() {
+    IpAddressSet set = new IpAddressSet();
+    assertTrue(set.add(1, 2));
+    assertFalse(set.add(1, 2));
+    assertTrue(set.contains(1, 2));
+    assertFalse(set.contains(2, 1));
+    assertEquals(1, set.size());
+  }
+
+  @Test
+  public void growsBeyondInitialCapacity() {
+    IpAddressSet set = new IpAddressSet(2);
+    for (long i = 0; i < 10000; i++) {
+      set.add(i << 32, i);
+    }
+    assertEquals(10000, set.size());
+    for (long i = 0; i < 10000; i++) {
+      assertTrue(set.contains(i << 32, i));
+      assertFalse(set.contains(i << 32, i + 1));
+    }
+  }
+}
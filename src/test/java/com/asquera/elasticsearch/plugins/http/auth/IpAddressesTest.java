@@ -0,0 +1,107 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+public class IpAddressesTest {
+
+  private long ipv4(String s) {
+    return IpAddresses.parseIpv4(s, 0, s.length());
+  }
+
+  private long[] ipv6(String s) {
+    long[] out = new long[2];
+    return IpAddresses.parseIpv6(s, 0, s.length(), out) ? out : null;
+  }
+
+  private void assertSameAsInetAddress(String s) throws Exception {
+    byte[] bytes = InetAddress.getByName(s).getAddress();
+    long[] parsed = ipv6(s);
+    assertNotNull(s, parsed);
+    assertEquals(s, IpPrefixTrie.high(bytes), parsed[0]);
+    assertEquals(s, IpPrefixTrie.low(bytes), parsed[1]);
+  }
+
+  @Test
+  public void parsesIpv4() {
+    assertEquals(0x01020304L, ipv4("1.2.3.4"));
+    assertEquals(0xffffffffL, ipv4("255.255.255.255"));
+    assertEquals(0L, ipv4("0.0.0.0"));
+  }
+
+  @Test
+  public void rejectsInvalidIpv4() {
+    String[] invalid = { "", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1.2.3.", ".1.2.3",
+      "1..2.3", "1.2.3.4 ", "a.b.c.d", "1234.1.1.1", "localhost", "555.555.555.555" };
+    for (String s : invalid) {
+      assertEquals(s, -1L, ipv4(s));
+    }
+  }
+
+  @Test
+  public void parsesIpv4InsideAString() {
+    String s = "1.1.1.1, 2.2.2.2";
+    assertEquals(0x02020202L, IpAddresses.parseIpv4(s, 9, s.length()));
+  }
+
+  @Test
+  public void parsesIpv6LikeInetAddress() throws Exception {
+    String[] valid = { "::1", "::", "1::", "fd00::1", "2001:db8::8a2e:370:7334",
+      "2001:0db8:0000:0000:0000:8a2e:0370:7334", "1:2:3:4:5:6:7:8", "1::8",
+      "1:2:3:4:5:6::8", "::2:3:4:5:6:7:8", "FD00::ABCD", "64:ff9b::192.0.2.33" };
+    for (String s : valid) {
+      assertSameAsInetAddress(s);
+    }
+  }
+
+  @Test
+  public void parsesIpv4MappedIpv6() {
+    long[] parsed = ipv6("::ffff:10.0.0.1");
+    assertTrue(IpAddresses.isIpv4Mapped(parsed[0], parsed[1]));
+    assertEquals(0x0a000001L, parsed[1] & 0xffffffffL);
+  }
+
+  @Test
+  public void rejectsInvalidIpv6() {
+    String[] invalid = { ":", ":::", "1:2", "1::2::3", "1:2:3:4:5:6:7:8:9", "12345::",
+      "g::1", ":1::", "1::2:", "1:2:3:4:5:6:7::8", "::1.2.3", "1.2.3.4::", "fe80::1%eth0" };
+    for (String s : invalid) {
+      assertNull(s, ipv6(s));
+    }
+  }
+
+  @Test
+  public void parsesIpv4AndIpv4MappedTheSame() throws Exception {
+    long[] ipv4 = new long[2];
+    long[] mapped = new long[2];
+    long[] bytes = new long[2];
+    assertTrue(IpAddresses.parse("10.0.0.1", 0, 8, ipv4));
+    assertTrue(IpAddresses.parse("::ffff:10.0.0.1", 0, 15, mapped));
+    IpAddresses.fromBytes(InetAddress.getByName("10.0.0.1").getAddress(), bytes);
+    assertArrayEquals(mapped, ipv4);
+    assertArrayEquals(mapped, bytes);
+    assertFalse(IpAddresses.parse("example.com", 0, 11, ipv4));
+  }
+
+  @Test
+  public void parsesIpv6LikeFromBytes() throws Exception {
+    long[] parsed = new long[2];
+    long[] bytes = new long[2];
+    assertTrue(IpAddresses.parse("2001:db8::1", 0, 11, parsed));
+    IpAddresses.fromBytes(InetAddress.getByName("2001:db8::1").getAddress(), bytes);
+    assertArrayEquals(bytes, parsed);
+  }
+
+  @Test
+  public void formatsParsedAddresses() {
+    long[] parsed = new long[2];
+    String[] addresses = { "10.0.0.1", "2001:db8:0:0:0:0:0:1", "fd00:0:0:0:0:0:0:abcd" };
+    for (String s : addresses) {
+      assertTrue(IpAddresses.parse(s, 0, s.length(), parsed));
+      assertEquals(s, IpAddresses.format(parsed[0], parsed[1]));
+    }
+  }
+}
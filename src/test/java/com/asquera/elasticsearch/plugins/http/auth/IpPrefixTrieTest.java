@@ -0,0 +1,80 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class IpPrefixTrieTest {
+
+  private byte[] ipv4(int a, int b, int c, int d) {
+    return new byte[] { (byte) a, (byte) b, (byte) c, (byte) d };
+  }
+
+  @Test
+  public void emptyTrieContainsNothing() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    assertTrue(trie.isEmpty());
+    assertFalse(trie.contains(ipv4(1, 1, 1, 1)));
+  }
+
+  @Test
+  public void fullLengthPrefixIsASingleAddress() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    trie.add(ipv4(1, 1, 1, 1), 32);
+    assertTrue(trie.contains(ipv4(1, 1, 1, 1)));
+    assertFalse(trie.contains(ipv4(1, 1, 1, 2)));
+  }
+
+  @Test
+  public void prefixContainsRange() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    trie.add(ipv4(172, 16, 0, 0), 12);
+    assertTrue(trie.contains(ipv4(172, 16, 0, 0)));
+    assertTrue(trie.contains(ipv4(172, 31, 255, 255)));
+    assertFalse(trie.contains(ipv4(172, 32, 0, 0)));
+    assertFalse(trie.contains(ipv4(172, 15, 255, 255)));
+  }
+
+  @Test
+  public void zeroLengthPrefixContainsEverything() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    trie.add(ipv4(0, 0, 0, 0), 0);
+    assertTrue(trie.contains(ipv4(8, 8, 8, 8)));
+  }
+
+  @Test
+  public void shorterPrefixCoversLongerOnes() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    trie.add(ipv4(10, 1, 0, 0), 16);
+    trie.add(ipv4(10, 0, 0, 0), 8);
+    assertTrue(trie.contains(ipv4(10, 2, 0, 0)));
+  }
+
+  @Test
+  public void ipv6PrefixBeyondFirst64Bits() {
+    byte[] address = new byte[16];
+    address[0] = (byte) 0x20;
+    address[1] = (byte) 0x01;
+    address[9] = (byte) 0x80;
+    IpPrefixTrie trie = new IpPrefixTrie();
+    trie.add(address, 73);
+    byte[] inside = address.clone();
+    inside[15] = 1;
+    byte[] outside = address.clone();
+    outside[9] = (byte) 0x40;
+    assertTrue(trie.contains(inside));
+    assertFalse(trie.contains(outside));
+  }
+
+  @Test
+  public void manyAddressesGrowTheTrie() {
+    IpPrefixTrie trie = new IpPrefixTrie();
+    for (int i = 0; i < 1000; i++) {
+      trie.add(ipv4(10, i >> 8, i & 0xff, 1), 32);
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(trie.contains(ipv4(10, i >> 8, i & 0xff, 1)));
+      assertFalse(trie.contains(ipv4(10, i >> 8, i & 0xff, 2)));
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+public class IpThrottleTest {
+
+  private static final long SECOND = 1000000000L;
+
+  private long[] ip(String ip) {
+    long[] out = new long[2];
+    assertTrue(IpAddresses.parse(ip, 0, ip.length(), out));
+    return out;
+  }
+
+  @Test
+  public void throttlesOnceTheBudgetIsSpent() {
+    IpThrottle throttle = new IpThrottle(new RateLimit(2, TimeValue.timeValueSeconds(2)), 100);
+    long[] ip = ip("10.0.0.1");
+    long now = 100 * SECOND;
+    assertFalse(throttle.isThrottled(ip[0], ip[1], now));
+    throttle.recordFailure(ip[0], ip[1], now);
+    assertFalse(throttle.isThrottled(ip[0], ip[1], now));
+    throttle.recordFailure(ip[0], ip[1], now);
+    assertTrue(throttle.isThrottled(ip[0], ip[1], now));
+    assertFalse(throttle.isThrottled(ip[0], ip[1], now + SECOND));
+  }
+
+  @Test
+  public void ipsHaveTheirOwnBudget() {
+    IpThrottle throttle = new IpThrottle(new RateLimit(1, TimeValue.timeValueSeconds(1)), 100);
+    long[] first = ip("10.0.0.1");
+    long[] second = ip("::ffff:10.0.0.2");
+    long[] third = ip("2001:db8::1");
+    long now = 100 * SECOND;
+    throttle.recordFailure(first[0], first[1], now);
+    assertTrue(throttle.isThrottled(first[0], first[1], now));
+    assertFalse(throttle.isThrottled(second[0], second[1], now));
+    assertFalse(throttle.isThrottled(third[0], third[1], now));
+    long[] mapped = ip("::ffff:10.0.0.1");
+    assertTrue(throttle.isThrottled(mapped[0], mapped[1], now));
+  }
+
+  @Test
+  public void sizeIsBounded() {
+    IpThrottle throttle = new IpThrottle(new RateLimit(5, TimeValue.timeValueMinutes(1)), 128);
+    long now = 100 * SECOND;
+    for (int i = 0; i < 100000; i++) {
+      throttle.recordFailure(0, 0xffff00000000L | i, now);
+      assertTrue(throttle.size() <= 128);
+    }
+    // the most recent failure is always tracked
+    for (int i = 0; i < 4; i++) {
+      throttle.recordFailure(0, 0xffff00000000L | 99999, now);
+    }
+    assertTrue(throttle.isThrottled(0, 0xffff00000000L | 99999, now));
+  }
+
+  @Test
+  public void refilledBucketsAreEvictedFirst() {
+    IpThrottle throttle = new IpThrottle(new RateLimit(1, TimeValue.timeValueSeconds(1)), 64);
+    long now = 100 * SECOND;
+    for (int i = 0; i < 64 * 4; i++) {
+      throttle.recordFailure(0, i, now);
+    }
+    for (int i = 0; i < 64 * 4; i++) {
+      throttle.recordFailure(1, i, now + 10 * SECOND);
+    }
+    assertTrue(throttle.size() <= 64);
+    int throttled = 0;
+    for (int i = 0; i < 64 * 4; i++) {
+      if (throttle.isThrottled(1, i, now + 10 * SECOND)) {
+        throttled++;
+      }
+      assertFalse(throttle.isThrottled(0, i, now + 10 * SECOND));
+    }
+    assertTrue(throttled > 0);
+  }
+}
@@ -0,0 +1,208 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+
+public class JwtVerifierTest {
+
+  private static final long NOW = 1430000000000L;
+  private static final byte[] SECRET = "a shared secret of the hs256 key".getBytes();
+  private static final KeyPair RSA = rsaKeyPair();
+
+  private static KeyPair rsaKeyPair() {
+    try {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+      generator.initialize(2048);
+      return generator.generateKeyPair();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String base64Url(byte[] bytes) {
+    return Base64.encodeBytes(bytes).replace('+', '-').replace('/', '_').replace("=", "");
+  }
+
+  private static String base64Url(String s) throws Exception {
+    return base64Url(s.getBytes("UTF-8"));
+  }
+
+  private static String unsigned(BigInteger value) {
+    byte[] bytes = value.toByteArray();
+    return base64Url(bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes);
+  }
+
+  private static File jwks() throws Exception {
+    RSAPublicKey key = (RSAPublicKey) RSA.getPublic();
+    String jwks = "{\"keys\":["
+        + "{\"kty\":\"oct\",\"kid\":\"hs\",\"k\":\"" + base64Url(SECRET) + "\"},"
+        + "{\"kty\":\"RSA\",\"kid\":\"rs\",\"use\":\"sig\",\"n\":\"" + unsigned(key.getModulus())
+        + "\",\"e\":\"" + unsigned(key.getPublicExponent()) + "\"}]}";
+    return write(jwks);
+  }
+
+  private static File write(String content) throws Exception {
+    File file = File.createTempFile("jwks", ".json");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(content.getBytes("UTF-8"));
+    out.close();
+    return file;
+  }
+
+  private static String hs256(String kid, String claims) throws Exception {
+    String signed = base64Url("{\"alg\":\"HS256\",\"kid\":\"" + kid + "\"}") + "." + base64Url(claims);
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(SECRET, "HmacSHA256"));
+    return "Bearer " + signed + "." + base64Url(mac.doFinal(signed.getBytes("UTF-8")));
+  }
+
+  private static String rs256(String kid, String claims) throws Exception {
+    String signed = base64Url("{\"alg\":\"RS256\",\"kid\":\"" + kid + "\"}") + "." + base64Url(claims);
+    Signature rsa = Signature.getInstance("SHA256withRSA");
+    rsa.initSign(RSA.getPrivate());
+    rsa.update(signed.getBytes("UTF-8"));
+    return "Bearer " + signed + "." + base64Url(rsa.sign());
+  }
+
+  private static String claims(String sub, long exp) {
+    return "{\"sub\":\"" + sub + "\",\"aud\":[\"other\",\"elasticsearch\"],\"exp\":" + exp + "}";
+  }
+
+  private JwtVerifier verifier() throws Exception {
+    return JwtVerifier.fromSettings(ImmutableSettings.settingsBuilder()
+        .put("http.basic.jwt.jwks_file", jwks().getAbsolutePath())
+        .put("http.basic.jwt.audience", "elasticsearch")
+        .put("http.basic.jwt.leeway", "0s")
+        .build(), new File("."));
+  }
+
+  @Test
+  public void disabledWithoutJwksFile() {
+    assertNull(JwtVerifier.fromSettings(ImmutableSettings.settingsBuilder().build(), new File(".")));
+  }
+
+  @Test
+  public void verifiesHs256AndRs256Tokens() throws Exception {
+    JwtVerifier jwt = verifier();
+    long exp = NOW / 1000 + 60;
+    assertEquals("jwt:alice", jwt.authenticate(hs256("hs", claims("alice", exp)), NOW));
+    assertEquals("jwt:bob", jwt.authenticate(rs256("rs", claims("bob", exp)), NOW));
+    assertEquals(2, jwt.cachedTokens());
+    assertEquals("jwt:bob", jwt.authenticate(rs256("rs", claims("bob", exp)), NOW));
+  }
+
+  @Test
+  public void refusesExpiredTokensEvenWhenCached() throws Exception {
+    JwtVerifier jwt = verifier();
+    long exp = NOW / 1000 + 60;
+    String token = rs256("rs", claims("bob", exp));
+    assertEquals("jwt:bob", jwt.authenticate(token, NOW));
+    assertNull(jwt.authenticate(token, exp * 1000));
+    assertNull(jwt.authenticate(rs256("rs", claims("bob", NOW / 1000 - 1)), NOW));
+  }
+
+  @Test
+  public void refusesTokensNotYetValid() throws Exception {
+    String claims = "{\"sub\":\"alice\",\"aud\":\"elasticsearch\",\"exp\":" + (NOW / 1000 + 60)
+        + ",\"nbf\":" + (NOW / 1000 + 30) + "}";
+    JwtVerifier jwt = verifier();
+    assertNull(jwt.authenticate(hs256("hs", claims), NOW));
+    assertEquals("jwt:alice", jwt.authenticate(hs256("hs", claims), NOW + 30000));
+  }
+
+  @Test
+  public void refusesOtherAudiences() throws Exception {
+    String claims = "{\"sub\":\"alice\",\"aud\":\"kibana\",\"exp\":" + (NOW / 1000 + 60) + "}";
+    assertNull(verifier().authenticate(hs256("hs", claims), NOW));
+  }
+
+  @Test
+  public void refusesTamperedTokens() throws Exception {
+    JwtVerifier jwt = verifier();
+    String token = rs256("rs", claims("bob", NOW / 1000 + 60));
+    String[] parts = token.substring("Bearer ".length()).split("\\.");
+    String forged = "Bearer " + parts[0] + "." + base64Url(claims("admin", NOW / 1000 + 60)) + "." + parts[2];
+    assertNull(jwt.authenticate(forged, NOW));
+    assertNull(jwt.authenticate("Bearer " + parts[0] + "." + parts[1] + ".", NOW));
+    assertNull(jwt.authenticate("Bearer " + parts[0] + "." + parts[1], NOW));
+    assertNull(jwt.authenticate("Bearer not a token", NOW));
+    assertNull(jwt.authenticate("Basic YWRtaW46YWRtaW5fcHc=", NOW));
+    assertNull(jwt.authenticate(null, NOW));
+  }
+
+  @Test
+  public void refusesAlgorithmsNotMatchingTheKey() throws Exception {
+    JwtVerifier jwt = verifier();
+    long exp = NOW / 1000 + 60;
+    // an HS256 token of the RSA key, as if its public key were a secret
+    assertNull(jwt.authenticate(hs256("rs", claims("alice", exp)), NOW));
+    assertNull(jwt.authenticate(rs256("hs", claims("alice", exp)), NOW));
+    assertNull(jwt.authenticate(hs256("unknown", claims("alice", exp)), NOW));
+    String none = "Bearer " + base64Url("{\"alg\":\"none\",\"kid\":\"hs\"}") + "."
+        + base64Url(claims("alice", exp)) + ".";
+    assertNull(jwt.authenticate(none, NOW));
+  }
+
+  @Test
+  public void mapsTheConfiguredClaim() throws Exception {
+    JwtVerifier jwt = JwtVerifier.fromSettings(ImmutableSettings.settingsBuilder()
+        .put("http.basic.jwt.jwks_file", jwks().getAbsolutePath())
+        .put("http.basic.jwt.principal_claim", "preferred_username")
+        .put("http.basic.jwt.issuer", "https://sso.example.com")
+        .build(), new File("."));
+    long exp = NOW / 1000 + 60;
+    String claims = "{\"sub\":\"1234\",\"preferred_username\":\"alice\",\"iss\":\"https://sso.example.com\",\"exp\":" + exp + "}";
+    assertEquals("jwt:alice", jwt.authenticate(hs256("hs", claims), NOW));
+    String otherIssuer = "{\"preferred_username\":\"alice\",\"iss\":\"https://evil.example.com\",\"exp\":" + exp + "}";
+    assertNull(jwt.authenticate(hs256("hs", otherIssuer), NOW));
+  }
+
+  @Test
+  public void reloadsTheModifiedJwksFile() throws Exception {
+    File file = jwks();
+    JwtVerifier jwt = JwtVerifier.fromSettings(ImmutableSettings.settingsBuilder()
+        .put("http.basic.jwt.jwks_file", file.getAbsolutePath())
+        .build(), new File("."));
+    String token = hs256("hs", claims("alice", NOW / 1000 + 60));
+    assertEquals("jwt:alice", jwt.authenticate(token, NOW));
+    assertFalse(jwt.reloadIfModified());
+
+    FileOutputStream out = new FileOutputStream(file);
+    out.write("{\"keys\":[]}".getBytes("UTF-8"));
+    out.close();
+    file.setLastModified(file.lastModified() + 2000);
+    assertTrue(jwt.reloadIfModified());
+    assertNull(jwt.authenticate(token, NOW));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMissingJwksFile() {
+    JwtVerifier.fromSettings(ImmutableSettings.settingsBuilder()
+        .put("http.basic.jwt.jwks_file", "/does/not/exist.json")
+        .build(), new File("."));
+  }
+
+  @Test
+  public void decodesUnpaddedBase64Url() throws Exception {
+    byte[] bytes = {(byte) 0xfb, (byte) 0xff, 1, 2};
+    String encoded = base64Url(bytes);
+    assertArrayEquals(bytes, JwtVerifier.decode(encoded, 0, encoded.length()));
+    assertNull(JwtVerifier.decode("a+b/", 0, 4));
+    assertNull(JwtVerifier.decode("abcde", 0, 5));
+  }
+}
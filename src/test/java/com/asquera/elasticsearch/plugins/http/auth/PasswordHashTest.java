@@ -0,0 +1,38 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PasswordHashTest {
+
+  @Test
+  public void createdHashVerifiesPassword() {
+    PasswordHash hash = PasswordHash.create("secret");
+    assertTrue(hash.verify("secret"));
+    assertFalse(hash.verify("Secret"));
+  }
+
+  @Test
+  public void encodedHashCanBeParsed() {
+    PasswordHash hash = PasswordHash.parse(PasswordHash.create("secret").toString());
+    assertTrue(hash.verify("secret"));
+    assertFalse(hash.verify(""));
+  }
+
+  @Test
+  public void saltIsRandom() {
+    assertFalse(PasswordHash.create("secret").toString()
+        .equals(PasswordHash.create("secret").toString()));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void plainPasswordIsNotAHash() {
+    PasswordHash.parse("secret");
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void invalidIterationsAreRejected() {
+    PasswordHash.parse("pbkdf2$many$c2FsdA==$aGFzaA==");
+  }
+}
@@ -0,0 +1,74 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class ProxyChainTrieTest {
+
+  private ProxyChainTrie trie(String... chains) {
+    ProxyChainTrie trie = new ProxyChainTrie();
+    for (String chain : chains) {
+      trie.add(new ProxyChain(chain).getProxyChain());
+    }
+    return trie;
+  }
+
+  @Test
+  public void longestTrustedTailIsFound() {
+    ProxyChainTrie trie = trie("1.1.1.1,2.2.2.2,3.3.3.3", "4.4.4.4,3.3.3.3");
+    assertEquals(3, trie.trustedTailLength(Arrays.asList("9.9.9.9", "1.1.1.1", "2.2.2.2", "3.3.3.3")));
+    assertEquals(2, trie.trustedTailLength(Arrays.asList("4.4.4.4", "3.3.3.3")));
+    assertEquals(1, trie.trustedTailLength(Arrays.asList("5.5.5.5", "3.3.3.3")));
+    assertEquals(0, trie.trustedTailLength(Arrays.asList("3.3.3.3", "5.5.5.5")));
+  }
+
+  @Test
+  public void emptyCandidateIsNotTrusted() {
+    assertEquals(0, trie("1.1.1.1").trustedTailLength(new ArrayList<String>()));
+  }
+
+  /**
+   * the longest common tail subchain, as computed by intersecting the
+   * subchains of both sides
+   */
+  private int expectedTailLength(String[] trusted, ProxyChain candidate) {
+    Set<ProxyChain> sub = new ProxyChains(trusted).subchains();
+    sub.retainAll(candidate.subchains().getProxyChains());
+    int length = 0;
+    for (ProxyChain chain : sub) {
+      length = Math.max(length, chain.size());
+    }
+    return length;
+  }
+
+  @Test
+  public void matchesSubchainsIntersection() {
+    Random random = new Random(42);
+    for (int round = 0; round < 500; round++) {
+      String[] trusted = new String[1 + random.nextInt(4)];
+      for (int i = 0; i < trusted.length; i++) {
+        trusted[i] = randomChain(random);
+      }
+      ProxyChain candidate = new ProxyChain(randomChain(random));
+      assertEquals(expectedTailLength(trusted, candidate),
+          new ProxyChains(trusted).trustedTailLength(candidate));
+    }
+  }
+
+  private String randomChain(Random random) {
+    List<String> ips = new ArrayList<String>();
+    int length = 1 + random.nextInt(5);
+    for (int i = 0; i < length; i++) {
+      ips.add("10.0.0." + random.nextInt(4));
+    }
+    String chain = ips.toString();
+    return chain.substring(1, chain.length() - 1).replace(" ", "");
+  }
+}
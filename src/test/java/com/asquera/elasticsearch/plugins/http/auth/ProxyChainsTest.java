@@ -57,4 +57,11 @@ public class ProxyChainsTest {
     trustedCandidateChain = new ProxyChain(trustedChain2);
     assertTrue(trustedChains.trusts(trustedCandidateChain));
   }
+
+  @Test
+  public void trimsTheConfiguredChains() {
+    ProxyChains chains = new ProxyChains(new String[] { "10.0.0.1, 10.0.0.2" });
+    assertTrue(chains.trusts(new ProxyChain("10.0.0.1,10.0.0.2")));
+    assertTrue(chains.trusts(new ProxyChain("10.0.0.2")));
+  }
 }
@@ -0,0 +1,60 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.junit.Test;
+
+public class RateLimitTest {
+
+  private static final long SECOND = 1000000000L;
+
+  private final RateLimit limit = new RateLimit(3, TimeValue.timeValueSeconds(3));
+
+  @Test
+  public void newBucketIsFull() {
+    long now = 100 * SECOND;
+    assertTrue(limit.isFull(now, now));
+    assertFalse(limit.isEmpty(now, now));
+  }
+
+  @Test
+  public void burstEmptiesTheBucket() {
+    long now = 100 * SECOND;
+    long tat = now;
+    for (int i = 0; i < 3; i++) {
+      assertFalse(limit.isEmpty(tat, now));
+      tat = limit.take(tat, now);
+    }
+    assertTrue(limit.isEmpty(tat, now));
+    assertEquals(SECOND, limit.waitNanos(tat, now));
+  }
+
+  @Test
+  public void bucketRefillsOverThePeriod() {
+    long now = 100 * SECOND;
+    long tat = now;
+    for (int i = 0; i < 3; i++) {
+      tat = limit.take(tat, now);
+    }
+    assertFalse(limit.isEmpty(tat, now + SECOND));
+    assertFalse(limit.isFull(tat, now + SECOND));
+    assertTrue(limit.isFull(tat, now + 3 * SECOND));
+  }
+
+  @Test
+  public void idleTimeIsNotBanked() {
+    long now = 100 * SECOND;
+    long tat = now;
+    now += 60 * SECOND;
+    for (int i = 0; i < 3; i++) {
+      tat = limit.take(tat, now);
+    }
+    assertTrue(limit.isEmpty(tat, now));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void burstMustBePositive() {
+    new RateLimit(0, TimeValue.timeValueSeconds(1));
+  }
+}
@@ -0,0 +1,93 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.rest.RestRequest.Method;
+import org.junit.Test;
+
+public class RouteTrieTest {
+
+  @Test
+  public void matchesLiteralRoutesByMethod() {
+    RouteTrie routes = RouteTrie.compile("GET|HEAD /_cluster/health", "PUT /logs");
+    assertTrue(routes.matches(Method.GET, "/_cluster/health"));
+    assertTrue(routes.matches(Method.HEAD, "/_cluster/health/"));
+    assertFalse(routes.matches(Method.POST, "/_cluster/health"));
+    assertFalse(routes.matches(Method.GET, "/_cluster"));
+    assertFalse(routes.matches(Method.GET, "/_cluster/health/logs"));
+    assertTrue(routes.matches(Method.PUT, "/logs"));
+    assertFalse(routes.matches(Method.GET, "/logs"));
+    assertEquals(2, routes.size());
+  }
+
+  @Test
+  public void routesWithoutMethodsMatchEveryMethod() {
+    RouteTrie routes = RouteTrie.compile("/", "* /logs");
+    for (Method method : Method.values()) {
+      assertTrue(routes.matches(method, "/"));
+      assertTrue(routes.matches(method, "/logs"));
+    }
+  }
+
+  @Test
+  public void matchesWildcardSegments() {
+    RouteTrie routes = RouteTrie.compile("GET /logs-*/_search", "GET /*/_count");
+    assertTrue(routes.matches(Method.GET, "/logs-2015/_search"));
+    assertTrue(routes.matches(Method.GET, "/logs-/_search"));
+    assertFalse(routes.matches(Method.GET, "/metrics/_search"));
+    assertTrue(routes.matches(Method.GET, "/metrics/_count"));
+    assertFalse(routes.matches(Method.GET, "/metrics/_count/more"));
+  }
+
+  @Test
+  public void wildcardsDoNotMatchListsOfIndices() {
+    RouteTrie routes = RouteTrie.compile("GET /logs-*/_search", "GET /*/_count");
+    assertFalse(routes.matches(Method.GET, "/logs-2015,secrets/_search"));
+    assertFalse(routes.matches(Method.GET, "/logs,secrets/_count"));
+  }
+
+  @Test
+  public void doubleStarMatchesAnyRest() {
+    RouteTrie routes = RouteTrie.compile("GET /logs/**");
+    assertTrue(routes.matches(Method.GET, "/logs"));
+    assertTrue(routes.matches(Method.GET, "/logs/_search"));
+    assertTrue(routes.matches(Method.GET, "/logs/event/1"));
+    assertFalse(routes.matches(Method.DELETE, "/logs/event/1"));
+    assertFalse(routes.matches(Method.GET, "/metrics"));
+  }
+
+  @Test
+  public void backtracksFromLiteralsToWildcards() {
+    RouteTrie routes = RouteTrie.compile("GET /logs/_stats", "GET /*/_search");
+    assertTrue(routes.matches(Method.GET, "/logs/_search"));
+    assertTrue(routes.matches(Method.GET, "/logs/_stats"));
+    assertFalse(routes.matches(Method.GET, "/metrics/_stats"));
+  }
+
+  @Test
+  public void emptyTrieMatchesNothing() {
+    RouteTrie routes = RouteTrie.compile();
+    assertFalse(routes.matches(Method.GET, "/"));
+    assertEquals(0, routes.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownMethods() {
+    RouteTrie.compile("FETCH /logs");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsRelativePaths() {
+    RouteTrie.compile("GET logs");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInnerDoubleStars() {
+    RouteTrie.compile("GET /**/_search");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInnerStars() {
+    RouteTrie.compile("GET /lo*gs");
+  }
+}
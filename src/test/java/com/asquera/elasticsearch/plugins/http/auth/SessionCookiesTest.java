@@ -0,0 +1,217 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+public class SessionCookiesTest {
+
+  private static final long NOW = 1430000000000L;
+  private static final String SECRET = "0123456789abcdef0123";
+  private static final User ALICE = User.withPasswordHash("alice", PasswordHash.create("alice_pw"));
+  private static final User JURGEN = User.withPassword("jürgen", "jürgen_pw");
+  private static final CredentialStore USERS = new CredentialStore(
+      Arrays.asList(ALICE, JURGEN, User.withPassword("admin", "admin_pw")), 16);
+
+  private static SessionCookies sessions(Settings settings) {
+    return SessionCookies.fromSettings(settings, new File("."));
+  }
+
+  private static File write(File file, String content) throws Exception {
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(content.getBytes("UTF-8"));
+    out.close();
+    return file;
+  }
+
+  private static File keysFile(String content) throws Exception {
+    File file = File.createTempFile("session_keys", "");
+    file.deleteOnExit();
+    return write(file, content);
+  }
+
+  private static SessionCookies withKeys(String signingKey, String... ids) {
+    ImmutableSettings.Builder builder = ImmutableSettings.settingsBuilder()
+        .put("http.basic.session.ttl", "1h");
+    for (String id : ids) {
+      builder.put("http.basic.session.keys." + id, SECRET + id);
+    }
+    if (signingKey != null) {
+      builder.put("http.basic.session.signing_key", signingKey);
+    }
+    return sessions(builder.build());
+  }
+
+  /**
+   * @return the Cookie header a browser sends back for the Set-Cookie header
+   */
+  private static String cookie(String setCookie) {
+    return setCookie.substring(0, setCookie.indexOf(';'));
+  }
+
+  @Test
+  public void disabledWithoutKeys() {
+    assertNull(sessions(ImmutableSettings.settingsBuilder().build()));
+  }
+
+  @Test
+  public void verifiesIssuedCookies() {
+    SessionCookies sessions = withKeys(null, "k1");
+    String setCookie = sessions.issue(ALICE, NOW);
+    assertTrue(setCookie.startsWith("es_session=k1."));
+    assertTrue(setCookie.contains("; Max-Age=3600; HttpOnly; SameSite=Strict"));
+    assertEquals("alice", sessions.verify(cookie(setCookie), NOW + 1000, USERS));
+    assertEquals("alice", sessions.verify("theme=dark; " + cookie(setCookie) + "; lang=en", NOW, USERS));
+  }
+
+  @Test
+  public void refusesExpiredCookies() {
+    SessionCookies sessions = withKeys(null, "k1");
+    String cookie = cookie(sessions.issue(ALICE, NOW));
+    assertEquals("alice", sessions.verify(cookie, NOW + 3599 * 1000L, USERS));
+    assertNull(sessions.verify(cookie, NOW + 3600 * 1000L, USERS));
+  }
+
+  @Test
+  public void refusesTamperedCookies() {
+    SessionCookies sessions = withKeys(null, "k1");
+    String cookie = cookie(sessions.issue(ALICE, NOW));
+    String[] parts = cookie.substring("es_session=".length()).split("\\.");
+    // another user with the signature of alice
+    String admin = "es_session=" + parts[0] + "." + parts[1] + ".61646d696e." + parts[3];
+    assertNull(sessions.verify(admin, NOW, USERS));
+    // a later expiry
+    String later = "es_session=" + parts[0] + "." + (Long.parseLong(parts[1]) + 3600) + "." + parts[2] + "." + parts[3];
+    assertNull(sessions.verify(later, NOW, USERS));
+    assertNull(sessions.verify(cookie.substring(0, cookie.length() - 1) + "x", NOW, USERS));
+    assertNull(sessions.verify(cookie.substring(0, cookie.length() - 2), NOW, USERS));
+    assertNull(sessions.verify("es_session=k1.garbage", NOW, USERS));
+    assertNull(sessions.verify("other=" + cookie, NOW, USERS));
+    assertNull(sessions.verify(null, NOW, USERS));
+  }
+
+  @Test
+  public void refusesCookiesOfRemovedUsers() {
+    SessionCookies sessions = withKeys(null, "k1");
+    String cookie = cookie(sessions.issue(ALICE, NOW));
+    CredentialStore withoutAlice = new CredentialStore(Arrays.asList(JURGEN), 16);
+    assertNull(sessions.verify(cookie, NOW, withoutAlice));
+  }
+
+  @Test
+  public void refusesCookiesIssuedBeforeAPasswordChange() {
+    SessionCookies sessions = withKeys(null, "k1");
+    String hashed = cookie(sessions.issue(ALICE, NOW));
+    String plain = cookie(sessions.issue(JURGEN, NOW));
+    CredentialStore changed = new CredentialStore(Arrays.asList(
+        User.withPasswordHash("alice", PasswordHash.create("alice_pw")),
+        User.withPassword("jürgen", "new_pw")), 16);
+    // even a new hash of the same password
+    assertNull(sessions.verify(hashed, NOW, changed));
+    assertNull(sessions.verify(plain, NOW, changed));
+  }
+
+  @Test
+  public void refusesCookiesOfOtherSecrets() {
+    String cookie = cookie(withKeys(null, "k1").issue(ALICE, NOW));
+    SessionCookies other = sessions(ImmutableSettings.settingsBuilder()
+        .put("http.basic.session.keys.k1", "another secret of the k1 key")
+        .build());
+    assertNull(other.verify(cookie, NOW, USERS));
+  }
+
+  @Test
+  public void rotatesKeys() {
+    String old = cookie(withKeys(null, "k1").issue(ALICE, NOW));
+    SessionCookies rotated = withKeys("k2", "k1", "k2");
+    assertEquals("alice", rotated.verify(old, NOW, USERS));
+    String renewed = cookie(rotated.issue(ALICE, NOW));
+    assertTrue(renewed.startsWith("es_session=k2."));
+    SessionCookies retired = withKeys(null, "k2");
+    assertEquals("alice", retired.verify(renewed, NOW, USERS));
+    assertNull(retired.verify(old, NOW, USERS));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void needsASigningKeyAmongSeveral() {
+    withKeys(null, "k1", "k2");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownSigningKeys() {
+    withKeys("k3", "k1", "k2");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsShortSecrets() {
+    sessions(ImmutableSettings.settingsBuilder().put("http.basic.session.keys.k1", "short").build());
+  }
+
+  @Test
+  public void keepsNonAsciiUserNames() {
+    SessionCookies sessions = withKeys(null, "k1");
+    assertEquals("jürgen", sessions.verify(cookie(sessions.issue(JURGEN, NOW)), NOW, USERS));
+  }
+
+  @Test
+  public void setsTheConfiguredSameSite() {
+    SessionCookies sessions = sessions(ImmutableSettings.settingsBuilder()
+        .put("http.basic.session.keys.k1", SECRET)
+        .put("http.basic.session.same_site", "lax")
+        .build());
+    assertTrue(sessions.issue(ALICE, NOW).endsWith("; HttpOnly; SameSite=Lax"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void refusesSameSiteNoneWithoutSecure() {
+    sessions(ImmutableSettings.settingsBuilder()
+        .put("http.basic.session.keys.k1", SECRET)
+        .put("http.basic.session.same_site", "None")
+        .build());
+  }
+
+  @Test
+  public void signsWithTheFirstKeyOfTheFile() throws Exception {
+    File file = keysFile("# newest first\nk2:" + SECRET + "k2\nk1:" + SECRET + "k1\n");
+    SessionCookies sessions = sessions(ImmutableSettings.settingsBuilder()
+        .put("http.basic.session.keys_file", file.getAbsolutePath())
+        .build());
+    assertTrue(sessions.issue(ALICE, NOW).startsWith("es_session=k2."));
+    assertEquals("alice", sessions.verify(cookie(withKeys(null, "k1").issue(ALICE, NOW)), NOW, USERS));
+  }
+
+  @Test
+  public void reloadsTheModifiedKeyFile() throws Exception {
+    File file = keysFile("k1:" + SECRET + "k1\n");
+    SessionCookies sessions = sessions(ImmutableSettings.settingsBuilder()
+        .put("http.basic.session.keys_file", file.getAbsolutePath())
+        .build());
+    String old = cookie(sessions.issue(ALICE, NOW));
+    assertFalse(sessions.reloadIfModified());
+
+    write(file, "k2:" + SECRET + "k2\n");
+    file.setLastModified(file.lastModified() + 2000);
+    assertTrue(sessions.reloadIfModified());
+    assertNull(sessions.verify(old, NOW, USERS));
+    assertTrue(sessions.issue(ALICE, NOW).startsWith("es_session=k2."));
+
+    // an invalid file keeps the current keys
+    write(file, "k3:short\n");
+    file.setLastModified(file.lastModified() + 2000);
+    assertFalse(sessions.reloadIfModified());
+    assertTrue(sessions.issue(ALICE, NOW).startsWith("es_session=k2."));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMissingKeyFile() {
+    sessions(ImmutableSettings.settingsBuilder()
+        .put("http.basic.session.keys_file", "/does/not/exist")
+        .build());
+  }
+}
@@ -0,0 +1,55 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TokenBucketTest {
+
+  private static final long SECOND = 1000000000L;
+
+  @Test
+  public void takesUpToTheBurstThenAtTheRate() {
+    long now = 100 * SECOND;
+    TokenBucket bucket = new TokenBucket(RateLimit.perSecond(2, 4), now);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(bucket.tryTake(now));
+    }
+    assertFalse(bucket.tryTake(now));
+    assertTrue(bucket.tryTake(now + SECOND / 2));
+    assertFalse(bucket.tryTake(now + SECOND / 2));
+    assertFalse(bucket.isFull(now + SECOND));
+    assertTrue(bucket.isFull(now + 3 * SECOND));
+  }
+
+  @Test
+  public void concurrentTakesNeverExceedTheBurst() throws InterruptedException {
+    final long now = 100 * SECOND;
+    final TokenBucket bucket = new TokenBucket(RateLimit.perSecond(1, 1000), now);
+    final AtomicInteger taken = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(8);
+    for (int t = 0; t < 8; t++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 1000; i++) {
+            if (bucket.tryTake(now)) {
+              taken.incrementAndGet();
+            }
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    done.await();
+    assertEquals(1000, taken.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rateMustBePositive() {
+    RateLimit.perSecond(0, 1);
+  }
+}
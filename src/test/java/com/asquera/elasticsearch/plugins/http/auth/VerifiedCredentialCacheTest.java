@@ -0,0 +1,40 @@
+package com.asquera.elasticsearch.plugins.http.auth;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class VerifiedCredentialCacheTest {
+
+  private byte[] digest(int seed) {
+    byte[] digest = new byte[VerifiedCredentialCache.DIGEST_LENGTH];
+    for (int i = 0; i < digest.length; i++) {
+      digest[i] = (byte) (seed * 31 + i);
+    }
+    return digest;
+  }
+
+  @Test
+  public void capacityIsRoundedToPowerOfTwo() {
+    assertEquals(1024, new VerifiedCredentialCache(1000).capacity());
+    assertEquals(1, new VerifiedCredentialCache(0).capacity());
+  }
+
+  @Test
+  public void containsAddedDigest() {
+    VerifiedCredentialCache cache = new VerifiedCredentialCache(16);
+    assertFalse(cache.contains(digest(1)));
+    cache.add(digest(1));
+    assertTrue(cache.contains(digest(1)));
+    assertFalse(cache.contains(digest(2)));
+  }
+
+  @Test
+  public void digestInSameSlotIsReplaced() {
+    VerifiedCredentialCache cache = new VerifiedCredentialCache(1);
+    cache.add(digest(1));
+    cache.add(digest(2));
+    assertFalse(cache.contains(digest(1)));
+    assertTrue(cache.contains(digest(2)));
+  }
+}
@@ -33,4 +33,67 @@ public class XForwardedForTest {
     String xForwardedFor = "" ;
     assertFalse(new XForwardedFor(xForwardedFor).isSet());
   }
+
+  @Test
+  public void parsesHopsTrimmingWhitespace() {
+    XForwardedFor x = new XForwardedFor(" 1.1.1.1 ,2.2.2.2,\t3.3.3.3 ");
+    assertThat(x.size(), is(3));
+    assertThat(x.client(), is("1.1.1.1"));
+    assertThat(x.hop(1), is("2.2.2.2"));
+    assertThat(x.hop(2), is("3.3.3.3"));
+    assertThat(x.getxForwardedFor().substring(x.start(2), x.end(2)), is("3.3.3.3"));
+    assertThat(x.proxies().size(), is(2));
+    assertTrue(x.hopEquals(2, "3.3.3.3"));
+    assertFalse(x.hopEquals(2, "3.3.3.33"));
+  }
+
+  @Test
+  public void keepsEmptyHops() {
+    XForwardedFor x = new XForwardedFor("1.1.1.1,, 2.2.2.2");
+    assertThat(x.size(), is(3));
+    assertThat(x.hop(1), is(""));
+    assertTrue(x.hopEquals(1, ""));
+  }
+
+  @Test
+  public void comparesHops() {
+    XForwardedFor x = new XForwardedFor("1.1.1.1, 2.2.2.2,1.1.1.1");
+    assertTrue(x.hopEquals(0, 2));
+    assertFalse(x.hopEquals(0, 1));
+  }
+
+  @Test
+  public void tooManyHopsExceedLimits() {
+    assertFalse(new XForwardedFor("1.1.1.1,2.2.2.2,3.3.3.3", 3, 100).exceedsLimits());
+    XForwardedFor x = new XForwardedFor("1.1.1.1,2.2.2.2,3.3.3.3,4.4.4.4", 3, 100);
+    assertTrue(x.exceedsLimits());
+    assertTrue(x.isSet());
+    assertThat(x.size(), is(0));
+    assertThat(x.client(), is(""));
+  }
+
+  @Test
+  public void tooLongHeaderExceedsLimits() {
+    assertFalse(new XForwardedFor("1.1.1.1", 3, 7).exceedsLimits());
+    assertTrue(new XForwardedFor("1.1.1.1 ", 3, 7).exceedsLimits());
+  }
+
+  @Test
+  public void hugeHeaderIsNotParsed() {
+    StringBuilder header = new StringBuilder("1.1.1.1");
+    for (int i = 0; i < 10000; i++) {
+      header.append(",2.2.2.2");
+    }
+    assertTrue(new XForwardedFor(header.toString()).exceedsLimits());
+  }
+
+  @Test
+  public void parsedHeadersShareTheBufferOfTheThread() {
+    XForwardedFor first = XForwardedFor.parse("1.1.1.1, 2.2.2.2", 32, 2048);
+    assertThat(first.hop(1), is("2.2.2.2"));
+    XForwardedFor second = XForwardedFor.parse(" 3.3.3.3 ,4.4.4.4,5.5.5.5", 32, 2048);
+    assertThat(second.size(), is(3));
+    assertThat(second.hop(0), is("3.3.3.3"));
+    assertThat(second.hop(2), is("5.5.5.5"));
+  }
 }
@@ -0,0 +1,38 @@
+package com.asquera.elasticsearch.plugins.http.auth.integration;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import org.elasticsearch.test.rest.client.http.HttpResponse;
+import org.junit.Test;
+
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Test the routes of the users, with the unauthorized work limited to a
+ * single request
+ */
+@ClusterScope(transportClientRatio = 0.0, scope = Scope.SUITE, numDataNodes = 1)
+public class AccessControlIntegrationTest extends HttpBasicServerPluginIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return builderWithPlugin()
+          .put("http.basic.ipwhitelist", false)
+          .put("http.basic.users.reader.password", "reader_pw")
+          .putArray("http.basic.acl.users.reader", "GET /_cluster/health")
+          .put("http.basic.unauthorized.rate", 0.001)
+          .put("http.basic.unauthorized.burst", 1)
+          .build();
+    }
+
+    @Test
+    public void forbiddenRoutesAreNotShed() throws Exception {
+        // requestWithCredentials asks for /_status, not a route of the reader
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = requestWithCredentials("reader:reader_pw").execute();
+            assertThat(response.getStatusCode(), equalTo(RestStatus.FORBIDDEN.getStatus()));
+        }
+    }
+}
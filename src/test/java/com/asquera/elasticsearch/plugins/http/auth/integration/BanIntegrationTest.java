@@ -0,0 +1,63 @@
+package com.asquera.elasticsearch.plugins.http.auth.integration;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import org.elasticsearch.test.rest.client.http.HttpResponse;
+import org.junit.Test;
+
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Test the ban list endpoints
+ */
+@ClusterScope(transportClientRatio = 0.0, scope = Scope.SUITE, numDataNodes = 1)
+public class BanIntegrationTest extends HttpBasicServerPluginIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return builderWithPlugin()
+          .put("http.basic.ipwhitelist", false)
+          .put("http.basic.users.admin.password", "admin_pw")
+          .put("http.basic.users.reader.password", "reader_pw")
+          .putArray("http.basic.admin.users", "admin")
+          .build();
+    }
+
+    @Test
+    public void banListAndLift() throws Exception {
+        HttpResponse response = requestWithCredentials("admin:admin_pw")
+          .method("PUT").path("/_http_basic/bans/10.1.2.3").addParam("duration", "1h").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+
+        response = requestWithCredentials("admin:admin_pw").path("/_http_basic/bans").execute();
+        assertThat(response.getBody(), containsString("\"10.1.2.3\""));
+
+        response = requestWithCredentials("admin:admin_pw")
+          .method("DELETE").path("/_http_basic/bans/10.1.2.3").execute();
+        assertThat(response.getBody(), containsString("\"acknowledged\":true"));
+
+        response = requestWithCredentials("admin:admin_pw").path("/_http_basic/bans").execute();
+        assertThat(response.getBody(), not(containsString("\"10.1.2.3\"")));
+    }
+
+    @Test
+    public void invalidIpIsRejected() throws Exception {
+        HttpResponse response = requestWithCredentials("admin:admin_pw")
+          .method("PUT").path("/_http_basic/bans/example.com").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.BAD_REQUEST.getStatus()));
+    }
+
+    @Test
+    public void onlyAdminsManageBans() throws Exception {
+        HttpResponse response = requestWithCredentials("reader:reader_pw")
+          .method("PUT").path("/_http_basic/bans/10.1.2.4").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.FORBIDDEN.getStatus()));
+
+        response = requestWithCredentials("reader:reader_pw").path("/_http_basic/bans").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.FORBIDDEN.getStatus()));
+    }
+}
@@ -0,0 +1,83 @@
+package com.asquera.elasticsearch.plugins.http.auth.integration;
+
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import org.elasticsearch.test.rest.client.http.HttpResponse;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Test the authentication with JWT bearer tokens
+ */
+@ClusterScope(transportClientRatio = 0.0, scope = Scope.SUITE, numDataNodes = 1)
+public class BearerIntegrationTest extends HttpBasicServerPluginIntegrationTest {
+
+    private static final byte[] SECRET = "a shared secret of the hs256 key".getBytes();
+
+    private static String base64Url(byte[] bytes) {
+        return Base64.encodeBytes(bytes).replace('+', '-').replace('/', '_').replace("=", "");
+    }
+
+    private static File jwks() {
+        try {
+            File file = File.createTempFile("jwks", ".json");
+            file.deleteOnExit();
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(("{\"keys\":[{\"kty\":\"oct\",\"kid\":\"hs\",\"k\":\"" + base64Url(SECRET) + "\"}]}").getBytes("UTF-8"));
+            out.close();
+            return file;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String token(String sub) throws Exception {
+        String claims = "{\"sub\":\"" + sub + "\",\"exp\":" + (System.currentTimeMillis() / 1000 + 600) + "}";
+        String signed = base64Url("{\"alg\":\"HS256\",\"kid\":\"hs\"}".getBytes("UTF-8")) + "."
+            + base64Url(claims.getBytes("UTF-8"));
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET, "HmacSHA256"));
+        return signed + "." + base64Url(mac.doFinal(signed.getBytes("UTF-8")));
+    }
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return builderWithPlugin()
+          .put("http.basic.ipwhitelist", false)
+          .put("http.basic.jwt.jwks_file", jwks().getAbsolutePath())
+          .putArray("http.basic.admin.users", "admin")
+          .build();
+    }
+
+    @Test
+    public void validTokenIsAuthorized() throws Exception {
+        HttpResponse response = httpClient().path("/_status")
+          .addHeader("Authorization", "Bearer " + token("alice")).execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+    }
+
+    @Test
+    public void tokenOfAUserNameIsNotTheUser() throws Exception {
+        // the principal of the token is jwt:admin
+        HttpResponse response = httpClient().path("/_http_basic/bans")
+          .addHeader("Authorization", "Bearer " + token("admin")).execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.FORBIDDEN.getStatus()));
+    }
+
+    @Test
+    public void tamperedTokenIsUnauthorized() throws Exception {
+        HttpResponse response = httpClient().path("/_status")
+          .addHeader("Authorization", "Bearer " + token("alice") + "x").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+    }
+}
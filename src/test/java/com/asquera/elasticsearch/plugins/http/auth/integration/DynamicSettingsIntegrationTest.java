@@ -0,0 +1,83 @@
+package com.asquera.elasticsearch.plugins.http.auth.integration;
+
+import com.asquera.elasticsearch.plugins.http.auth.PasswordHash;
+import org.elasticsearch.common.base.Predicate;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Test that the auth settings are updated with the cluster update settings
+ * api, without restarting the node
+ */
+@ClusterScope(transportClientRatio = 0.0, scope = Scope.SUITE, numDataNodes = 1)
+public class DynamicSettingsIntegrationTest extends HttpBasicServerPluginIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return builderWithPlugin()
+          .put("http.basic.ipwhitelist", false)
+          .put("http.basic.users.alice.password", "alice_pw")
+          .put("http.basic.users.carol.password", "carol_pw")
+          .build();
+    }
+
+    @Test
+    public void addedUserAuthenticates() throws Exception {
+        assertThat(status("bob:bob_pw"), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+        client().admin().cluster().prepareUpdateSettings()
+          .setTransientSettings(ImmutableSettings.settingsBuilder()
+              .put("http.basic.users.bob.password_hash", PasswordHash.create("bob_pw").toString()))
+          .get();
+        assertStatusBecomes("bob:bob_pw", RestStatus.OK.getStatus());
+        assertThat(status("alice:alice_pw"), equalTo(RestStatus.OK.getStatus()));
+    }
+
+    @Test
+    public void changedPasswordReplacesOldOne() throws Exception {
+        client().admin().cluster().prepareUpdateSettings()
+          .setTransientSettings(ImmutableSettings.settingsBuilder()
+              .put("http.basic.users.carol.password_hash", PasswordHash.create("new_pw").toString()))
+          .get();
+        assertStatusBecomes("carol:new_pw", RestStatus.OK.getStatus());
+        assertThat(status("carol:carol_pw"), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+    }
+
+    @Test
+    public void plainTextPasswordsAreRejected() throws Exception {
+        try {
+            client().admin().cluster().prepareUpdateSettings()
+              .setTransientSettings(ImmutableSettings.settingsBuilder()
+                  .put("http.basic.users.dave.password", "dave_pw"))
+              .get();
+        } catch (Exception e) {
+            // rejected, or ignored as not dynamic
+        }
+        assertThat(status("dave:dave_pw"), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+    }
+
+    private int status(String credentials) throws Exception {
+        return requestWithCredentials(credentials).execute().getStatusCode();
+    }
+
+    private void assertStatusBecomes(final String credentials, final int status) throws Exception {
+        // the new policy is compiled in the background
+        assertTrue(awaitBusy(new Predicate<Object>() {
+            @Override
+            public boolean apply(Object input) {
+                try {
+                    return status(credentials) == status;
+                } catch (Exception e) {
+                    return false;
+                }
+            }
+        }, 10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,48 @@
+package com.asquera.elasticsearch.plugins.http.auth.integration;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import org.elasticsearch.test.rest.client.http.HttpResponse;
+import org.junit.Test;
+
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Test the cached health endpoint
+ */
+@ClusterScope(transportClientRatio = 0.0, scope = Scope.SUITE, numDataNodes = 1)
+public class HealthIntegrationTest extends HttpBasicServerPluginIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return builderWithPlugin()
+          .put("http.basic.ipwhitelist", false)
+          .put("http.basic.health.path", "/_http_basic/health")
+          .put("http.basic.health.interval", "100ms")
+          .build();
+    }
+
+    @Test
+    public void anybodyGetsTheHealthSnapshot() throws Exception {
+        ensureGreen();
+        HttpResponse response = null;
+        for (int i = 0; i < 50; i++) {
+            response = httpClient().path("/_http_basic/health").execute();
+            if (response.getStatusCode() == RestStatus.OK.getStatus()) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+        assertThat(response.getBody(), containsString("\"status\":\"green\""));
+    }
+
+    @Test
+    public void otherPathsStillNeedCredentials() throws Exception {
+        HttpResponse response = httpClient().path("/_cluster/health").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+    }
+}
@@ -0,0 +1,53 @@
+package com.asquera.elasticsearch.plugins.http.auth.integration;
+
+import com.asquera.elasticsearch.plugins.http.auth.PasswordHash;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import org.elasticsearch.test.rest.client.http.HttpResponse;
+import org.junit.Test;
+
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Test basic authentication of several users with hashed passwords
+ */
+@ClusterScope(transportClientRatio = 0.0, scope = Scope.SUITE, numDataNodes = 1)
+public class MultiUserIntegrationTest extends HttpBasicServerPluginIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return builderWithPlugin()
+          .put("http.basic.ipwhitelist", false)
+          .put("http.basic.users.alice.password_hash", PasswordHash.create("alice_pw").toString())
+          .put("http.basic.users.bob.password", "bob_pw")
+          .build();
+    }
+
+    @Test
+    public void hashedPasswordUserAuthenticates() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            HttpResponse response = requestWithCredentials("alice:alice_pw").execute();
+            assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+        }
+    }
+
+    @Test
+    public void plainPasswordUserAuthenticates() throws Exception {
+        HttpResponse response = requestWithCredentials("bob:bob_pw").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+    }
+
+    @Test
+    public void wrongPasswordFails() throws Exception {
+        HttpResponse response = requestWithCredentials("alice:bob_pw").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+    }
+
+    @Test
+    public void defaultUserIsDisabled() throws Exception {
+        HttpResponse response = requestWithCredentials("admin:admin_pw").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+    }
+}
@@ -0,0 +1,43 @@
+package com.asquera.elasticsearch.plugins.http.auth.integration;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import org.elasticsearch.test.rest.client.http.HttpResponse;
+import org.junit.Test;
+
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Test the routes requested without credentials
+ */
+@ClusterScope(transportClientRatio = 0.0, scope = Scope.SUITE, numDataNodes = 1)
+public class PublicRoutesIntegrationTest extends HttpBasicServerPluginIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return builderWithPlugin()
+          .put("http.basic.ipwhitelist", false)
+          .putArray("http.basic.public_routes", "GET /_cluster/health")
+          .build();
+    }
+
+    @Test
+    public void publicRouteNeedsNoCredentials() throws Exception {
+        HttpResponse response = httpClient().path("/_cluster/health").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+    }
+
+    @Test
+    public void otherMethodsOfThePublicRouteNeedCredentials() throws Exception {
+        HttpResponse response = httpClient().method("POST").path("/_cluster/health").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+    }
+
+    @Test
+    public void otherRoutesNeedCredentials() throws Exception {
+        HttpResponse response = httpClient().path("/_cluster/state").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+    }
+}
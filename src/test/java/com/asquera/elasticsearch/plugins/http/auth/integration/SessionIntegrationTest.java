@@ -0,0 +1,59 @@
+package com.asquera.elasticsearch.plugins.http.auth.integration;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import org.elasticsearch.test.rest.client.http.HttpResponse;
+import org.junit.Test;
+
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+/**
+ * Test the session cookies issued after basic auth
+ */
+@ClusterScope(transportClientRatio = 0.0, scope = Scope.SUITE, numDataNodes = 1)
+public class SessionIntegrationTest extends HttpBasicServerPluginIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return builderWithPlugin()
+          .put("http.basic.ipwhitelist", false)
+          .put("http.basic.session.keys.k1", "a secret for the integration test")
+          .build();
+    }
+
+    @Test
+    public void sessionCookieAuthenticatesLaterRequests() throws Exception {
+        HttpResponse response = requestWithCredentials("admin:admin_pw").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+        String setCookie = response.getHeaders().get("Set-Cookie");
+        assertThat(setCookie, notNullValue());
+        assertThat(setCookie, startsWith("es_session=k1."));
+
+        String cookie = setCookie.substring(0, setCookie.indexOf(';'));
+        response = httpClient().path("/_status").addHeader("Cookie", cookie).execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+    }
+
+    @Test
+    public void sharedResponsesNeverCarryTheCookie() throws Exception {
+        // the responses of the plugin are built once
+        HttpResponse response = requestWithCredentials("admin:admin_pw").path("/_http_basic/stats").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+        assertThat(response.getHeaders().get("Set-Cookie"), nullValue());
+        response = httpClient().path("/_status").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+        assertThat(response.getHeaders().get("Set-Cookie"), nullValue());
+    }
+
+    @Test
+    public void forgedCookieIsUnauthorized() throws Exception {
+        HttpResponse response = httpClient().path("/_status")
+          .addHeader("Cookie", "es_session=k1.9999999999.61646d696e.00").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+    }
+}
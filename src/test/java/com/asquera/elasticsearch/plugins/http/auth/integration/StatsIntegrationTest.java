@@ -0,0 +1,54 @@
+package com.asquera.elasticsearch.plugins.http.auth.integration;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import org.elasticsearch.test.rest.client.http.HttpResponse;
+import org.junit.Test;
+
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Test the auth statistics endpoint
+ */
+@ClusterScope(transportClientRatio = 0.0, scope = Scope.SUITE, numDataNodes = 1)
+public class StatsIntegrationTest extends HttpBasicServerPluginIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return builderWithPlugin()
+          .put("http.basic.ipwhitelist", false)
+          .build();
+    }
+
+    @Test
+    public void statsCountOutcomes() throws Exception {
+        requestWithCredentials("admin:wrong").execute();
+        HttpResponse response = requestWithCredentials("admin:admin_pw")
+          .path("/_http_basic/stats").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+        assertThat(response.getBody(), not(containsString("\"unauthorized\":0")));
+        assertThat(response.getBody(), containsString("\"basic\":"));
+        assertThat(response.getBody(), containsString("\"p99_nanos\""));
+    }
+
+    @Test
+    public void nodesStatsAddUpTheNodes() throws Exception {
+        requestWithCredentials("admin:wrong").execute();
+        HttpResponse response = requestWithCredentials("admin:admin_pw")
+          .path("/_http_basic/nodes/stats").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+        assertThat(response.getBody(), containsString("\"total\":{\"nodes\":1,"));
+        assertThat(response.getBody(), not(containsString("\"unauthorized\":0")));
+        assertThat(response.getBody(), containsString("\"p99_nanos\""));
+    }
+
+    @Test
+    public void statsRequireAuthentication() throws Exception {
+        HttpResponse response = httpClient().path("/_http_basic/stats").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+    }
+}
@@ -0,0 +1,60 @@
+package com.asquera.elasticsearch.plugins.http.auth.integration;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.test.ElasticsearchIntegrationTest.ClusterScope;
+import org.elasticsearch.test.rest.client.http.HttpResponse;
+import org.junit.Test;
+
+import static org.elasticsearch.test.ElasticsearchIntegrationTest.Scope;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Test the throttling of clients over their auth failure budget, a node per
+ * test so each starts with a full budget
+ */
+@ClusterScope(transportClientRatio = 0.0, scope = Scope.TEST, numDataNodes = 1)
+public class ThrottleIntegrationTest extends HttpBasicServerPluginIntegrationTest {
+
+    @Override
+    protected Settings nodeSettings(int nodeOrdinal) {
+        return builderWithPlugin()
+          .put("http.basic.ipwhitelist", false)
+          .put("http.basic.throttle.failures", 3)
+          .put("http.basic.throttle.period", "1h")
+          .put("http.basic.xforward", "X-Forwarded-For")
+          .build();
+    }
+
+    @Test
+    public void clientOverItsBudgetIsThrottled() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = requestWithCredentials("admin:wrong").execute();
+            assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+        }
+        HttpResponse response = requestWithCredentials("admin:admin_pw").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.TOO_MANY_REQUESTS.getStatus()));
+    }
+
+    @Test
+    public void spoofedXForwardedForDoesNotRefillTheBudget() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = requestWithCredentials("admin:wrong")
+              .addHeader("X-Forwarded-For", "10.0.0." + i).execute();
+            assertThat(response.getStatusCode(), equalTo(RestStatus.UNAUTHORIZED.getStatus()));
+        }
+        HttpResponse response = requestWithCredentials("admin:admin_pw")
+          .addHeader("X-Forwarded-For", "10.0.0.99").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.TOO_MANY_REQUESTS.getStatus()));
+    }
+
+    @Test
+    public void wrongCredentialsOnTheHealthCheckAreCounted() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = requestWithCredentials("admin:wrong").path("/").execute();
+            assertThat(response.getStatusCode(), equalTo(RestStatus.OK.getStatus()));
+        }
+        HttpResponse response = requestWithCredentials("admin:admin_pw").path("/").execute();
+        assertThat(response.getStatusCode(), equalTo(RestStatus.TOO_MANY_REQUESTS.getStatus()));
+    }
+}